@@ -16,21 +16,64 @@
 
 package com.lehman.ambientweatherjava;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Java connector client class that implements remote calls
  * for listUsersDevices and queryDeviceData. Ambient Weather API
  * reference can be found at https://ambientweather.docs.apiary.io .
+ *
+ * Call close() when done with a client built with virtualThreads() to shut
+ * down the executor it created.
  */
-public class AmbientWeather {
+public class AmbientWeather implements AutoCloseable {
+    /**
+     * The ObjectMapper shared by all clients that aren't given their own. ObjectMapper
+     * is thread-safe once configured and caches its deserializers, so sharing it avoids
+     * re-introspecting the record classes on every call.
+     */
+    private static final ObjectMapper sharedMapper = new ObjectMapper();
+
+    /**
+     * The shared ObjectMapper with the FastRecordModule registered.
+     */
+    private static final ObjectMapper sharedFastMapper = new ObjectMapper().registerModule(new FastRecordModule());
+
     /**
      * The base URL of the remote Ambient Weather API.
      */
@@ -59,6 +102,90 @@ public class AmbientWeather {
      */
     private HttpClient client;
 
+    /**
+     * The Executor used by the HttpClient for async work and response
+     * handling or null to use the HttpClient default.
+     */
+    private Executor executor;
+
+    /**
+     * If true the executor was created by this client and is shut down by close().
+     */
+    private boolean ownsExecutor = false;
+
+    /**
+     * The RateLimiter every request takes a permit from before
+     * being sent or null if rate limiting is disabled.
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * The RetryPolicy that decides if failed requests are retried.
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * The total number of retries this client has made.
+     */
+    private AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * The total time in milliseconds this client has waited between retries.
+     */
+    private AtomicLong retryDelayMillis = new AtomicLong();
+
+    /**
+     * The read-through cache for queryDeviceData pages or null for none.
+     */
+    private DataRecordCache cache;
+
+    /**
+     * How long a listUsersDevices result is reused for in milliseconds.
+     */
+    private long devicesTtlMillis;
+
+    /**
+     * Guards the listUsersDevices in-flight request and cached result.
+     */
+    private final Object devicesLock = new Object();
+
+    /**
+     * The listUsersDevices request in flight or null if there's none.
+     */
+    private CompletableFuture<Device[]> devicesInFlight;
+
+    /**
+     * The last listUsersDevices result or null if there's none.
+     */
+    private Device[] cachedDevices;
+
+    /**
+     * The time in epoch millis the cached devices expire.
+     */
+    private long devicesExpireAt;
+
+    /**
+     * The ObjectMapper used to parse responses.
+     */
+    private ObjectMapper mapper;
+
+    /**
+     * Pre-built ObjectReader for Device arrays. ObjectReader is immutable
+     * and thread-safe so it's built once and reused for every call.
+     */
+    private ObjectReader deviceReader;
+
+    /**
+     * Pre-built ObjectReader for DataRecord arrays.
+     */
+    private ObjectReader dataRecordReader;
+
+    /**
+     * Pre-built ObjectReader for a single DataRecord. Used when
+     * streaming records out of the response one at a time.
+     */
+    private ObjectReader singleRecordReader;
+
     /**
      * Constructor takes the application key and API key. The
      * constructor stores those values and creates the HttpClient
@@ -68,54 +195,249 @@ public class AmbientWeather {
      * @param APIKey is a String with the API key.
      */
     public AmbientWeather(String ApplicationKey, String APIKey) {
-        this.applicationKey = ApplicationKey;
-        this.apiKey = APIKey;
+        this(ApplicationKey, APIKey, sharedMapper);
+    }
+
+    /**
+     * Constructor takes the application key, API key and the ObjectMapper
+     * to use when parsing responses. Use this if you need to register
+     * modules or change deserialization features.
+     * @param ApplicationKey is a String with the application key.
+     * @param APIKey is a String with the API key.
+     * @param Mapper is the ObjectMapper to use when parsing responses.
+     */
+    public AmbientWeather(String ApplicationKey, String APIKey, ObjectMapper Mapper) {
+        this(new AmbientWeatherBuilder(ApplicationKey, APIKey).objectMapper(Mapper));
+    }
+
+    /**
+     * Constructor used by AmbientWeatherBuilder.
+     * @param Builder is the AmbientWeatherBuilder with the client settings.
+     */
+    AmbientWeather(AmbientWeatherBuilder Builder) {
+        this.applicationKey = Builder.getApplicationKey();
+        this.apiKey = Builder.getApiKey();
+        if (Builder.getBaseUrl() != null) {
+            this.baseUrl = Builder.getBaseUrl();
+        }
+
+        if (Builder.isRateLimitEnabled()) {
+            this.rateLimiter = Builder.getRateLimiter() != null ? Builder.getRateLimiter()
+                : RateLimiter.forKeys(this.applicationKey, this.apiKey, Builder.getPermitsPerSecond(), Builder.getBurst());
+        }
+
+        this.retryPolicy = Builder.getRetryPolicy() != null ? Builder.getRetryPolicy() : RetryPolicy.none();
+        this.cache = Builder.getCache();
+        this.devicesTtlMillis = Builder.getDevicesTtl().toMillis();
+
+        if (Builder.getObjectMapper() == null) {
+            this.mapper = Builder.isFastDeserializer() ? sharedFastMapper : sharedMapper;
+        } else if (Builder.isFastDeserializer()) {
+            this.mapper = Builder.getObjectMapper().copy().registerModule(new FastRecordModule());
+        } else {
+            this.mapper = Builder.getObjectMapper();
+        }
+        this.deviceReader = this.mapper.readerFor(Device[].class);
+        this.dataRecordReader = this.mapper.readerFor(DataRecord[].class);
+        this.singleRecordReader = this.mapper.readerFor(DataRecord.class);
 
         // Initialize the client
-        this.client = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_1_1)
+        this.executor = Builder.getExecutor();
+        if (Builder.isVirtualThreads()) {
+            this.executor = Executors.newVirtualThreadPerTaskExecutor();
+            this.ownsExecutor = true;
+        }
+        HttpClient.Builder clientBuilder = HttpClient.newBuilder()
+            .version(Builder.getVersion())
             .followRedirects(HttpClient.Redirect.NORMAL)
-            .connectTimeout(Duration.ofSeconds(20))
-            .build()
+            .connectTimeout(Builder.getConnectTimeout())
         ;
+        if (this.executor != null) {
+            clientBuilder.executor(this.executor);
+        }
+        this.client = clientBuilder.build();
+    }
+
+    /**
+     * Creates a new AmbientWeatherBuilder for configuring a client.
+     * @param ApplicationKey is a String with the application key.
+     * @param APIKey is a String with the API key.
+     * @return A new AmbientWeatherBuilder object.
+     */
+    public static AmbientWeatherBuilder builder(String ApplicationKey, String APIKey) {
+        return new AmbientWeatherBuilder(ApplicationKey, APIKey);
+    }
+
+    /**
+     * Gets the ObjectMapper used to parse responses.
+     * @return An ObjectMapper object.
+     */
+    public ObjectMapper getObjectMapper() {
+        return this.mapper;
+    }
+
+    /**
+     * Gets the Executor the client runs async work on. This is handy for running
+     * blocking calls in bulk on the same executor, for example when the client
+     * is built with virtualThreads().
+     * @return The Executor or null if the HttpClient default is used.
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Shuts down the executor if this client created it with virtualThreads().
+     * Work already submitted runs to completion but no new work is accepted.
+     * An executor passed to the builder is left alone since the caller owns it.
+     */
+    @Override
+    public void close() {
+        if (this.ownsExecutor) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+    }
+
+    /**
+     * Gets the RateLimiter requests from this client take permits from. Callers
+     * making their own requests with the same keys can take permits from it too.
+     * @return The RateLimiter object or null if rate limiting is disabled.
+     */
+    public RateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    /**
+     * Gets the RetryPolicy used by this client.
+     * @return The RetryPolicy object.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * Creates a RealtimeClient with this client's keys and ObjectMapper. Call connect
+     * on it to start receiving data as stations report instead of polling.
+     * @return A new RealtimeClient object.
+     */
+    public RealtimeClient realtime() {
+        return new RealtimeClient(this.applicationKey, List.of(this.apiKey), this.mapper);
+    }
+
+    /**
+     * Gets the read-through cache for queryDeviceData pages.
+     * @return The DataRecordCache object or null if caching is off.
+     */
+    public DataRecordCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Gets the total number of retries this client has made. Together with
+     * getRetryDelayMillis this shows how much latency retries are adding.
+     * @return A long with the number of retries.
+     */
+    public long getRetryCount() {
+        return this.retryCount.get();
+    }
+
+    /**
+     * Gets the total time in milliseconds this client has waited between retries.
+     * @return A long with the retry delay in milliseconds.
+     */
+    public long getRetryDelayMillis() {
+        return this.retryDelayMillis.get();
     }
 
     /**
      * Lists the user's devices. This request if successful returns a list of Device
-     * objects with the user's devices.
+     * objects with the user's devices. Concurrent callers share one request, and if
+     * the client is built with a devices TTL the result is reused until it expires.
      * @return An array of Device objects.
      * @throws HttpStatusException will be thrown if a non-200 status is returned.
      * @throws IOException
      * @throws InterruptedException
      */
     public Device[] listUsersDevices() throws HttpStatusException, IOException, InterruptedException {
-        Device[] devices = new Device[0];
-        // Create the request URL.
-        String url = this.baseUrl + "devices?"
-            + "applicationKey=" + this.applicationKey
-            + "&apiKey=" + this.apiKey
-        ;
+        try {
+            return this.listUsersDevicesAsync().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HttpStatusException) {
+                throw (HttpStatusException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
 
-        // Create the request object.
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(url))
-            .timeout(Duration.ofMinutes(2))
-            .header("Content-Type", "application/json")
-            .GET()
-            .build()
-        ;
+    /**
+     * Lists the user's devices without blocking the calling thread. The request is
+     * sent with HttpClient.sendAsync and the returned future completes with the
+     * array of Device objects once the response has been parsed. Like listUsersDevices
+     * concurrent callers share one request and a cached result is reused until it
+     * expires. Each caller gets its own array but the Device objects are shared.
+     * @return A CompletableFuture with an array of Device objects. If a non-200 status
+     * is returned the future completes exceptionally with a HttpStatusException.
+     */
+    public CompletableFuture<Device[]> listUsersDevicesAsync() {
+        CompletableFuture<Device[]> request;
+        synchronized (this.devicesLock) {
+            if (this.cachedDevices != null && System.currentTimeMillis() < this.devicesExpireAt) {
+                return CompletableFuture.completedFuture(this.cachedDevices.clone());
+            }
 
-        // Send the request and handle the response.
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() == 200) {
-            String responseJson = response.body();
-            ObjectMapper map = new ObjectMapper();
-            devices = map.readValue(responseJson, Device[].class);
-        } else {
-            throw new HttpStatusException(response.statusCode(), response.body());
+            if (this.devicesInFlight == null) {
+                CompletableFuture<Device[]> started = this.sendAsync(this.buildDevicesRequest(), HttpResponse.BodyHandlers.ofString())
+                    .thenApply(response -> {
+                        try {
+                            return this.parseDevices(response);
+                        } catch (HttpStatusException | IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    })
+                ;
+                this.devicesInFlight = started;
+                started.whenComplete((devices, error) -> this.devicesCompleted(started, devices));
+            }
+            request = this.devicesInFlight;
         }
+        return request.thenApply(Device[]::clone);
+    }
 
-        return devices;
+    /**
+     * Drops the cached listUsersDevices result so the next call sends a new request.
+     * A request already in flight is still shared with its callers but its result
+     * isn't cached.
+     */
+    public void invalidateDevices() {
+        synchronized (this.devicesLock) {
+            this.cachedDevices = null;
+            this.devicesInFlight = null;
+        }
+    }
+
+    /**
+     * Called when a listUsersDevices request completes to cache the result.
+     * @param Request is the CompletableFuture of the request.
+     * @param Devices is an array with the devices or null if the request failed.
+     */
+    private void devicesCompleted(CompletableFuture<Device[]> Request, Device[] Devices) {
+        synchronized (this.devicesLock) {
+            if (this.devicesInFlight != Request) {
+                return;
+            }
+            this.devicesInFlight = null;
+            if (Devices != null && this.devicesTtlMillis > 0) {
+                this.cachedDevices = Devices;
+                this.devicesExpireAt = System.currentTimeMillis() + this.devicesTtlMillis;
+            }
+        }
     }
 
     /**
@@ -146,7 +468,8 @@ public class AmbientWeather {
     }
 
     /**
-     *
+     * Gets a list of DataRecords with the provided MAC address, limit and end date. If the
+     * client has a DataRecordCache the page is returned from it when cached.
      * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
      * @param Limit is an int with the max number of records to return. This value can't be greater than 288.
      * @param EndDate is a UTC date formatted string to use in the query as the end date to select records from.
@@ -156,7 +479,525 @@ public class AmbientWeather {
      * @throws InterruptedException
      */
     public DataRecord[] queryDeviceData(String MacAddress, int Limit, String EndDate) throws HttpStatusException, IOException, InterruptedException {
-        DataRecord[] records = new DataRecord[0];
+        if (this.cache != null) {
+            DataRecord[] cached = this.cache.get(MacAddress, Limit, EndDate);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Send the request and handle the response.
+        HttpRequest request = this.buildDeviceDataRequest(MacAddress, Limit, EndDate);
+        HttpResponse<String> response = this.send(request, HttpResponse.BodyHandlers.ofString());
+        return this.cacheRecords(MacAddress, Limit, EndDate, this.parseDataRecords(MacAddress, response));
+    }
+
+    /**
+     * Streams DataRecords with the provided MAC address to the provided Consumer. Unlike
+     * the other queryDeviceData methods the response body is never buffered as a String.
+     * Records are parsed straight from the response InputStream and handed to the
+     * Consumer one at a time as they are parsed, so only one record needs to be held
+     * in memory at once. The MAC address and ID are set before the record is passed on.
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Limit is an int with the max number of records to return. This value can't be greater than 288.
+     * @param EndDate is a UTC date formatted string to use in the query as the end date to select records from.
+     * @param RecordConsumer is a Consumer that is called with each DataRecord as it's parsed.
+     * @return An int with the number of records passed to the Consumer.
+     * @throws HttpStatusException will be thrown if a non-200 status is returned.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int queryDeviceData(String MacAddress, int Limit, String EndDate, Consumer<DataRecord> RecordConsumer) throws HttpStatusException, IOException, InterruptedException {
+        // Send the request and handle the response.
+        HttpRequest request = this.buildDeviceDataRequest(MacAddress, Limit, EndDate);
+        HttpResponse<InputStream> response = this.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw statusException(response, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return this.streamDataRecords(MacAddress, body, RecordConsumer);
+        }
+    }
+
+    /**
+     * Gets the device's records as a columnar DataRecordBatch. Records are streamed
+     * from the response straight into the batch columns so no DataRecord array is
+     * ever built. See DataRecordBatch for details.
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Limit is an int with the max number of records to return. This value can't be greater than 288.
+     * @param EndDate is a UTC date formatted string to use in the query as the end date to select records from.
+     * @return A DataRecordBatch with the records.
+     * @throws HttpStatusException will be thrown if a non-200 status is returned.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public DataRecordBatch queryDeviceDataBatch(String MacAddress, int Limit, String EndDate) throws HttpStatusException, IOException, InterruptedException {
+        DataRecordBatch.Builder batch = new DataRecordBatch.Builder(MacAddress, Limit);
+        this.queryDeviceData(MacAddress, Limit, EndDate, batch::add);
+        return batch.build();
+    }
+
+    /**
+     * Gets a list of DataRecords with the provided MAC address without blocking the
+     * calling thread. This is the async counterpart of queryDeviceData(String).
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @return A CompletableFuture with an array of DataRecord objects. If a non-200 status
+     * is returned the future completes exceptionally with a HttpStatusException.
+     */
+    public CompletableFuture<DataRecord[]> queryDeviceDataAsync(String MacAddress) {
+        return this.queryDeviceDataAsync(MacAddress, this.maxDataRecords);
+    }
+
+    /**
+     * Async counterpart of queryDeviceData(String, int).
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Limit is an int with the max number of records to return. This value can't be greater than 288.
+     * @return A CompletableFuture with an array of DataRecord objects. If a non-200 status
+     * is returned the future completes exceptionally with a HttpStatusException.
+     */
+    public CompletableFuture<DataRecord[]> queryDeviceDataAsync(String MacAddress, int Limit) {
+        return this.queryDeviceDataAsync(MacAddress, Limit, "");
+    }
+
+    /**
+     * Async counterpart of queryDeviceData(String, int, String). The request is sent
+     * with HttpClient.sendAsync so no thread is held while waiting on the remote service.
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Limit is an int with the max number of records to return. This value can't be greater than 288.
+     * @param EndDate is a UTC date formatted string to use in the query as the end date to select records from.
+     * @return A CompletableFuture with an array of DataRecord objects. If a non-200 status
+     * is returned the future completes exceptionally with a HttpStatusException.
+     */
+    public CompletableFuture<DataRecord[]> queryDeviceDataAsync(String MacAddress, int Limit, String EndDate) {
+        if (this.cache != null) {
+            DataRecord[] cached = this.cache.get(MacAddress, Limit, EndDate);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        HttpRequest request = this.buildDeviceDataRequest(MacAddress, Limit, EndDate);
+        return this.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            .thenApply(response -> {
+                try {
+                    return this.cacheRecords(MacAddress, Limit, EndDate, this.parseDataRecords(MacAddress, response));
+                } catch (HttpStatusException | IOException e) {
+                    throw new CompletionException(e);
+                }
+            })
+        ;
+    }
+
+    /**
+     * Queries the data of several devices concurrently. At most Concurrency queries
+     * are in flight at once and each one still takes a permit from the client's rate
+     * limiter, so the limiter sets the overall pace. A device that fails doesn't fail
+     * the batch, it's reported in the result's failures instead.
+     * @param MacAddresses is a Collection of device MAC address Strings.
+     * @param Concurrency is an int with the max number of queries in flight at once.
+     * @return A MultiDeviceResult with the records and failures by MAC address.
+     * @throws InterruptedException
+     */
+    public MultiDeviceResult queryDevicesData(Collection<String> MacAddresses, int Concurrency) throws InterruptedException {
+        try {
+            return this.queryDevicesDataAsync(MacAddresses, Concurrency).get();
+        } catch (ExecutionException e) {
+            // Per device failures are collected in the result so this can't happen.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Same as queryDevicesData but takes the devices returned from listUsersDevices.
+     * @param Devices is an array of Device objects.
+     * @param Concurrency is an int with the max number of queries in flight at once.
+     * @return A MultiDeviceResult with the records and failures by MAC address.
+     * @throws InterruptedException
+     */
+    public MultiDeviceResult queryDevicesData(Device[] Devices, int Concurrency) throws InterruptedException {
+        return this.queryDevicesData(macAddresses(Devices), Concurrency);
+    }
+
+    /**
+     * Async counterpart of queryDevicesData. The returned future always completes
+     * normally once every device query has finished.
+     * @param MacAddresses is a Collection of device MAC address Strings.
+     * @param Concurrency is an int with the max number of queries in flight at once.
+     * @return A CompletableFuture with a MultiDeviceResult.
+     */
+    public CompletableFuture<MultiDeviceResult> queryDevicesDataAsync(Collection<String> MacAddresses, int Concurrency) {
+        ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>(MacAddresses);
+        Map<String, DataRecord[]> records = new ConcurrentHashMap<>();
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+
+        // Each worker takes the next MAC address when its current query finishes.
+        int workers = Math.max(1, Math.min(Concurrency, pending.size()));
+        CompletableFuture<?>[] running = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            running[i] = this.queryNextDevice(pending, records, failures);
+        }
+
+        return CompletableFuture.allOf(running).thenApply(v -> {
+            // Keep the results in the order the MAC addresses were passed in.
+            Map<String, DataRecord[]> orderedRecords = new LinkedHashMap<>();
+            Map<String, Throwable> orderedFailures = new LinkedHashMap<>();
+            for (String mac : MacAddresses) {
+                if (records.containsKey(mac)) orderedRecords.put(mac, records.get(mac));
+                if (failures.containsKey(mac)) orderedFailures.put(mac, failures.get(mac));
+            }
+            return new MultiDeviceResult(orderedRecords, orderedFailures);
+        });
+    }
+
+    /**
+     * Same as queryDevicesDataAsync but takes the devices returned from listUsersDevices.
+     * @param Devices is an array of Device objects.
+     * @param Concurrency is an int with the max number of queries in flight at once.
+     * @return A CompletableFuture with a MultiDeviceResult.
+     */
+    public CompletableFuture<MultiDeviceResult> queryDevicesDataAsync(Device[] Devices, int Concurrency) {
+        return this.queryDevicesDataAsync(macAddresses(Devices), Concurrency);
+    }
+
+    /**
+     * Queries pending devices one after another until none are left.
+     * @param Pending is the queue of MAC addresses left to query.
+     * @param Records is the Map to put successful results in.
+     * @param Failures is the Map to put failures in.
+     * @return A CompletableFuture that completes when the queue is empty.
+     */
+    private CompletableFuture<Void> queryNextDevice(ConcurrentLinkedQueue<String> Pending, Map<String, DataRecord[]> Records, Map<String, Throwable> Failures) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        this.queryDevices(Pending, Records, Failures, done);
+        return done;
+    }
+
+    /**
+     * Loops over the pending devices for as long as queries complete right
+     * away, such as cache hits and immediate failures, and only continues in
+     * a callback when one is still in flight. Chaining every query with
+     * thenCompose would instead run a long run of completed queries on one
+     * stack and overflow it.
+     */
+    private void queryDevices(ConcurrentLinkedQueue<String> Pending, Map<String, DataRecord[]> Records, Map<String, Throwable> Failures, CompletableFuture<Void> Done) {
+        String mac;
+        while ((mac = Pending.poll()) != null) {
+            CompletableFuture<DataRecord[]> query;
+            try {
+                query = this.queryDeviceDataAsync(mac);
+            } catch (RuntimeException e) {
+                query = CompletableFuture.failedFuture(e);
+            }
+
+            String queried = mac;
+            if (!query.isDone()) {
+                query.whenComplete((recs, error) -> {
+                    deviceQueried(queried, recs, error, Records, Failures);
+                    this.queryDevices(Pending, Records, Failures, Done);
+                });
+                return;
+            }
+            query.whenComplete((recs, error) -> deviceQueried(queried, recs, error, Records, Failures));
+        }
+        Done.complete(null);
+    }
+
+    /**
+     * Records the result of one device's query.
+     */
+    private static void deviceQueried(String MacAddress, DataRecord[] Recs, Throwable Error, Map<String, DataRecord[]> Records, Map<String, Throwable> Failures) {
+        if (Error != null) {
+            Failures.put(MacAddress, Error instanceof CompletionException && Error.getCause() != null ? Error.getCause() : Error);
+        } else {
+            Records.put(MacAddress, Recs);
+        }
+    }
+
+    /**
+     * Gets the MAC addresses of the provided devices.
+     * @param Devices is an array of Device objects.
+     * @return A List of MAC address Strings.
+     */
+    private static List<String> macAddresses(Device[] Devices) {
+        List<String> macs = new ArrayList<>();
+        for (Device dev : Devices) {
+            macs.add(dev.getMacAddress());
+        }
+        return macs;
+    }
+
+    /**
+     * Gets a lazy Iterator over all of the device's records between the provided
+     * start and end dates. Pages of up to 288 records are requested as needed by
+     * walking the end date backwards, and the next page is prefetched while the
+     * current one is being consumed. Records are returned newest first. See
+     * DataRecordBackfill for details.
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Start is a Date with the oldest record time to return.
+     * @param End is a Date with the newest record time to return.
+     * @return An Iterator of DataRecord objects.
+     */
+    public Iterator<DataRecord> backfill(String MacAddress, Date Start, Date End) {
+        return new DataRecordBackfill(this, MacAddress, Start.getTime(), End.getTime(), this.maxDataRecords);
+    }
+
+    /**
+     * Same as backfill but returns a sequential Stream of the records.
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Start is a Date with the oldest record time to return.
+     * @param End is a Date with the newest record time to return.
+     * @return A Stream of DataRecord objects.
+     */
+    public Stream<DataRecord> backfillStream(String MacAddress, Date Start, Date End) {
+        Iterator<DataRecord> it = this.backfill(MacAddress, Start, End);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Gets a Flow.Publisher of the device's records. The request is only sent once
+     * the subscriber requests records, and each subscriber gets its own request.
+     * See RecordPublisher for details.
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Limit is an int with the max number of records to return. This value can't be greater than 288.
+     * @param EndDate is a UTC date formatted string to use in the query as the end date to select records from.
+     * @return A Flow.Publisher of DataRecord objects. If a non-200 status is returned
+     * the subscriber's onError is called with a HttpStatusException.
+     */
+    public Flow.Publisher<DataRecord> queryDeviceDataPublisher(String MacAddress, int Limit, String EndDate) {
+        return new RecordPublisher(() -> {
+            boolean[] sent = { false };
+            return () -> {
+                if (sent[0]) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                sent[0] = true;
+                return this.queryDeviceDataAsync(MacAddress, Limit, EndDate);
+            };
+        });
+    }
+
+    /**
+     * Gets a Flow.Publisher of all of the device's records between the provided start
+     * and end dates, newest first like backfill. Pages are requested as the subscriber
+     * asks for records, with at most one page prefetched, so a slow subscriber slows
+     * down the paging instead of records being buffered without bound.
+     * @param MacAddress is a String with the device MAC address. (Acquired from listUsersDevices)
+     * @param Start is a Date with the oldest record time to return.
+     * @param End is a Date with the newest record time to return.
+     * @return A Flow.Publisher of DataRecord objects.
+     */
+    public Flow.Publisher<DataRecord> backfillPublisher(String MacAddress, Date Start, Date End) {
+        return new RecordPublisher(() -> new DataRecordBackfill(this, MacAddress, Start.getTime(), End.getTime(), this.maxDataRecords)::nextPageAsync);
+    }
+
+    /**
+     * Gets a Flow.Publisher of the latest records of several devices. The devices
+     * are queried one after the other as the subscriber asks for records. Unlike
+     * queryDevicesData a failed device ends the stream with onError since a
+     * Flow.Subscriber can't be sent anything after a failure.
+     * @param MacAddresses is a Collection of device MAC address Strings.
+     * @return A Flow.Publisher of DataRecord objects.
+     */
+    public Flow.Publisher<DataRecord> queryDevicesDataPublisher(Collection<String> MacAddresses) {
+        List<String> macs = new ArrayList<>(MacAddresses);
+        return new RecordPublisher(() -> {
+            Iterator<String> it = macs.iterator();
+            return () -> it.hasNext() ? this.queryDeviceDataAsync(it.next()) : CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Sends the request, first waiting for a permit from the rate limiter. GET
+     * requests that fail with an IOException or a status the retry policy
+     * considers transient are retried after the policy's delay.
+     * @param Request is the HttpRequest to send.
+     * @param Handler is the BodyHandler for the response.
+     * @param <T> is the response body type.
+     * @return The HttpResponse. This can still be a non-200 response if retries ran out.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private <T> HttpResponse<T> send(HttpRequest Request, HttpResponse.BodyHandler<T> Handler) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + this.retryPolicy.getDeadline().toNanos();
+        for (int attempt = 1; ; attempt++) {
+            if (this.rateLimiter != null) {
+                this.rateLimiter.acquire();
+            }
+
+            long delayMillis;
+            try {
+                HttpResponse<T> response = this.client.send(Request, Handler);
+                delayMillis = this.getRetryDelay(Request, response, attempt, deadline);
+                if (delayMillis < 0) {
+                    return response;
+                }
+                discardBody(response);
+            } catch (IOException e) {
+                delayMillis = this.getRetryDelay(Request, e, attempt, deadline);
+                if (delayMillis < 0) {
+                    throw e;
+                }
+            }
+            Thread.sleep(delayMillis);
+        }
+    }
+
+    /**
+     * Sends the request asynchronously once a permit from the rate limiter
+     * is available. No thread is held while waiting for the permit or between
+     * retries. Retries follow the same rules as send.
+     * @param Request is the HttpRequest to send.
+     * @param Handler is the BodyHandler for the response.
+     * @param <T> is the response body type.
+     * @return A CompletableFuture with the HttpResponse.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest Request, HttpResponse.BodyHandler<T> Handler) {
+        long deadline = System.nanoTime() + this.retryPolicy.getDeadline().toNanos();
+        return this.sendAsync(Request, Handler, 1, deadline);
+    }
+
+    /**
+     * Sends one attempt of the request asynchronously and chains the next attempt if needed.
+     * @param Request is the HttpRequest to send.
+     * @param Handler is the BodyHandler for the response.
+     * @param Attempt is an int with the attempt number starting at 1.
+     * @param Deadline is a long with the System.nanoTime() after which no retries are started.
+     * @param <T> is the response body type.
+     * @return A CompletableFuture with the HttpResponse.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest Request, HttpResponse.BodyHandler<T> Handler, int Attempt, long Deadline) {
+        CompletableFuture<Void> permit = this.rateLimiter == null ? CompletableFuture.completedFuture(null) : this.rateLimiter.acquireAsync();
+        return permit
+            .thenCompose(v -> this.client.sendAsync(Request, Handler))
+            .handle((response, error) -> {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                long delayMillis;
+                if (cause == null) {
+                    delayMillis = this.getRetryDelay(Request, response, Attempt, Deadline);
+                    if (delayMillis < 0) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    discardBody(response);
+                } else if (cause instanceof IOException) {
+                    delayMillis = this.getRetryDelay(Request, (IOException) cause, Attempt, Deadline);
+                    if (delayMillis < 0) {
+                        return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                    }
+                } else {
+                    return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                }
+
+                Executor delayed = CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS);
+                return CompletableFuture.supplyAsync(() -> null, delayed)
+                    .thenCompose(v -> this.sendAsync(Request, Handler, Attempt + 1, Deadline));
+            })
+            .thenCompose(f -> f)
+        ;
+    }
+
+    /**
+     * Gets the delay before retrying a request that returned the provided response.
+     * @param Request is the HttpRequest that was sent.
+     * @param Response is the HttpResponse that was returned.
+     * @param Attempt is an int with the attempt number starting at 1.
+     * @param Deadline is a long with the System.nanoTime() after which no retries are started.
+     * @return A long with the delay in milliseconds or -1 if the request shouldn't be retried.
+     */
+    private long getRetryDelay(HttpRequest Request, HttpResponse<?> Response, int Attempt, long Deadline) {
+        if (Response.statusCode() == 200 || !this.retryPolicy.isRetryable(Response.statusCode())) {
+            return -1;
+        }
+        return this.checkRetry(Request, Attempt, Deadline, this.retryPolicy.getDelayMillis(Attempt, RetryPolicy.parseRetryAfter(Response.headers())));
+    }
+
+    /**
+     * Gets the delay before retrying a request that failed with the provided exception.
+     * @param Request is the HttpRequest that was sent.
+     * @param Error is the IOException the request failed with.
+     * @param Attempt is an int with the attempt number starting at 1.
+     * @param Deadline is a long with the System.nanoTime() after which no retries are started.
+     * @return A long with the delay in milliseconds or -1 if the request shouldn't be retried.
+     */
+    private long getRetryDelay(HttpRequest Request, IOException Error, int Attempt, long Deadline) {
+        if (!this.retryPolicy.isRetryable(Error)) {
+            return -1;
+        }
+        return this.checkRetry(Request, Attempt, Deadline, this.retryPolicy.getDelayMillis(Attempt, -1));
+    }
+
+    /**
+     * Checks the request can be retried within the policy limits and records the retry if so.
+     * @param Request is the HttpRequest that was sent.
+     * @param Attempt is an int with the attempt number starting at 1.
+     * @param Deadline is a long with the System.nanoTime() after which no retries are started.
+     * @param DelayMillis is a long with the delay the policy asked for.
+     * @return A long with the delay in milliseconds or -1 if the request shouldn't be retried.
+     */
+    private long checkRetry(HttpRequest Request, int Attempt, long Deadline, long DelayMillis) {
+        if (!Request.method().equals("GET") || Attempt >= this.retryPolicy.getMaxAttempts()) {
+            return -1;
+        }
+        if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DelayMillis) - Deadline > 0) {
+            return -1;
+        }
+        this.retryCount.incrementAndGet();
+        this.retryDelayMillis.addAndGet(DelayMillis);
+        return DelayMillis;
+    }
+
+    /**
+     * Releases the body of a response that's being thrown away for a retry.
+     * @param Response is the HttpResponse to discard.
+     */
+    private static void discardBody(HttpResponse<?> Response) {
+        if (Response.body() instanceof InputStream) {
+            try {
+                ((InputStream) Response.body()).close();
+            } catch (IOException e) {
+                // Nothing to do, the connection is dropped either way.
+            }
+        }
+    }
+
+    /**
+     * Creates the HttpStatusException for a non-200 response.
+     * @param Response is the non-200 HttpResponse.
+     * @param Body is a String with the response body.
+     * @return A HttpStatusException object.
+     */
+    private static HttpStatusException statusException(HttpResponse<?> Response, String Body) {
+        return new HttpStatusException(Response.statusCode(), Body, RetryPolicy.parseRetryAfter(Response.headers()));
+    }
+
+    /**
+     * Builds the GET request for the devices endpoint.
+     * @return A HttpRequest object.
+     */
+    private HttpRequest buildDevicesRequest() {
+        // Create the request URL.
+        String url = this.baseUrl + "devices?"
+            + "applicationKey=" + this.applicationKey
+            + "&apiKey=" + this.apiKey
+        ;
+
+        // Create the request object.
+        return HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .timeout(Duration.ofMinutes(2))
+            .header("Content-Type", "application/json")
+            .GET()
+            .build()
+        ;
+    }
+
+    /**
+     * Builds the GET request for the device data endpoint.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Limit is an int with the max number of records to return.
+     * @param EndDate is a UTC date formatted string or empty String for now.
+     * @return A HttpRequest object.
+     */
+    private HttpRequest buildDeviceDataRequest(String MacAddress, int Limit, String EndDate) {
         // Create the request URL.
         String url = this.baseUrl + "devices/" + MacAddress + "?"
                 + "applicationKey=" + this.applicationKey
@@ -169,22 +1010,90 @@ public class AmbientWeather {
         }
 
         // Create the request object.
-        HttpRequest request = HttpRequest.newBuilder()
+        return HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .timeout(Duration.ofMinutes(2))
                 .header("Content-Type", "application/json")
                 .GET()
                 .build()
                 ;
+    }
 
-        // Send the request and handle the response.
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Parses the devices response into an array of Device objects.
+     * @param response is the HttpResponse returned from the devices endpoint.
+     * @return An array of Device objects.
+     * @throws HttpStatusException will be thrown if a non-200 status is returned.
+     * @throws IOException
+     */
+    private Device[] parseDevices(HttpResponse<String> response) throws HttpStatusException, IOException {
+        Device[] devices = new Device[0];
+        if (response.statusCode() == 200) {
+            devices = this.deviceReader.readValue(response.body());
+        } else {
+            throw statusException(response, response.body());
+        }
+
+        return devices;
+    }
+
+    /**
+     * Adds the records to the cache if caching is on.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Limit is an int with the query limit.
+     * @param EndDate is a String with the query end date.
+     * @param Records is an array with the parsed records.
+     * @return The Records array.
+     */
+    private DataRecord[] cacheRecords(String MacAddress, int Limit, String EndDate, DataRecord[] Records) {
+        if (this.cache != null) {
+            this.cache.put(MacAddress, Limit, EndDate, Records);
+        }
+        return Records;
+    }
+
+    /**
+     * Parses a JSON array of data records from the provided InputStream and passes
+     * each one to the Consumer as soon as it's parsed.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Body is the InputStream with the response body.
+     * @param RecordConsumer is a Consumer that is called with each DataRecord.
+     * @return An int with the number of records parsed.
+     * @throws IOException
+     */
+    private int streamDataRecords(String MacAddress, InputStream Body, Consumer<DataRecord> RecordConsumer) throws IOException {
+        int count = 0;
+        try (JsonParser parser = this.mapper.getFactory().createParser(Body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of data records but found " + parser.currentToken() + ".");
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                DataRecord rec = this.singleRecordReader.readValue(parser);
+                rec.setDeviceMac(MacAddress);
+                rec.generateId();    // Must be called AFTER setting the MAC.
+                RecordConsumer.accept(rec);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parses the device data response into an array of DataRecord objects and
+     * updates each record with the MAC address and ID.
+     * @param MacAddress is a String with the device MAC address.
+     * @param response is the HttpResponse returned from the device data endpoint.
+     * @return An array of DataRecord objects.
+     * @throws HttpStatusException will be thrown if a non-200 status is returned.
+     * @throws IOException
+     */
+    private DataRecord[] parseDataRecords(String MacAddress, HttpResponse<String> response) throws HttpStatusException, IOException {
+        DataRecord[] records = new DataRecord[0];
         if (response.statusCode() == 200) {
-            String responseJson = response.body();
-            ObjectMapper map = new ObjectMapper();
-            records = map.readValue(responseJson, DataRecord[].class);
+            records = this.dataRecordReader.readValue(response.body());
         } else {
-            throw new HttpStatusException(response.statusCode(), response.body());
+            throw statusException(response, response.body());
         }
 
         // Update all records with MAC address and ID.
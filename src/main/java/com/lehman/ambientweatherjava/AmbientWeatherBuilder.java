@@ -0,0 +1,361 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Builder for AmbientWeather client objects. Use this when you need
+ * more than the application and API keys to configure the client.
+ * Get an instance by calling AmbientWeather.builder(appKey, apiKey).
+ */
+public class AmbientWeatherBuilder {
+    /**
+     * Stores the application key.
+     */
+    private String applicationKey;
+
+    /**
+     * Stores the API key.
+     */
+    private String apiKey;
+
+    /**
+     * The base URL of the remote API. If null the
+     * client default is used.
+     */
+    private String baseUrl;
+
+    /**
+     * The ObjectMapper to parse responses with. If null
+     * the shared client mapper is used.
+     */
+    private ObjectMapper objectMapper;
+
+    /**
+     * Whether to parse records with the hand written deserializers.
+     */
+    private boolean fastDeserializer = false;
+
+    /**
+     * Whether requests should take a permit from a rate limiter.
+     */
+    private boolean rateLimitEnabled = true;
+
+    /**
+     * The number of requests per second allowed when using the shared limiter.
+     */
+    private double permitsPerSecond = RateLimiter.DEFAULT_PERMITS_PER_SECOND;
+
+    /**
+     * The number of requests that can be sent back to back when using the shared limiter.
+     */
+    private int burst = 1;
+
+    /**
+     * A RateLimiter to use instead of the shared one.
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * The RetryPolicy for failed requests.
+     */
+    private RetryPolicy retryPolicy = new RetryPolicy();
+
+    /**
+     * The Executor for the HttpClient and bulk query work or null for the default.
+     */
+    private Executor executor;
+
+    /**
+     * If true each client creates and owns a virtual thread per task executor.
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * The HTTP protocol version to request. HTTP/2 multiplexes concurrent
+     * queries over one connection and falls back to HTTP/1.1 when the
+     * server doesn't support it.
+     */
+    private HttpClient.Version version = HttpClient.Version.HTTP_2;
+
+    /**
+     * The timeout for opening a connection.
+     */
+    private Duration connectTimeout = Duration.ofSeconds(20);
+
+    /**
+     * The read-through cache for queryDeviceData pages or null for none.
+     */
+    private DataRecordCache cache;
+
+    /**
+     * How long a listUsersDevices result is reused for.
+     */
+    private Duration devicesTtl = Duration.ZERO;
+
+    /**
+     * Constructor takes the application key and API key.
+     * @param ApplicationKey is a String with the application key.
+     * @param APIKey is a String with the API key.
+     */
+    public AmbientWeatherBuilder(String ApplicationKey, String APIKey) {
+        this.applicationKey = ApplicationKey;
+        this.apiKey = APIKey;
+    }
+
+    /**
+     * Sets the base URL of the remote API. This is mostly useful for
+     * pointing the client at a local mock server. The URL must end with a '/'.
+     * @param BaseUrl is a String with the base URL.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder baseUrl(String BaseUrl) {
+        this.baseUrl = BaseUrl;
+        return this;
+    }
+
+    /**
+     * Sets the ObjectMapper to parse responses with. The mapper should be
+     * fully configured before being passed in since the client builds its
+     * ObjectReaders from it once.
+     * @param Mapper is the ObjectMapper to use.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder objectMapper(ObjectMapper Mapper) {
+        this.objectMapper = Mapper;
+        return this;
+    }
+
+    /**
+     * Parses DataRecord and DeviceDataRecord objects with the hand written
+     * deserializers in FastRecordModule instead of Jackson bean introspection.
+     * If an ObjectMapper is also set the module is registered on a copy of it.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder fastDeserializer() {
+        this.fastDeserializer = true;
+        return this;
+    }
+
+    /**
+     * Sets the rate of the limiter shared by all clients with the same application
+     * and API keys. By default clients allow 1 request per second with no burst,
+     * matching the Ambient Weather per-key limit. Note that the shared limiter is
+     * created by the first client built with the keys, later settings don't change it.
+     * @param PermitsPerSecond is a double with the number of requests allowed per second.
+     * @param Burst is an int with the max number of requests that can be sent back to back.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder rateLimit(double PermitsPerSecond, int Burst) {
+        this.rateLimitEnabled = true;
+        this.permitsPerSecond = PermitsPerSecond;
+        this.burst = Burst;
+        return this;
+    }
+
+    /**
+     * Sets the RateLimiter to take permits from instead of the shared one.
+     * @param Limiter is the RateLimiter to use.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder rateLimiter(RateLimiter Limiter) {
+        this.rateLimitEnabled = true;
+        this.rateLimiter = Limiter;
+        return this;
+    }
+
+    /**
+     * Turns off client side rate limiting. Requests are sent as soon as
+     * they're made and rate limit errors come back as HttpStatusException.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder disableRateLimit() {
+        this.rateLimitEnabled = false;
+        return this;
+    }
+
+    /**
+     * Sets the RetryPolicy for failed requests. By default 429 and 5xx responses
+     * are retried up to 3 attempts with exponential backoff. Pass RetryPolicy.none()
+     * to turn retries off.
+     * @param Policy is the RetryPolicy to use.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder retryPolicy(RetryPolicy Policy) {
+        this.retryPolicy = Policy;
+        return this;
+    }
+
+    /**
+     * Sets the Executor the HttpClient runs async work and response handling on.
+     * Async and multi-device queries complete on this executor. Don't run blocking
+     * client calls on a bounded pool that's also passed here, the calls can end up
+     * waiting on responses that need a pool thread to be delivered.
+     * @param Exec is the Executor to use.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder executor(Executor Exec) {
+        this.executor = Exec;
+        this.virtualThreads = false;
+        return this;
+    }
+
+    /**
+     * Runs the HttpClient and bulk query work on a virtual thread per task executor.
+     * Blocking calls submitted to AmbientWeather.getExecutor() then only park a
+     * virtual thread while waiting on the response, so thousands can be in flight
+     * without sizing a thread pool. Each client built creates its own executor
+     * and shuts it down in AmbientWeather.close().
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder virtualThreads() {
+        this.executor = null;
+        this.virtualThreads = true;
+        return this;
+    }
+
+    /**
+     * Sets the HTTP protocol version to request. Defaults to HTTP/2, which
+     * falls back to HTTP/1.1 if the server doesn't negotiate HTTP/2.
+     * @param Version is the HttpClient.Version to request.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder version(HttpClient.Version Version) {
+        this.version = Version;
+        return this;
+    }
+
+    /**
+     * Sets the timeout for opening a connection. Defaults to 20 seconds.
+     * @param Timeout is a Duration with the connect timeout.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder connectTimeout(Duration Timeout) {
+        this.connectTimeout = Timeout;
+        return this;
+    }
+
+    /**
+     * Caches queryDeviceData pages in a DataRecordCache with the default size and TTL.
+     * See DataRecordCache for details.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder cache() {
+        return this.cache(new DataRecordCache());
+    }
+
+    /**
+     * Caches queryDeviceData pages in the provided DataRecordCache. A cache can be
+     * shared between clients with the same keys.
+     * @param Cache is the DataRecordCache to use.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder cache(DataRecordCache Cache) {
+        this.cache = Cache;
+        return this;
+    }
+
+    /**
+     * Sets how long a listUsersDevices result is reused for. Each device's lastData
+     * is only as fresh as the TTL, so keep it short, a few seconds is enough to stop
+     * separate components from each spending a request. Defaults to zero, which only
+     * shares requests that are in flight at the same time.
+     * @param Ttl is a Duration with how long the devices are reused for.
+     * @return This builder.
+     */
+    public AmbientWeatherBuilder devicesTtl(Duration Ttl) {
+        this.devicesTtl = Ttl;
+        return this;
+    }
+
+    /**
+     * Builds the AmbientWeather client.
+     * @return A new AmbientWeather object.
+     */
+    public AmbientWeather build() {
+        return new AmbientWeather(this);
+    }
+
+    String getApplicationKey() {
+        return applicationKey;
+    }
+
+    String getApiKey() {
+        return apiKey;
+    }
+
+    String getBaseUrl() {
+        return baseUrl;
+    }
+
+    ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    boolean isFastDeserializer() {
+        return fastDeserializer;
+    }
+
+    boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    int getBurst() {
+        return burst;
+    }
+
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    HttpClient.Version getVersion() {
+        return version;
+    }
+
+    Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    DataRecordCache getCache() {
+        return cache;
+    }
+
+    Duration getDevicesTtl() {
+        return devicesTtl;
+    }
+}
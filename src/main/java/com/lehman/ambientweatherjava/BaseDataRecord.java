@@ -16,8 +16,10 @@
 
 package com.lehman.ambientweatherjava;
 
-import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.Instant;
 import java.util.Date;
 
 /**
@@ -29,11 +31,17 @@ import java.util.Date;
 public class BaseDataRecord {
     /**
      * The date in UTC format. This comes across as epoch time
-     * in a long int format but is converted to Java Date object
-     * by the custom DateHandler class.
+     * in a long int format and is kept as a primitive long so
+     * parsing and sorting never allocate. A Java Date object is
+     * only created when getDateutc() is called.
      */
-    @JsonDeserialize(using = DateHandler.class)
-    private Date dateutc;
+    private long dateutcMillis;
+
+    /**
+     * Whether dateutc has been set. getDateutc() returns null until it
+     * is, like it did when dateutc was stored as a Date.
+     */
+    private boolean dateutcSet = false;
 
     /**
      * Temperature indoors Fahrenheit.
@@ -165,12 +173,88 @@ public class BaseDataRecord {
      */
     public BaseDataRecord() { }
 
+    /**
+     * Copy constructor.
+     * @param Other is the BaseDataRecord to copy the fields of.
+     */
+    public BaseDataRecord(BaseDataRecord Other) {
+        this.dateutcMillis = Other.dateutcMillis;
+        this.dateutcSet = Other.dateutcSet;
+        this.tempinf = Other.tempinf;
+        this.humidityin = Other.humidityin;
+        this.baromrelin = Other.baromrelin;
+        this.baromabsin = Other.baromabsin;
+        this.tempf = Other.tempf;
+        this.battout = Other.battout;
+        this.humidity = Other.humidity;
+        this.winddir = Other.winddir;
+        this.windspeedmph = Other.windspeedmph;
+        this.windgustmph = Other.windgustmph;
+        this.maxdailygust = Other.maxdailygust;
+        this.hourlyrainin = Other.hourlyrainin;
+        this.eventrainin = Other.eventrainin;
+        this.dailyrainin = Other.dailyrainin;
+        this.weeklyrainin = Other.weeklyrainin;
+        this.monthlyrainin = Other.monthlyrainin;
+        this.totalrainin = Other.totalrainin;
+        this.solarradiation = Other.solarradiation;
+        this.uv = Other.uv;
+        this.feelsLike = Other.feelsLike;
+        this.dewPoint = Other.dewPoint;
+        this.feelsLikein = Other.feelsLikein;
+        this.dewPointin = Other.dewPointin;
+        this.lastRain = Other.lastRain;
+        this.date = Other.date;
+    }
+
+    /**
+     * Gets dateutc as a new Java Date object. Prefer getDateutcMillis()
+     * when only the time is needed since this allocates on every call.
+     * @return A Date object or null if dateutc isn't set.
+     */
+    @JsonIgnore
     public Date getDateutc() {
-        return dateutc;
+        return this.dateutcSet ? new Date(this.dateutcMillis) : null;
     }
 
+    /**
+     * Sets dateutc from a Java Date object. A null Date unsets it, and
+     * getDateutcMillis() then returns 0.
+     * @param dateutc is a Date object.
+     */
+    @JsonIgnore
     public void setDateutc(Date dateutc) {
-        this.dateutc = dateutc;
+        this.dateutcMillis = dateutc == null ? 0 : dateutc.getTime();
+        this.dateutcSet = dateutc != null;
+    }
+
+    /**
+     * Gets dateutc as an Instant.
+     * @return An Instant object or null if dateutc isn't set.
+     */
+    @JsonIgnore
+    public Instant getDateutcInstant() {
+        return this.dateutcSet ? Instant.ofEpochMilli(this.dateutcMillis) : null;
+    }
+
+    /**
+     * Whether dateutc has been set, from the response or a setter.
+     * @return A boolean with true if it's set.
+     */
+    @JsonIgnore
+    public boolean hasDateutc() {
+        return this.dateutcSet;
+    }
+
+    @JsonProperty("dateutc")
+    public long getDateutcMillis() {
+        return dateutcMillis;
+    }
+
+    @JsonProperty("dateutc")
+    public void setDateutcMillis(long dateutcMillis) {
+        this.dateutcMillis = dateutcMillis;
+        this.dateutcSet = true;
     }
 
     public double getTempinf() {
@@ -16,6 +16,7 @@
 
 package com.lehman.ambientweatherjava;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.apache.commons.codec.digest.DigestUtils;
 
 /**
@@ -32,6 +33,26 @@ public class DataRecord extends BaseDataRecord {
      */
     private String id = "";
 
+    /**
+     * Set by generateId() when the SHA-256 ID still needs to be computed.
+     * The hash is only computed if getId() is actually called. It's volatile
+     * and cleared after id is written, so a thread that sees it cleared also
+     * sees the hash.
+     */
+    private volatile boolean idPending = false;
+
+    /**
+     * The deviceMac when generateId() was called, which the pending hash is
+     * computed from so it always matches the key.
+     */
+    private String idMac = "";
+
+    /**
+     * The compact key made of the deviceMac and dateutc. Volatile since
+     * records are read from other threads once they're cached or published.
+     */
+    private volatile RecordKey key;
+
     /**
      * A String with the device MAC address.
      */
@@ -47,20 +68,66 @@ public class DataRecord extends BaseDataRecord {
      */
     public DataRecord() { }
 
+    /**
+     * Copy constructor. The ID and key are copied as they are, a pending
+     * hash stays pending.
+     * @param Other is the DataRecord to copy the fields of.
+     */
+    public DataRecord(DataRecord Other) {
+        super(Other);
+        this.id = Other.id;
+        this.idPending = Other.idPending;
+        this.idMac = Other.idMac;
+        this.key = Other.key;
+        this.deviceMac = Other.deviceMac;
+        this.loc = Other.loc;
+    }
+
     /**
      * Generates the ID with a 256 hashed string containing the current
      * time in milliseconds since epoch (dateutc field) and the
      * deviceMac field. Note, the deviceMac needs to be manually
      * set before calling this function, otherwise the hash will
      * only include the date.
+     *
+     * The compact RecordKey is built right away but the hash itself is
+     * computed lazily the first time getId() is called, since most
+     * callers only need the key for dedupe.
      */
     public void generateId() {
-        this.id = DigestUtils.sha256Hex(this.getDateutc().getTime() + this.deviceMac);
+        this.key = RecordKey.of(this.deviceMac, this.getDateutcMillis());
+        this.idMac = this.deviceMac;
+        this.idPending = true;
     }
 
-    public void setId(String Id) { this.id = Id; }
+    public void setId(String Id) {
+        this.id = Id;
+        this.idPending = false;
+    }
 
-    public String getId() { return this.id; }
+    public String getId() {
+        if (this.idPending) {
+            // Two threads may both hash, but they write the same value.
+            this.id = DigestUtils.sha256Hex(this.key.getEpochMillis() + this.idMac);
+            this.idPending = false;
+        }
+        return this.id;
+    }
+
+    /**
+     * Gets the compact key made of the deviceMac and dateutc. Use this rather
+     * than getId() for dedupe and lookups. If generateId() hasn't been called
+     * the key is built from the current deviceMac and dateutc.
+     * @return A RecordKey object.
+     */
+    @JsonIgnore
+    public RecordKey getKey() {
+        RecordKey k = this.key;
+        if (k == null) {
+            return RecordKey.of(this.deviceMac, this.getDateutcMillis());
+        }
+        return k;
+    }
 
     public String getLoc() {
         return loc;
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Lazy iterator over a device's history between a start and end time. Ambient
+ * Weather returns at most 288 records per call, so this walks the endDate
+ * backwards a page at a time using the oldest dateutc of each page. Records
+ * on the page boundary that were already returned are skipped by RecordKey. The next page
+ * is requested as soon as the current one arrives so it downloads while the
+ * caller works through the current page.
+ *
+ * Records are returned newest first, the same order the API returns them. If
+ * a request fails next() and hasNext() throw a CompletionException with the
+ * HttpStatusException or IOException as the cause.
+ */
+public class DataRecordBackfill implements Iterator<DataRecord> {
+    /**
+     * The client to make the requests with.
+     */
+    private AmbientWeather client;
+
+    /**
+     * A String with the device MAC address.
+     */
+    private String macAddress;
+
+    /**
+     * The oldest dateutc in epoch millis to return.
+     */
+    private long startMillis;
+
+    /**
+     * The newest dateutc in epoch millis to return.
+     */
+    private long endMillis;
+
+    /**
+     * The number of records to request per page.
+     */
+    private int pageSize;
+
+    /**
+     * The page currently being iterated.
+     */
+    private DataRecord[] page = new DataRecord[0];
+
+    /**
+     * The index of the next record to return from page.
+     */
+    private int index = 0;
+
+    /**
+     * The request for the next page or null if there are no more pages.
+     */
+    private CompletableFuture<DataRecord[]> nextPage;
+
+    /**
+     * The dateutc of the oldest record seen so far.
+     */
+    private long oldestMillis;
+
+    /**
+     * Keys of the records with the oldest dateutc seen so far. The next
+     * page can start with these again so they are used to drop duplicates.
+     */
+    private Set<RecordKey> boundaryKeys = new HashSet<>();
+
+    /**
+     * The next record to return or null if it hasn't been found yet.
+     */
+    private DataRecord next;
+
+    /**
+     * Constructor takes the client, MAC address and time range. The first
+     * page is requested right away.
+     * @param Client is the AmbientWeather client to make requests with.
+     * @param MacAddress is a String with the device MAC address.
+     * @param StartMillis is a long with the oldest dateutc to return in epoch millis.
+     * @param EndMillis is a long with the newest dateutc to return in epoch millis.
+     * @param PageSize is an int with the number of records to request per page. (Max 288)
+     */
+    public DataRecordBackfill(AmbientWeather Client, String MacAddress, long StartMillis, long EndMillis, int PageSize) {
+        this.client = Client;
+        this.macAddress = MacAddress;
+        this.startMillis = StartMillis;
+        this.endMillis = EndMillis;
+        this.pageSize = PageSize;
+        this.oldestMillis = Long.MAX_VALUE;
+        this.nextPage = this.requestPage(EndMillis);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.next == null) {
+            if (this.index < this.page.length) {
+                DataRecord rec = this.page[this.index++];
+                if (this.accept(rec)) {
+                    this.next = rec;
+                }
+            } else if (this.nextPage != null) {
+                this.advance();
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public DataRecord next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DataRecord ret = this.next;
+        this.next = null;
+        return ret;
+    }
+
+    /**
+     * Gets the next page without blocking, with the records that were already
+     * returned or are out of range removed. Used by the Flow.Publisher so pages
+     * are only requested as the subscriber asks for records. Don't mix with
+     * hasNext and next.
+     * @return A CompletableFuture with the page or null if there are no more pages.
+     */
+    CompletableFuture<DataRecord[]> nextPageAsync() {
+        if (this.nextPage == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.nextPage.thenApply(records -> {
+            this.pageReceived(records);
+            List<DataRecord> accepted = new ArrayList<>(records.length);
+            for (DataRecord rec : records) {
+                if (this.accept(rec)) {
+                    accepted.add(rec);
+                }
+            }
+            return accepted.toArray(new DataRecord[0]);
+        });
+    }
+
+    /**
+     * Waits for the pending page and makes it current.
+     */
+    private void advance() {
+        this.page = this.nextPage.join();
+        this.index = 0;
+        this.pageReceived(this.page);
+    }
+
+    /**
+     * Clears the pending page and requests the following page if there
+     * could be more records.
+     * @param Records is the array of records on the page that arrived.
+     */
+    private void pageReceived(DataRecord[] Records) {
+        this.nextPage = null;
+
+        // Find the oldest record on this page to page back from.
+        long pageOldest = Long.MAX_VALUE;
+        for (DataRecord rec : Records) {
+            pageOldest = Math.min(pageOldest, rec.getDateutcMillis());
+        }
+
+        // A short page means we've run out of history. A page that doesn't move
+        // the end date back would make us request the same page forever.
+        if (Records.length >= this.pageSize && pageOldest > this.startMillis && pageOldest < this.oldestMillis) {
+            this.nextPage = this.requestPage(pageOldest);
+        }
+    }
+
+    /**
+     * Checks the provided record is in range and isn't a duplicate from the
+     * previous page boundary.
+     * @param Rec is the DataRecord to check.
+     * @return A boolean with true if the record should be returned.
+     */
+    private boolean accept(DataRecord Rec) {
+        long time = Rec.getDateutcMillis();
+        if (time < this.startMillis || time > this.endMillis) {
+            return false;
+        }
+
+        if (time < this.oldestMillis) {
+            this.oldestMillis = time;
+            this.boundaryKeys.clear();
+        } else if (time == this.oldestMillis && this.boundaryKeys.contains(Rec.getKey())) {
+            return false;
+        } else if (time > this.oldestMillis) {
+            // Already returned when walking the newer pages.
+            return false;
+        }
+        this.boundaryKeys.add(Rec.getKey());
+        return true;
+    }
+
+    /**
+     * Requests the page of records ending at the provided time.
+     * @param EndMillis is a long with the end date in epoch millis.
+     * @return A CompletableFuture with the page of records.
+     */
+    private CompletableFuture<DataRecord[]> requestPage(long EndMillis) {
+        return this.client.queryDeviceDataAsync(this.macAddress, this.pageSize, String.valueOf(EndMillis));
+    }
+}
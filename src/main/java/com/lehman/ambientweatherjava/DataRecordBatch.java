@@ -0,0 +1,392 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DataRecordBatch stores the records of one device in columns, with one
+ * primitive array per numeric BaseDataRecord field instead of one object
+ * per record. This is much more compact when keeping long histories in
+ * memory. The lastRain and loc Strings are dictionary encoded since they
+ * repeat from record to record, and the date String is rebuilt from
+ * dateutc when asked for since the API sends the same time in both.
+ *
+ * Batches are immutable once built. Use DataRecordBatch.Builder to create
+ * one, for example by passing builder::add as the Consumer to the
+ * streaming queryDeviceData so records are never held as objects at all.
+ */
+public class DataRecordBatch {
+    /**
+     * Formatter matching the API date field. (2020-05-09T04:05:00.000Z)
+     */
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * The DOUBLE and INT fields, cached since values() copies the array every call.
+     */
+    private static final RecordField[] doubleFields = RecordField.doubleFields();
+    private static final RecordField[] intFields = RecordField.intFields();
+
+    /**
+     * A String with the device MAC address all records belong to.
+     */
+    private String deviceMac;
+
+    /**
+     * The number of records in the batch.
+     */
+    private int size;
+
+    /**
+     * The dateutc column in epoch millis.
+     */
+    private long[] dateutc;
+
+    /**
+     * The DOUBLE columns indexed by RecordField.getColumn().
+     */
+    private double[][] doubles;
+
+    /**
+     * The INT columns indexed by RecordField.getColumn().
+     */
+    private int[][] ints;
+
+    /**
+     * Index into strings for each record's lastRain.
+     */
+    private int[] lastRain;
+
+    /**
+     * Index into strings for each record's loc.
+     */
+    private int[] loc;
+
+    /**
+     * The distinct lastRain and loc Strings.
+     */
+    private String[] strings;
+
+    private DataRecordBatch(Builder B) {
+        this.deviceMac = B.deviceMac;
+        this.size = B.size;
+        this.dateutc = Arrays.copyOf(B.dateutc, B.size);
+        this.doubles = new double[RecordField.DOUBLE_COUNT][];
+        for (int i = 0; i < RecordField.DOUBLE_COUNT; i++) {
+            this.doubles[i] = Arrays.copyOf(B.doubles[i], B.size);
+        }
+        this.ints = new int[RecordField.INT_COUNT][];
+        for (int i = 0; i < RecordField.INT_COUNT; i++) {
+            this.ints[i] = Arrays.copyOf(B.ints[i], B.size);
+        }
+        this.lastRain = Arrays.copyOf(B.lastRain, B.size);
+        this.loc = Arrays.copyOf(B.loc, B.size);
+        this.strings = B.strings.toArray(new String[0]);
+    }
+
+    /**
+     * Creates a batch from an array of records, such as the result of queryDeviceData.
+     * @param DeviceMac is a String with the device MAC address.
+     * @param Records is an array of DataRecord objects.
+     * @return A new DataRecordBatch.
+     */
+    public static DataRecordBatch of(String DeviceMac, DataRecord[] Records) {
+        Builder b = new Builder(DeviceMac, Records.length);
+        for (DataRecord rec : Records) {
+            b.add(rec);
+        }
+        return b.build();
+    }
+
+    public String getDeviceMac() {
+        return deviceMac;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the dateutc of the record at the provided row.
+     * @param Row is an int with the row index.
+     * @return A long with the dateutc in epoch millis.
+     */
+    public long getDateutc(int Row) {
+        return this.dateutc[Row];
+    }
+
+    /**
+     * Gets the value of a DOUBLE field at the provided row.
+     * @param Row is an int with the row index.
+     * @param Field is the DOUBLE RecordField to get.
+     * @return A double with the value.
+     */
+    public double getDouble(int Row, RecordField Field) {
+        return this.doubles[Field.getColumn()][Row];
+    }
+
+    /**
+     * Gets the value of an INT field at the provided row.
+     * @param Row is an int with the row index.
+     * @param Field is the INT RecordField to get.
+     * @return An int with the value.
+     */
+    public int getInt(int Row, RecordField Field) {
+        return this.ints[Field.getColumn()][Row];
+    }
+
+    public String getLastRain(int Row) {
+        return this.strings[this.lastRain[Row]];
+    }
+
+    public String getLoc(int Row) {
+        return this.strings[this.loc[Row]];
+    }
+
+    /**
+     * Gets the date String of the record at the provided row, rebuilt from dateutc.
+     * @param Row is an int with the row index.
+     * @return A String with the UTC timestamp.
+     */
+    public String getDate(int Row) {
+        return formatDate(this.dateutc[Row]);
+    }
+
+    /**
+     * Formats epoch millis the way the API date field is formatted.
+     * @param EpochMillis is a long with the time.
+     * @return A String with the UTC timestamp. (2020-05-09T04:05:00.000Z)
+     */
+    static String formatDate(long EpochMillis) {
+        return dateFormat.format(Instant.ofEpochMilli(EpochMillis));
+    }
+
+    /**
+     * Gets the dateutc column. The returned array is the batch's own
+     * storage so it must not be modified.
+     * @return A long array with dateutc in epoch millis.
+     */
+    public long[] dateutcColumn() {
+        return this.dateutc;
+    }
+
+    /**
+     * Gets the column of a DOUBLE field. The returned array is the batch's
+     * own storage so it must not be modified.
+     * @param Field is the DOUBLE RecordField to get.
+     * @return A double array with one value per row.
+     */
+    public double[] doubleColumn(RecordField Field) {
+        return this.doubles[Field.getColumn()];
+    }
+
+    /**
+     * Gets the column of an INT field. The returned array is the batch's
+     * own storage so it must not be modified.
+     * @param Field is the INT RecordField to get.
+     * @return An int array with one value per row.
+     */
+    public int[] intColumn(RecordField Field) {
+        return this.ints[Field.getColumn()];
+    }
+
+    /**
+     * Gets a reusable view of the provided row.
+     * @param Row is an int with the row index.
+     * @return A Row object positioned at the row.
+     */
+    public Row row(int Row) {
+        return new Row().moveTo(Row);
+    }
+
+    /**
+     * Creates a DataRecord object from the row. The MAC address
+     * and ID are set like queryDeviceData does.
+     * @param Row is an int with the row index.
+     * @return A new DataRecord object.
+     */
+    public DataRecord toDataRecord(int Row) {
+        DataRecord rec = new DataRecord();
+        rec.setDateutcMillis(this.dateutc[Row]);
+        for (RecordField field : doubleFields) {
+            field.setDouble(rec, this.doubles[field.getColumn()][Row]);
+        }
+        for (RecordField field : intFields) {
+            field.setInt(rec, this.ints[field.getColumn()][Row]);
+        }
+        rec.setLastRain(this.getLastRain(Row));
+        rec.setDate(this.getDate(Row));
+        rec.setLoc(this.getLoc(Row));
+        rec.setDeviceMac(this.deviceMac);
+        rec.generateId();
+        return rec;
+    }
+
+    /**
+     * Gets the approximate heap size of the batch's column data in bytes,
+     * not counting the dictionary Strings or array headers.
+     * @return A long with the size in bytes.
+     */
+    public long estimatedBytes() {
+        return (long) this.size * (8 + 8 * RecordField.DOUBLE_COUNT + 4 * RecordField.INT_COUNT + 4 + 4);
+    }
+
+    /**
+     * Row is a view of one row of the batch. It can be moved to another
+     * row with moveTo so one object can be used to walk the whole batch.
+     */
+    public class Row {
+        private int row;
+
+        /**
+         * Moves the view to the provided row.
+         * @param Row is an int with the row index.
+         * @return This Row object.
+         */
+        public Row moveTo(int Row) {
+            if (Row < 0 || Row >= size) {
+                throw new IndexOutOfBoundsException("Row " + Row + " is out of bounds for batch of size " + size + ".");
+            }
+            this.row = Row;
+            return this;
+        }
+
+        public int getIndex() {
+            return row;
+        }
+
+        public long getDateutc() {
+            return dateutc[this.row];
+        }
+
+        public double getDouble(RecordField Field) {
+            return doubles[Field.getColumn()][this.row];
+        }
+
+        public int getInt(RecordField Field) {
+            return ints[Field.getColumn()][this.row];
+        }
+
+        public String getLastRain() {
+            return DataRecordBatch.this.getLastRain(this.row);
+        }
+
+        public String getLoc() {
+            return DataRecordBatch.this.getLoc(this.row);
+        }
+
+        public String getDate() {
+            return DataRecordBatch.this.getDate(this.row);
+        }
+    }
+
+    /**
+     * Builder collects records into growable column arrays. It isn't thread safe.
+     */
+    public static class Builder {
+        private String deviceMac;
+        private int size = 0;
+        private long[] dateutc;
+        private double[][] doubles;
+        private int[][] ints;
+        private int[] lastRain;
+        private int[] loc;
+        private List<String> strings = new ArrayList<>();
+        private Map<String, Integer> stringIndex = new HashMap<>();
+
+        /**
+         * Constructor takes the MAC address and initial capacity.
+         * @param DeviceMac is a String with the device MAC address.
+         * @param InitialCapacity is an int with the number of records to size the columns for.
+         */
+        public Builder(String DeviceMac, int InitialCapacity) {
+            this.deviceMac = DeviceMac;
+            int cap = Math.max(16, InitialCapacity);
+            this.dateutc = new long[cap];
+            this.doubles = new double[RecordField.DOUBLE_COUNT][cap];
+            this.ints = new int[RecordField.INT_COUNT][cap];
+            this.lastRain = new int[cap];
+            this.loc = new int[cap];
+        }
+
+        /**
+         * Adds a record to the batch. The record can be dropped afterwards.
+         * @param Rec is the BaseDataRecord to add.
+         * @return This builder.
+         */
+        public Builder add(BaseDataRecord Rec) {
+            if (this.size == this.dateutc.length) {
+                this.grow();
+            }
+            int row = this.size++;
+            this.dateutc[row] = RecordField.DATEUTC.getLong(Rec);
+            for (RecordField field : doubleFields) {
+                this.doubles[field.getColumn()][row] = field.getDouble(Rec);
+            }
+            for (RecordField field : intFields) {
+                this.ints[field.getColumn()][row] = field.getInt(Rec);
+            }
+            this.lastRain[row] = this.intern(Rec.getLastRain());
+            this.loc[row] = this.intern(Rec instanceof DataRecord ? ((DataRecord) Rec).getLoc() : "");
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Builds the batch with columns trimmed to the number of records added.
+         * @return A new DataRecordBatch.
+         */
+        public DataRecordBatch build() {
+            return new DataRecordBatch(this);
+        }
+
+        private int intern(String Val) {
+            String key = Val == null ? "" : Val;
+            Integer idx = this.stringIndex.get(key);
+            if (idx == null) {
+                idx = this.strings.size();
+                this.strings.add(key);
+                this.stringIndex.put(key, idx);
+            }
+            return idx;
+        }
+
+        private void grow() {
+            int cap = this.dateutc.length * 2;
+            this.dateutc = Arrays.copyOf(this.dateutc, cap);
+            for (int i = 0; i < RecordField.DOUBLE_COUNT; i++) {
+                this.doubles[i] = Arrays.copyOf(this.doubles[i], cap);
+            }
+            for (int i = 0; i < RecordField.INT_COUNT; i++) {
+                this.ints[i] = Arrays.copyOf(this.ints[i], cap);
+            }
+            this.lastRain = Arrays.copyOf(this.lastRain, cap);
+            this.loc = Arrays.copyOf(this.loc, cap);
+        }
+    }
+}
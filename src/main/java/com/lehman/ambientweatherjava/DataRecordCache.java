@@ -0,0 +1,291 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * DataRecordCache is a read-through cache for queryDeviceData pages keyed by
+ * MAC address, limit and endDate. A page with an endDate in the past never
+ * changes, so it's kept until it's evicted. A page that includes now, one with
+ * an empty endDate or an endDate in the future, is only kept for a short TTL
+ * since new records show up as the station reports.
+ *
+ * The cache is bounded by an estimate of the heap used by the cached records
+ * and evicts the least recently used pages first. Records are copied when a
+ * page is added and again on each hit, so callers can modify the records
+ * they get without changing the cached page.
+ */
+public class DataRecordCache {
+    /**
+     * The estimated heap used by one DataRecord. (See BatchMemoryFootprint.)
+     */
+    static final long recordBytes = 600;
+
+    /**
+     * The estimated heap used by a cache entry apart from its records.
+     */
+    private static final long entryBytes = 128;
+
+    /**
+     * The max estimated heap used by the cached pages.
+     */
+    private long maxBytes;
+
+    /**
+     * How long pages that include now are kept for in milliseconds.
+     */
+    private long recentTtlMillis;
+
+    /**
+     * The estimated heap used by the cached pages.
+     */
+    private long bytes = 0;
+
+    /**
+     * The number of lookups that found a page.
+     */
+    private long hits = 0;
+
+    /**
+     * The number of lookups that didn't find a page.
+     */
+    private long misses = 0;
+
+    /**
+     * The number of pages evicted to stay within maxBytes.
+     */
+    private long evictions = 0;
+
+    /**
+     * The cached pages, least recently used first.
+     */
+    private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * Default constructor allows 32MB of records and keeps pages that
+     * include now for 60 seconds.
+     */
+    public DataRecordCache() {
+        this(32L * 1024 * 1024, Duration.ofSeconds(60));
+    }
+
+    /**
+     * Constructor takes the max size and the TTL of pages that include now.
+     * @param MaxBytes is a long with the max estimated heap used by cached pages.
+     * @param RecentTtl is a Duration with how long pages that include now are kept.
+     */
+    public DataRecordCache(long MaxBytes, Duration RecentTtl) {
+        this.maxBytes = MaxBytes;
+        this.recentTtlMillis = RecentTtl.toMillis();
+    }
+
+    /**
+     * Gets a cached page.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Limit is an int with the query limit.
+     * @param EndDate is a String with the query end date.
+     * @return A new array with copies of the cached records or null if the page isn't cached.
+     */
+    public DataRecord[] get(String MacAddress, int Limit, String EndDate) {
+        DataRecord[] records;
+        synchronized (this) {
+            Key key = new Key(MacAddress, Limit, EndDate);
+            Entry entry = this.entries.get(key);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                this.remove(key);
+                entry = null;
+            }
+
+            if (entry == null) {
+                this.misses++;
+                return null;
+            }
+            this.hits++;
+            records = entry.records;
+        }
+        // Cached records are never modified, so they can be copied outside the lock.
+        return copy(records);
+    }
+
+    /**
+     * Adds a page to the cache, evicting the least recently used pages if needed.
+     * A page bigger than the whole cache isn't added.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Limit is an int with the query limit.
+     * @param EndDate is a String with the query end date.
+     * @param Records is an array with the page's records, which are copied.
+     */
+    public void put(String MacAddress, int Limit, String EndDate, DataRecord[] Records) {
+        // Copied before taking the lock so other callers aren't held up.
+        this.add(MacAddress, Limit, EndDate, copy(Records));
+    }
+
+    private synchronized void add(String MacAddress, int Limit, String EndDate, DataRecord[] Records) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry();
+        entry.records = Records;
+        entry.bytes = entryBytes + Records.length * recordBytes;
+        entry.expiresAt = isHistorical(EndDate, now) ? Long.MAX_VALUE : now + this.recentTtlMillis;
+        if (entry.bytes > this.maxBytes) {
+            return;
+        }
+
+        Key key = new Key(MacAddress, Limit, EndDate);
+        this.remove(key);
+        this.entries.put(key, entry);
+        this.bytes += entry.bytes;
+
+        var it = this.entries.entrySet().iterator();
+        while (this.bytes > this.maxBytes && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            it.remove();
+            this.bytes -= eldest.getValue().bytes;
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Removes all cached pages of the device.
+     * @param MacAddress is a String with the device MAC address.
+     */
+    public synchronized void invalidate(String MacAddress) {
+        var it = this.entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getKey().macAddress.equals(MacAddress)) {
+                it.remove();
+                this.bytes -= entry.getValue().bytes;
+            }
+        }
+    }
+
+    /**
+     * Removes all cached pages.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return this.hits;
+    }
+
+    public synchronized long getMissCount() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictions;
+    }
+
+    /**
+     * Checks if a query with the end date only returns records from the past.
+     * An empty end date means now. End dates are either epoch millis or an ISO
+     * 8601 date, anything that can't be parsed is treated like now.
+     * @param EndDate is a String with the query end date.
+     * @param Now is a long with the current time in epoch millis.
+     * @return A boolean with true if the end date is before now.
+     */
+    static boolean isHistorical(String EndDate, long Now) {
+        if (EndDate == null || EndDate.isEmpty()) {
+            return false;
+        }
+
+        long end;
+        try {
+            if (EndDate.chars().allMatch(Character::isDigit)) {
+                end = Long.parseLong(EndDate);
+            } else {
+                end = OffsetDateTime.parse(EndDate).toInstant().toEpochMilli();
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return false;
+        }
+        return end < Now;
+    }
+
+    /**
+     * Copies the records of a page.
+     * @param Records is an array of DataRecord objects, which may contain nulls.
+     * @return A new array with a copy of each record.
+     */
+    private static DataRecord[] copy(DataRecord[] Records) {
+        DataRecord[] copies = new DataRecord[Records.length];
+        for (int i = 0; i < Records.length; i++) {
+            copies[i] = Records[i] == null ? null : new DataRecord(Records[i]);
+        }
+        return copies;
+    }
+
+    private void remove(Key Key) {
+        Entry old = this.entries.remove(Key);
+        if (old != null) {
+            this.bytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Key is the query a page was returned for.
+     */
+    private static final class Key {
+        private final String macAddress;
+        private final int limit;
+        private final String endDate;
+
+        Key(String MacAddress, int Limit, String EndDate) {
+            this.macAddress = MacAddress;
+            this.limit = Limit;
+            this.endDate = EndDate == null ? "" : EndDate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return this.limit == other.limit && this.macAddress.equals(other.macAddress) && this.endDate.equals(other.endDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.macAddress, this.limit, this.endDate);
+        }
+    }
+
+    /**
+     * Entry is a cached page.
+     */
+    private static final class Entry {
+        private DataRecord[] records;
+        private long bytes;
+        private long expiresAt;
+    }
+}
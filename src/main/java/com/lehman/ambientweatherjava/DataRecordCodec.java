@@ -0,0 +1,686 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DataRecordCodec is a compact binary encoding for sequences of records from
+ * one device, for archiving and sending records instead of JSON. Successive
+ * records are mostly the same, so each value is encoded against the previous
+ * record's value:
+ *
+ * - dateutc as the delta of the delta, which is a single bit for records at
+ *   a steady interval.
+ * - DOUBLE fields XOR'd with the previous value as in Facebook's Gorilla,
+ *   a single bit when unchanged and otherwise only the bits that changed.
+ * - INT fields as zigzag varints of the difference.
+ * - lastRain, loc and deviceMac as a single bit when unchanged, and date
+ *   as a single bit when it matches dateutc.
+ *
+ * Values are packed at the bit level, so a stream can only be decoded from
+ * its start. Encoder and Decoder stream over a ByteBuffer or a blocking channel, and
+ * encode and decode are shortcuts for whole arrays. All fields round trip
+ * exactly; decoded records are DataRecord objects with their ID generated
+ * if a deviceMac was set.
+ */
+public class DataRecordCodec {
+    /**
+     * The stream header, "AWC" and the format version.
+     */
+    private static final int magic = 0x41574301;
+
+    /**
+     * Buffer size used when streaming over a channel.
+     */
+    private static final int bufferSize = 64 * 1024;
+
+    /**
+     * Indexes of the String fields in State.prevStrings.
+     */
+    private static final int lastRainSlot = 0;
+    private static final int locSlot = 1;
+    private static final int macSlot = 2;
+    private static final int dateSlot = 3;
+
+    /**
+     * The DOUBLE and INT fields, cached since values() copies the array every call.
+     */
+    private static final RecordField[] doubleFields = RecordField.doubleFields();
+    private static final RecordField[] intFields = RecordField.intFields();
+
+    private DataRecordCodec() { }
+
+    /**
+     * Encodes the records.
+     * @param Records is an array of records.
+     * @return A ByteBuffer ready to be read with the encoded stream.
+     * @throws IOException
+     */
+    public static ByteBuffer encode(BaseDataRecord[] Records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Records.length * 64 + 16);
+        try (Encoder enc = new Encoder(Channels.newChannel(bytes))) {
+            enc.write(Records);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Decodes all the records of a stream. The buffer's position is left after the stream.
+     * @param Buffer is a ByteBuffer positioned at the start of an encoded stream.
+     * @return An array of DataRecord objects.
+     * @throws IOException
+     */
+    public static DataRecord[] decode(ByteBuffer Buffer) throws IOException {
+        return new Decoder(Buffer).readAll();
+    }
+
+    /**
+     * The previous values each value is encoded against, which the Encoder
+     * and Decoder keep identically.
+     */
+    private static class State {
+        /**
+         * The number of records so far.
+         */
+        protected long count = 0;
+
+        /**
+         * The previous dateutc.
+         */
+        protected long prevTime = 0;
+
+        /**
+         * The previous difference between dateutc values.
+         */
+        protected long prevDelta = 0;
+
+        /**
+         * The raw bits of the previous value of each DOUBLE field.
+         */
+        protected long[] prevBits = new long[RecordField.DOUBLE_COUNT];
+
+        /**
+         * The leading zero count of each DOUBLE field's last XOR window or -1 for none.
+         */
+        protected int[] prevLeading = new int[RecordField.DOUBLE_COUNT];
+
+        /**
+         * The trailing zero count of each DOUBLE field's last XOR window.
+         */
+        protected int[] prevTrailing = new int[RecordField.DOUBLE_COUNT];
+
+        /**
+         * The previous value of each INT field.
+         */
+        protected int[] prevInts = new int[RecordField.INT_COUNT];
+
+        /**
+         * The previous value of each String field.
+         */
+        protected String[] prevStrings = { "", "", "", "" };
+
+        /**
+         * Bits not yet written or read, in the low end.
+         */
+        protected long bits = 0;
+
+        /**
+         * The number of bits held.
+         */
+        protected int bitCount = 0;
+
+        /**
+         * Formats dateutc for the date field.
+         */
+        protected DateChars dateChars = new DateChars();
+
+        State() {
+            Arrays.fill(this.prevLeading, -1);
+        }
+    }
+
+    /**
+     * Encoder writes records to a ByteBuffer or a channel. Call finish or close
+     * when done to write the end of the stream. Records should be written
+     * oldest first or newest first, as jumping around in time costs bits.
+     */
+    public static class Encoder extends State implements Closeable {
+        /**
+         * The buffer bytes are written to.
+         */
+        private ByteBuffer out;
+
+        /**
+         * The channel the buffer is drained to or null if writing to a caller's buffer.
+         */
+        private WritableByteChannel channel;
+
+        /**
+         * Whether finish has been called.
+         */
+        private boolean finished = false;
+
+        /**
+         * Creates an encoder that writes into the provided buffer. A
+         * BufferOverflowException is thrown if the buffer fills up.
+         * @param Out is a ByteBuffer to write to.
+         * @throws IOException
+         */
+        public Encoder(ByteBuffer Out) throws IOException {
+            this.out = Out;
+            this.writeBits(magic, 32);
+        }
+
+        /**
+         * Creates an encoder that writes to the provided channel. The channel
+         * must be in blocking mode.
+         * @param Channel is a WritableByteChannel to write to.
+         * @throws IOException
+         */
+        public Encoder(WritableByteChannel Channel) throws IOException {
+            requireBlocking(Channel);
+            this.out = ByteBuffer.allocate(bufferSize);
+            this.channel = Channel;
+            this.writeBits(magic, 32);
+        }
+
+        /**
+         * Writes the records.
+         * @param Records is an array of records.
+         * @return This object.
+         * @throws IOException
+         */
+        public Encoder write(BaseDataRecord[] Records) throws IOException {
+            for (BaseDataRecord rec : Records) {
+                this.write(rec);
+            }
+            return this;
+        }
+
+        /**
+         * Writes a record.
+         * @param Rec is the record to write.
+         * @return This object.
+         * @throws IOException
+         */
+        public Encoder write(BaseDataRecord Rec) throws IOException {
+            if (this.finished) {
+                throw new IllegalStateException("Encoder is finished.");
+            }
+            this.writeBits(1, 1);
+            this.writeTime(Rec.getDateutcMillis());
+            for (int i = 0; i < doubleFields.length; i++) {
+                this.writeDouble(i, doubleFields[i].getDouble(Rec));
+            }
+            for (int i = 0; i < intFields.length; i++) {
+                int val = intFields[i].getInt(Rec);
+                this.writeVarLong((long) val - this.prevInts[i]);
+                this.prevInts[i] = val;
+            }
+            this.writeString(lastRainSlot, Rec.getLastRain());
+            if (Rec instanceof DataRecord) {
+                this.writeString(locSlot, ((DataRecord) Rec).getLoc());
+                this.writeString(macSlot, ((DataRecord) Rec).getDeviceMac());
+            } else {
+                this.writeString(locSlot, "");
+                this.writeString(macSlot, "");
+            }
+            String date = Rec.getDate();
+            if (this.isApiDate(date, Rec.getDateutcMillis())) {
+                this.writeBits(0, 1);
+            } else {
+                this.writeBits(1, 1);
+                this.writeString(dateSlot, date);
+            }
+            this.count++;
+            return this;
+        }
+
+        /**
+         * Gets the number of records written.
+         * @return A long with the record count.
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Writes the end of the stream and drains the buffer to the channel.
+         * The channel is left open.
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            if (this.finished) {
+                return;
+            }
+            this.writeBits(0, 1);
+            if (this.bitCount > 0) {
+                this.writeBits(0, 8 - this.bitCount);
+            }
+            this.finished = true;
+            if (this.channel != null) {
+                this.drain();
+            }
+        }
+
+        /**
+         * Finishes the stream and closes the channel.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            this.finish();
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        }
+
+        /**
+         * Whether the date field is the dateutc formatted like the API does,
+         * so it can be left out.
+         */
+        private boolean isApiDate(String Date, long Time) {
+            if (Date == null) {
+                return false;
+            } else if (!this.dateChars.format(Time)) {
+                return Date.equals(DataRecordBatch.formatDate(Time));
+            }
+            return this.dateChars.matches(Date);
+        }
+
+        private void writeTime(long Time) throws IOException {
+            if (this.count == 0) {
+                this.writeBits(Time, 64);
+                this.prevTime = Time;
+                return;
+            }
+            long delta = Time - this.prevTime;
+            long dod = delta - this.prevDelta;
+            this.prevTime = Time;
+            this.prevDelta = delta;
+            if (dod == 0) {
+                this.writeBits(0, 1);
+            } else if (fits(dod, 14)) {
+                this.writeBits(0b10, 2);
+                this.writeBits(dod, 14);
+            } else if (fits(dod, 20)) {
+                this.writeBits(0b110, 3);
+                this.writeBits(dod, 20);
+            } else if (fits(dod, 32)) {
+                this.writeBits(0b1110, 4);
+                this.writeBits(dod, 32);
+            } else {
+                this.writeBits(0b1111, 4);
+                this.writeBits(dod, 64);
+            }
+        }
+
+        private void writeDouble(int Field, double Value) throws IOException {
+            long raw = Double.doubleToRawLongBits(Value);
+            long xor = raw ^ this.prevBits[Field];
+            this.prevBits[Field] = raw;
+            if (xor == 0) {
+                this.writeBits(0, 1);
+                return;
+            }
+
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            int prevLeading = this.prevLeading[Field];
+            int prevTrailing = this.prevTrailing[Field];
+            if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                // Fits in the previous window, so only the window is written.
+                this.writeBits(0b10, 2);
+                this.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int length = 64 - leading - trailing;
+                this.writeBits(0b11, 2);
+                this.writeBits(leading, 5);
+                this.writeBits(length - 1, 6);
+                this.writeBits(xor >>> trailing, length);
+                this.prevLeading[Field] = leading;
+                this.prevTrailing[Field] = trailing;
+            }
+        }
+
+        private void writeString(int Slot, String Value) throws IOException {
+            String val = Value == null ? "" : Value;
+            if (val.equals(this.prevStrings[Slot])) {
+                this.writeBits(0, 1);
+                return;
+            }
+            this.writeBits(1, 1);
+            byte[] utf8 = val.getBytes(StandardCharsets.UTF_8);
+            this.writeVarLong(utf8.length);
+            for (byte b : utf8) {
+                this.writeBits(b, 8);
+            }
+            this.prevStrings[Slot] = val;
+        }
+
+        private void writeVarLong(long Value) throws IOException {
+            long zz = (Value << 1) ^ (Value >> 63);
+            while ((zz & ~0x7FL) != 0) {
+                this.writeBits((zz & 0x7F) | 0x80, 8);
+                zz >>>= 7;
+            }
+            this.writeBits(zz, 8);
+        }
+
+        private void writeBits(long Value, int Count) throws IOException {
+            if (Count > 56) {
+                this.writeBits(Value >>> 32, Count - 32);
+                this.writeBits(Value, 32);
+                return;
+            }
+            this.bits = (this.bits << Count) | (Value & ((1L << Count) - 1));
+            this.bitCount += Count;
+            while (this.bitCount >= 8) {
+                if (this.channel != null && !this.out.hasRemaining()) {
+                    this.drain();
+                }
+                this.bitCount -= 8;
+                this.out.put((byte) (this.bits >>> this.bitCount));
+            }
+        }
+
+        private void drain() throws IOException {
+            this.out.flip();
+            while (this.out.hasRemaining()) {
+                if (this.channel.write(this.out) == 0) {
+                    throw new IOException("The channel took no bytes, DataRecordCodec needs a blocking channel.");
+                }
+            }
+            this.out.clear();
+        }
+    }
+
+    /**
+     * Decoder reads records from a ByteBuffer or a channel.
+     */
+    public static class Decoder extends State implements Closeable {
+        /**
+         * The buffer bytes are read from.
+         */
+        private ByteBuffer in;
+
+        /**
+         * The channel the buffer is filled from or null if reading a caller's buffer.
+         */
+        private ReadableByteChannel channel;
+
+        /**
+         * Whether the end of the stream has been read.
+         */
+        private boolean done = false;
+
+        /**
+         * Creates a decoder that reads from the provided buffer.
+         * @param In is a ByteBuffer positioned at the start of a stream.
+         * @throws IOException
+         */
+        public Decoder(ByteBuffer In) throws IOException {
+            this.in = In;
+            this.readHeader();
+        }
+
+        /**
+         * Creates a decoder that reads from the provided channel. The channel
+         * must be in blocking mode.
+         * @param Channel is a ReadableByteChannel to read from.
+         * @throws IOException
+         */
+        public Decoder(ReadableByteChannel Channel) throws IOException {
+            requireBlocking(Channel);
+            this.in = ByteBuffer.allocate(bufferSize);
+            this.in.limit(0);
+            this.channel = Channel;
+            this.readHeader();
+        }
+
+        /**
+         * Reads the next record.
+         * @return A new DataRecord or null at the end of the stream.
+         * @throws IOException
+         */
+        public DataRecord read() throws IOException {
+            DataRecord rec = new DataRecord();
+            return this.read(rec) ? rec : null;
+        }
+
+        /**
+         * Reads the next record into an existing record, so a stream can be
+         * scanned without allocating a record each time.
+         * @param Into is the DataRecord to set the fields of.
+         * @return A boolean with true if a record was read or false at the end of the stream.
+         * @throws IOException
+         */
+        public boolean read(DataRecord Into) throws IOException {
+            if (this.done) {
+                return false;
+            }
+            if (this.readBits(1) == 0) {
+                this.done = true;
+                this.bitCount = 0;
+                return false;
+            }
+
+            long time = this.readTime();
+            Into.setDateutcMillis(time);
+            for (int i = 0; i < doubleFields.length; i++) {
+                doubleFields[i].setDouble(Into, this.readDouble(i));
+            }
+            for (int i = 0; i < intFields.length; i++) {
+                this.prevInts[i] = (int) (this.prevInts[i] + this.readVarLong());
+                intFields[i].setInt(Into, this.prevInts[i]);
+            }
+            Into.setLastRain(this.readString(lastRainSlot));
+            Into.setLoc(this.readString(locSlot));
+            Into.setDeviceMac(this.readString(macSlot));
+            if (this.readBits(1) == 0) {
+                Into.setDate(this.dateChars.toString(time));
+            } else {
+                Into.setDate(this.readString(dateSlot));
+            }
+            if (!Into.getDeviceMac().isEmpty()) {
+                Into.generateId();
+            }
+            this.count++;
+            return true;
+        }
+
+        /**
+         * Reads the remaining records.
+         * @return An array of DataRecord objects.
+         * @throws IOException
+         */
+        public DataRecord[] readAll() throws IOException {
+            List<DataRecord> recs = new ArrayList<>();
+            DataRecord rec;
+            while ((rec = this.read()) != null) {
+                recs.add(rec);
+            }
+            return recs.toArray(new DataRecord[0]);
+        }
+
+        /**
+         * Gets the number of records read.
+         * @return A long with the record count.
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Closes the channel.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        }
+
+        private void readHeader() throws IOException {
+            if ((int) this.readBits(32) != magic) {
+                throw new IOException("Not a DataRecordCodec stream.");
+            }
+        }
+
+        private long readTime() throws IOException {
+            if (this.count == 0) {
+                this.prevTime = this.readBits(64);
+                return this.prevTime;
+            }
+            long dod;
+            if (this.readBits(1) == 0) {
+                dod = 0;
+            } else if (this.readBits(1) == 0) {
+                dod = signed(this.readBits(14), 14);
+            } else if (this.readBits(1) == 0) {
+                dod = signed(this.readBits(20), 20);
+            } else if (this.readBits(1) == 0) {
+                dod = signed(this.readBits(32), 32);
+            } else {
+                dod = this.readBits(64);
+            }
+            this.prevDelta += dod;
+            this.prevTime += this.prevDelta;
+            return this.prevTime;
+        }
+
+        private double readDouble(int Field) throws IOException {
+            if (this.readBits(1) == 0) {
+                return Double.longBitsToDouble(this.prevBits[Field]);
+            }
+            long xor;
+            if (this.readBits(1) == 0) {
+                int trailing = this.prevTrailing[Field];
+                xor = this.readBits(64 - this.prevLeading[Field] - trailing) << trailing;
+            } else {
+                int leading = (int) this.readBits(5);
+                int length = (int) this.readBits(6) + 1;
+                int trailing = 64 - leading - length;
+                xor = this.readBits(length) << trailing;
+                this.prevLeading[Field] = leading;
+                this.prevTrailing[Field] = trailing;
+            }
+            this.prevBits[Field] ^= xor;
+            return Double.longBitsToDouble(this.prevBits[Field]);
+        }
+
+        private String readString(int Slot) throws IOException {
+            if (this.readBits(1) == 0) {
+                return this.prevStrings[Slot];
+            }
+            int length = (int) this.readVarLong();
+            if (length < 0) {
+                throw new IOException("Invalid String length " + length + ".");
+            }
+            byte[] utf8 = new byte[length];
+            for (int i = 0; i < length; i++) {
+                utf8[i] = (byte) this.readBits(8);
+            }
+            this.prevStrings[Slot] = new String(utf8, StandardCharsets.UTF_8);
+            return this.prevStrings[Slot];
+        }
+
+        private long readVarLong() throws IOException {
+            long zz = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                long b = this.readBits(8);
+                zz |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zz >>> 1) ^ -(zz & 1);
+                }
+            }
+            throw new IOException("Invalid varint.");
+        }
+
+        private long readBits(int Count) throws IOException {
+            if (Count > 56) {
+                long high = this.readBits(Count - 32);
+                return (high << 32) | this.readBits(32);
+            }
+            while (this.bitCount < Count) {
+                if (!this.in.hasRemaining()) {
+                    this.fill();
+                }
+                this.bits = (this.bits << 8) | (this.in.get() & 0xFF);
+                this.bitCount += 8;
+            }
+            this.bitCount -= Count;
+            return (this.bits >>> this.bitCount) & ((1L << Count) - 1);
+        }
+
+        private void fill() throws IOException {
+            if (this.channel == null) {
+                throw new EOFException("Unexpected end of DataRecordCodec stream.");
+            }
+            this.in.clear();
+            int read = this.channel.read(this.in);
+            this.in.flip();
+            if (read < 0) {
+                throw new EOFException("Unexpected end of DataRecordCodec stream.");
+            }
+            // A blocking channel always reads at least one byte, so don't spin on one that isn't.
+            if (read == 0) {
+                throw new IOException("The channel returned no bytes, DataRecordCodec needs a blocking channel.");
+            }
+        }
+    }
+
+    /**
+     * Checks that a selectable channel is in blocking mode, since the Encoder
+     * and Decoder don't wait for a non-blocking one to be ready.
+     * @param Chan is the Channel to check.
+     */
+    private static void requireBlocking(Channel Chan) {
+        if (Chan instanceof SelectableChannel && !((SelectableChannel) Chan).isBlocking()) {
+            throw new IllegalArgumentException("DataRecordCodec needs a channel in blocking mode.");
+        }
+    }
+
+    /**
+     * Whether the value fits in a signed field of the provided width.
+     */
+    private static boolean fits(long Value, int Bits) {
+        return Value >= -(1L << (Bits - 1)) && Value < (1L << (Bits - 1));
+    }
+
+    /**
+     * Sign extends the low bits of a value.
+     */
+    private static long signed(long Value, int Bits) {
+        return (Value << (64 - Bits)) >> (64 - Bits);
+    }
+}
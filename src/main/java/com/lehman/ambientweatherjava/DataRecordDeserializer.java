@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+
+/**
+ * This is a hand written deserializer for use with Jackson that reads
+ * DataRecord objects token by token instead of through bean introspection.
+ * Unknown fields are skipped and null values leave the field at its default.
+ * Register it with FastRecordModule or AmbientWeatherBuilder.fastDeserializer().
+ */
+public class DataRecordDeserializer extends StdDeserializer<DataRecord> {
+    private static final long serialVersionUID = 1L;
+
+    public DataRecordDeserializer() {
+        this(null);
+    }
+
+    public DataRecordDeserializer(Class<?> vc) {
+        super(vc);
+    }
+
+    /**
+     * Performs the deserialization of a JSON object into a DataRecord object.
+     * @param p
+     * @param ctxt
+     * @return
+     * @throws IOException
+     * @throws JsonProcessingException
+     */
+    @Override
+    public DataRecord deserialize(JsonParser p, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+        DataRecord rec = new DataRecord();
+        String name = p.currentToken() == JsonToken.START_OBJECT ? p.nextFieldName() : p.getCurrentName();
+
+        for (; name != null; name = p.nextFieldName()) {
+            JsonToken value = p.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            if (value.isStructStart()) {
+                // None of the record fields are objects or arrays.
+                p.skipChildren();
+                continue;
+            }
+
+            if (!RecordFieldReader.readBaseField(p, name, rec)) {
+                switch (name) {
+                    case "loc": rec.setLoc(RecordFieldReader.intern(p.getValueAsString())); break;
+                    case "deviceMac": rec.setDeviceMac(RecordFieldReader.intern(p.getValueAsString())); break;
+                    case "id": rec.setId(p.getValueAsString()); break;
+                    default: break;
+                }
+            }
+        }
+
+        if (p.currentToken() != JsonToken.END_OBJECT) {
+            ctxt.reportWrongTokenException(this, JsonToken.END_OBJECT, "Expected end of DataRecord object.");
+        }
+        return rec;
+    }
+}
@@ -0,0 +1,1014 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * DataRecordExporter writes records to CSV or to a columnar file. Records
+ * are split into chunks of chunkSize rows which are encoded in parallel on
+ * a ForkJoinPool, each by one ColumnWriter per field, and written to the
+ * channel in order as they finish. Only a few chunks are held at a time, so
+ * an Iterator over any number of records can be exported.
+ *
+ * CSV files have a header row with the JSON field names, and a date column
+ * formatted from dateutc. Columnar files are laid out like Parquet, with the
+ * rows in row groups of one chunk each, each column of a row group stored
+ * together, and a footer with the column names and where each column chunk
+ * is. dateutc is stored as varint deltas, DOUBLE fields as 8 byte little
+ * endian values, INT fields as zigzag varint deltas and Strings dictionary
+ * encoded. readColumnar reads a columnar file back into records.
+ */
+public class DataRecordExporter {
+    /**
+     * The output formats.
+     */
+    public enum Format { CSV, COLUMNAR }
+
+    /**
+     * The columnar file header and footer, "AWX1".
+     */
+    private static final int magic = 0x41575831;
+
+    /**
+     * The columnar column types.
+     */
+    private static final byte longType = 0;
+    private static final byte doubleType = 1;
+    private static final byte intType = 2;
+    private static final byte stringType = 3;
+
+    /**
+     * Powers of ten for formatting numbers.
+     */
+    private static final long[] pow10 = new long[19];
+
+    /**
+     * The most decimal places written without Double.toString.
+     */
+    private static final int maxPlaces = 4;
+
+    static {
+        pow10[0] = 1;
+        for (int i = 1; i < pow10.length; i++) {
+            pow10[i] = pow10[i - 1] * 10;
+        }
+    }
+
+    /**
+     * The format written.
+     */
+    private Format format;
+
+    /**
+     * The number of rows encoded by each task, and the rows in each columnar row group.
+     */
+    private int chunkSize = 16384;
+
+    /**
+     * The pool chunks are encoded on.
+     */
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * The column writers in output order.
+     */
+    private List<ColumnWriter> columns;
+
+    /**
+     * The CSV writers in output order, the columns plus the date.
+     */
+    private List<CsvWriter> csvColumns;
+
+    /**
+     * Creates an exporter that writes all fields.
+     * @param OutputFormat is the Format to write.
+     */
+    public DataRecordExporter(Format OutputFormat) {
+        this.format = OutputFormat;
+        this.setFields(RecordField.values());
+    }
+
+    /**
+     * Sets the number of rows encoded by each task. Larger chunks use more
+     * memory, smaller ones add overhead and, for columnar files, make the
+     * footer bigger.
+     * @param ChunkSize is an int with the number of rows.
+     * @return This object.
+     */
+    public DataRecordExporter chunkSize(int ChunkSize) {
+        if (ChunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1.");
+        }
+        this.chunkSize = ChunkSize;
+        return this;
+    }
+
+    /**
+     * Sets the pool chunks are encoded on. Defaults to the common pool.
+     * @param Pool is a ForkJoinPool.
+     * @return This object.
+     */
+    public DataRecordExporter pool(ForkJoinPool Pool) {
+        this.pool = Pool;
+        return this;
+    }
+
+    /**
+     * Sets the fields written, in the order given. The macAddress, dateutc,
+     * lastRain and loc columns are always written, and date after dateutc in CSV.
+     * @param Fields are the RecordFields to write.
+     * @return This object.
+     */
+    public DataRecordExporter fields(RecordField... Fields) {
+        this.setFields(Fields);
+        return this;
+    }
+
+    /**
+     * Builds the column writers for the fields. Private so the constructor
+     * can call it without this escaping to a subclass.
+     */
+    private void setFields(RecordField[] Fields) {
+        List<ColumnWriter> cols = new ArrayList<>();
+        cols.add(new StringColumn("macAddress", c -> c.mac));
+        cols.add(new DateutcColumn());
+        for (RecordField field : new LinkedHashSet<>(Arrays.asList(Fields))) {
+            if (field.getType() == RecordField.Type.DOUBLE) {
+                cols.add(new DoubleColumn(field));
+            } else if (field.getType() == RecordField.Type.INT) {
+                cols.add(new IntColumn(field));
+            }
+        }
+        cols.add(new StringColumn("lastRain", c -> c.lastRain));
+        cols.add(new StringColumn("loc", c -> c.loc));
+        this.columns = cols;
+        this.csvColumns = new ArrayList<>(cols);
+        this.csvColumns.add(2, new DateColumn());
+    }
+
+    /**
+     * Exports the records to a file, replacing it if it exists.
+     * @param Records is an array of records.
+     * @param File is the Path to write.
+     * @return A long with the number of rows written.
+     * @throws IOException
+     */
+    public long export(BaseDataRecord[] Records, Path File) throws IOException {
+        try (FileChannel channel = open(File)) {
+            return this.export(Records, channel);
+        }
+    }
+
+    /**
+     * Exports the records to a channel.
+     * @param Records is an array of records.
+     * @param Channel is the WritableByteChannel to write to. It's left open.
+     * @return A long with the number of rows written.
+     * @throws IOException
+     */
+    public long export(BaseDataRecord[] Records, WritableByteChannel Channel) throws IOException {
+        List<List<Piece>> chunks = new ArrayList<>();
+        for (int from = 0; from < Records.length; from += this.chunkSize) {
+            chunks.add(List.of(new Piece(Records, from, Math.min(Records.length, from + this.chunkSize))));
+        }
+        return this.run(chunks.iterator(), Channel);
+    }
+
+    /**
+     * Exports the records to a file, replacing it if it exists.
+     * @param Records is an Iterator of records, such as from Stream.iterator().
+     * @param File is the Path to write.
+     * @return A long with the number of rows written.
+     * @throws IOException
+     */
+    public long export(Iterator<? extends BaseDataRecord> Records, Path File) throws IOException {
+        try (FileChannel channel = open(File)) {
+            return this.export(Records, channel);
+        }
+    }
+
+    /**
+     * Exports the records to a channel.
+     * @param Records is an Iterator of records, such as from Stream.iterator().
+     * @param Channel is the WritableByteChannel to write to. It's left open.
+     * @return A long with the number of rows written.
+     * @throws IOException
+     */
+    public long export(Iterator<? extends BaseDataRecord> Records, WritableByteChannel Channel) throws IOException {
+        return this.run(new Iterator<List<Piece>>() {
+            @Override
+            public boolean hasNext() {
+                return Records.hasNext();
+            }
+
+            @Override
+            public List<Piece> next() {
+                if (!Records.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                BaseDataRecord[] recs = new BaseDataRecord[chunkSize];
+                int count = 0;
+                while (count < recs.length && Records.hasNext()) {
+                    recs[count++] = Records.next();
+                }
+                return List.of(new Piece(recs, 0, count));
+            }
+        }, Channel);
+    }
+
+    /**
+     * Exports batches to a file, replacing it if it exists. This is the
+     * fastest way to export large histories since the batch columns are
+     * copied straight into the chunks.
+     * @param Batches is an Iterable of DataRecordBatch objects.
+     * @param File is the Path to write.
+     * @return A long with the number of rows written.
+     * @throws IOException
+     */
+    public long exportBatches(Iterable<DataRecordBatch> Batches, Path File) throws IOException {
+        try (FileChannel channel = open(File)) {
+            return this.exportBatches(Batches, channel);
+        }
+    }
+
+    /**
+     * Exports batches to a channel.
+     * @param Batches is an Iterable of DataRecordBatch objects.
+     * @param Channel is the WritableByteChannel to write to. It's left open.
+     * @return A long with the number of rows written.
+     * @throws IOException
+     */
+    public long exportBatches(Iterable<DataRecordBatch> Batches, WritableByteChannel Channel) throws IOException {
+        Iterator<DataRecordBatch> batches = Batches.iterator();
+        return this.run(new Iterator<List<Piece>>() {
+            private DataRecordBatch batch;
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                while ((this.batch == null || this.row >= this.batch.size()) && batches.hasNext()) {
+                    this.batch = batches.next();
+                    this.row = 0;
+                }
+                return this.batch != null && this.row < this.batch.size();
+            }
+
+            @Override
+            public List<Piece> next() {
+                // Pieces of several small batches are combined into one chunk.
+                List<Piece> pieces = new ArrayList<>();
+                int rows = 0;
+                while (rows < chunkSize && this.hasNext()) {
+                    int to = Math.min(this.batch.size(), this.row + chunkSize - rows);
+                    pieces.add(new Piece(this.batch, this.row, to));
+                    rows += to - this.row;
+                    this.row = to;
+                }
+                if (pieces.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                return pieces;
+            }
+        }, Channel);
+    }
+
+    /**
+     * Encodes the chunks in parallel and writes them in order.
+     */
+    private long run(Iterator<List<Piece>> Chunks, WritableByteChannel Channel) throws IOException {
+        Sink header = new Sink(256);
+        if (this.format == Format.CSV) {
+            for (int i = 0; i < this.csvColumns.size(); i++) {
+                if (i > 0) header.put((byte) ',');
+                header.putAscii(this.csvColumns.get(i).getName());
+            }
+            header.put((byte) '\n');
+        } else {
+            header.putIntLE(magic);
+        }
+        long position = write(Channel, header.toByteBuffer());
+
+        List<Encoded> groups = new ArrayList<>();
+        ArrayDeque<ForkJoinTask<Encoded>> pending = new ArrayDeque<>();
+        int maxPending = this.pool.getParallelism() + 2;
+        long rows = 0;
+        try {
+            while (Chunks.hasNext() || !pending.isEmpty()) {
+                if (Chunks.hasNext() && pending.size() < maxPending) {
+                    List<Piece> pieces = Chunks.next();
+                    pending.add(this.pool.submit(() -> this.encode(pieces)));
+                    continue;
+                }
+                Encoded enc = pending.poll().join();
+                enc.offset = position;
+                position += write(Channel, enc.data);
+                enc.data = null;
+                rows += enc.rows;
+                groups.add(enc);
+            }
+        } finally {
+            for (ForkJoinTask<Encoded> task : pending) {
+                task.cancel(false);
+            }
+        }
+
+        if (this.format == Format.COLUMNAR) {
+            write(Channel, this.footer(groups).toByteBuffer());
+        }
+        return rows;
+    }
+
+    /**
+     * Encodes one chunk, run on the pool.
+     */
+    private Encoded encode(List<Piece> Pieces) {
+        int size = 0;
+        for (Piece piece : Pieces) {
+            size += piece.to - piece.from;
+        }
+        Chunk chunk = new Chunk(size);
+        for (Piece piece : Pieces) {
+            chunk.append(piece);
+        }
+
+        Encoded enc = new Encoded();
+        enc.rows = size;
+        if (this.format == Format.CSV) {
+            Sink out = new Sink(size * 200L);
+            for (int row = 0; row < size; row++) {
+                for (int i = 0; i < this.csvColumns.size(); i++) {
+                    if (i > 0) out.put((byte) ',');
+                    this.csvColumns.get(i).writeCsv(chunk, row, out);
+                }
+                out.put((byte) '\n');
+            }
+            enc.data = out.toByteBuffer();
+        } else {
+            Sink out = new Sink(size * 8L * this.columns.size());
+            enc.lengths = new int[this.columns.size()];
+            for (int i = 0; i < this.columns.size(); i++) {
+                int start = out.size;
+                this.columns.get(i).writeColumn(chunk, out);
+                enc.lengths[i] = out.size - start;
+            }
+            enc.data = out.toByteBuffer();
+        }
+        return enc;
+    }
+
+    /**
+     * Builds the columnar footer. The file ends with the footer length and the magic.
+     */
+    private Sink footer(List<Encoded> Groups) {
+        Sink out = new Sink(64 + Groups.size() * this.columns.size() * 8L);
+        out.putVarLong(this.columns.size());
+        for (ColumnWriter col : this.columns) {
+            out.putString(col.getName());
+            out.put(col.getType());
+        }
+        out.putVarLong(Groups.size());
+        for (Encoded group : Groups) {
+            out.putVarLong(group.rows);
+            out.putVarLong(group.offset);
+            for (int length : group.lengths) {
+                out.putVarLong(length);
+            }
+        }
+        out.putIntLE(out.size);
+        out.putIntLE(magic);
+        return out;
+    }
+
+    /**
+     * Reads a columnar file back into records. The whole file is read into
+     * memory, so this is meant for checking exports and for small files.
+     * @param File is the Path of a columnar file.
+     * @return An array of DataRecord objects.
+     * @throws IOException
+     */
+    public static DataRecord[] readColumnar(Path File) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("readColumnar only reads files up to 2GB.");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int size = buf.limit();
+        if (size < 12 || buf.getInt(0) != magic || buf.getInt(size - 4) != magic) {
+            throw new IOException("Not a columnar export file.");
+        }
+        int footerLength = buf.getInt(size - 8);
+        buf.position(size - 8 - footerLength);
+
+        int columnCount = (int) getVarLong(buf);
+        String[] names = new String[columnCount];
+        byte[] types = new byte[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = getString(buf);
+            types[i] = buf.get();
+        }
+        Map<String, RecordField> fields = new HashMap<>();
+        for (RecordField field : RecordField.values()) {
+            fields.put(field.getJsonName(), field);
+        }
+
+        int groupCount = (int) getVarLong(buf);
+        List<DataRecord> recs = new ArrayList<>();
+        for (int g = 0; g < groupCount; g++) {
+            int rows = (int) getVarLong(buf);
+            long offset = getVarLong(buf);
+            DataRecord[] group = new DataRecord[rows];
+            for (int r = 0; r < rows; r++) {
+                group[r] = new DataRecord();
+            }
+            ByteBuffer col = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            col.position((int) offset);
+            for (int i = 0; i < columnCount; i++) {
+                int length = (int) getVarLong(buf);
+                int start = col.position();
+                readColumn(col, names[i], types[i], fields.get(names[i]), group);
+                col.position(start + length);
+            }
+            DateChars dates = new DateChars();
+            for (DataRecord rec : group) {
+                rec.setDate(dates.toString(rec.getDateutcMillis()));
+                if (!rec.getDeviceMac().isEmpty()) {
+                    rec.generateId();
+                }
+            }
+            recs.addAll(Arrays.asList(group));
+        }
+        return recs.toArray(new DataRecord[0]);
+    }
+
+    private static void readColumn(ByteBuffer In, String Name, byte Type, RecordField Field, DataRecord[] Recs) throws IOException {
+        if (Type == longType) {
+            long val = In.getLong();
+            for (int r = 0; r < Recs.length; r++) {
+                if (r > 0) val += zigzag(getVarLong(In));
+                Recs[r].setDateutcMillis(val);
+            }
+        } else if (Type == doubleType) {
+            for (DataRecord rec : Recs) {
+                Field.setDouble(rec, In.getDouble());
+            }
+        } else if (Type == intType) {
+            int val = 0;
+            for (DataRecord rec : Recs) {
+                val += (int) zigzag(getVarLong(In));
+                Field.setInt(rec, val);
+            }
+        } else if (Type == stringType) {
+            String[] dict = new String[(int) getVarLong(In)];
+            for (int i = 0; i < dict.length; i++) {
+                dict[i] = getString(In);
+            }
+            for (DataRecord rec : Recs) {
+                String val = dict[(int) getVarLong(In)];
+                if (Name.equals("macAddress")) rec.setDeviceMac(val);
+                else if (Name.equals("lastRain")) rec.setLastRain(val);
+                else if (Name.equals("loc")) rec.setLoc(val);
+            }
+        } else {
+            throw new IOException("Unknown column type " + Type + ".");
+        }
+    }
+
+    private static long getVarLong(ByteBuffer In) throws IOException {
+        long val = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = In.get();
+            val |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return val;
+            }
+        }
+        throw new IOException("Invalid varint.");
+    }
+
+    private static String getString(ByteBuffer In) throws IOException {
+        byte[] utf8 = new byte[(int) getVarLong(In)];
+        In.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static long zigzag(long Value) {
+        return (Value >>> 1) ^ -(Value & 1);
+    }
+
+    private static FileChannel open(Path File) throws IOException {
+        return FileChannel.open(File, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private static long write(WritableByteChannel Channel, ByteBuffer Data) throws IOException {
+        long written = Data.remaining();
+        while (Data.hasRemaining()) {
+            Channel.write(Data);
+        }
+        return written;
+    }
+
+    /**
+     * A range of rows from a record array or a batch.
+     */
+    private static class Piece {
+        private final BaseDataRecord[] records;
+        private final DataRecordBatch batch;
+        private final int from;
+        private final int to;
+
+        Piece(BaseDataRecord[] Records, int From, int To) {
+            this.records = Records;
+            this.batch = null;
+            this.from = From;
+            this.to = To;
+        }
+
+        Piece(DataRecordBatch Batch, int From, int To) {
+            this.records = null;
+            this.batch = Batch;
+            this.from = From;
+            this.to = To;
+        }
+    }
+
+    /**
+     * An encoded chunk and where it was written.
+     */
+    private static class Encoded {
+        private ByteBuffer data;
+        private int rows;
+
+        /**
+         * The position in the file of the chunk.
+         */
+        private long offset;
+
+        /**
+         * The encoded length of each column, for columnar files.
+         */
+        private int[] lengths;
+    }
+
+    /**
+     * The rows of one chunk in columns, which the column writers read from.
+     */
+    private static class Chunk {
+        private int size = 0;
+        private final long[] dateutc;
+        private final double[][] doubles = new double[RecordField.DOUBLE_COUNT][];
+        private final int[][] ints = new int[RecordField.INT_COUNT][];
+        private final String[] mac;
+        private final String[] lastRain;
+        private final String[] loc;
+        private final DateChars dates = new DateChars();
+
+        Chunk(int Capacity) {
+            this.dateutc = new long[Capacity];
+            for (int i = 0; i < this.doubles.length; i++) {
+                this.doubles[i] = new double[Capacity];
+            }
+            for (int i = 0; i < this.ints.length; i++) {
+                this.ints[i] = new int[Capacity];
+            }
+            this.mac = new String[Capacity];
+            this.lastRain = new String[Capacity];
+            this.loc = new String[Capacity];
+        }
+
+        void append(Piece P) {
+            int count = P.to - P.from;
+            if (P.batch != null) {
+                System.arraycopy(P.batch.dateutcColumn(), P.from, this.dateutc, this.size, count);
+                for (RecordField field : RecordField.values()) {
+                    if (field.getType() == RecordField.Type.DOUBLE) {
+                        System.arraycopy(P.batch.doubleColumn(field), P.from, this.doubles[field.getColumn()], this.size, count);
+                    } else if (field.getType() == RecordField.Type.INT) {
+                        System.arraycopy(P.batch.intColumn(field), P.from, this.ints[field.getColumn()], this.size, count);
+                    }
+                }
+                for (int r = P.from; r < P.to; r++) {
+                    this.mac[this.size] = P.batch.getDeviceMac();
+                    this.lastRain[this.size] = P.batch.getLastRain(r);
+                    this.loc[this.size] = P.batch.getLoc(r);
+                    this.size++;
+                }
+                return;
+            }
+
+            for (int r = P.from; r < P.to; r++) {
+                BaseDataRecord rec = P.records[r];
+                this.dateutc[this.size] = rec.getDateutcMillis();
+                for (RecordField field : RecordField.values()) {
+                    if (field.getType() == RecordField.Type.DOUBLE) {
+                        this.doubles[field.getColumn()][this.size] = field.getDouble(rec);
+                    } else if (field.getType() == RecordField.Type.INT) {
+                        this.ints[field.getColumn()][this.size] = field.getInt(rec);
+                    }
+                }
+                if (rec instanceof DataRecord) {
+                    this.mac[this.size] = ((DataRecord) rec).getDeviceMac();
+                    this.loc[this.size] = ((DataRecord) rec).getLoc();
+                } else {
+                    this.mac[this.size] = "";
+                    this.loc[this.size] = "";
+                }
+                this.lastRain[this.size] = rec.getLastRain();
+                this.size++;
+            }
+        }
+    }
+
+    /**
+     * Writes the CSV value of one column for a row.
+     */
+    private interface CsvWriter {
+        String getName();
+
+        void writeCsv(Chunk C, int Row, Sink Out);
+    }
+
+    /**
+     * Writes one column, either as the CSV value of a row or as the whole
+     * column of a chunk for the columnar format.
+     */
+    private interface ColumnWriter extends CsvWriter {
+        byte getType();
+
+        void writeColumn(Chunk C, Sink Out);
+    }
+
+    /**
+     * dateutc, a long delta encoded in columnar files.
+     */
+    private static class DateutcColumn implements ColumnWriter {
+        @Override
+        public String getName() {
+            return "dateutc";
+        }
+
+        @Override
+        public byte getType() {
+            return longType;
+        }
+
+        @Override
+        public void writeCsv(Chunk C, int Row, Sink Out) {
+            Out.putLong(C.dateutc[Row]);
+        }
+
+        @Override
+        public void writeColumn(Chunk C, Sink Out) {
+            Out.putLongLE(C.dateutc[0]);
+            for (int r = 1; r < C.size; r++) {
+                Out.putZigZag(C.dateutc[r] - C.dateutc[r - 1]);
+            }
+        }
+    }
+
+    /**
+     * The date formatted from dateutc, only written to CSV.
+     */
+    private static class DateColumn implements CsvWriter {
+        @Override
+        public String getName() {
+            return "date";
+        }
+
+        @Override
+        public void writeCsv(Chunk C, int Row, Sink Out) {
+            long time = C.dateutc[Row];
+            if (C.dates.format(time)) {
+                Out.putAscii(C.dates.chars());
+            } else {
+                Out.putAscii(DataRecordBatch.formatDate(time));
+            }
+        }
+    }
+
+    /**
+     * A DOUBLE field, plain little endian in columnar files.
+     */
+    private static class DoubleColumn implements ColumnWriter {
+        private final RecordField field;
+
+        DoubleColumn(RecordField Field) {
+            this.field = Field;
+        }
+
+        @Override
+        public String getName() {
+            return this.field.getJsonName();
+        }
+
+        @Override
+        public byte getType() {
+            return doubleType;
+        }
+
+        @Override
+        public void writeCsv(Chunk C, int Row, Sink Out) {
+            Out.putDouble(C.doubles[this.field.getColumn()][Row]);
+        }
+
+        @Override
+        public void writeColumn(Chunk C, Sink Out) {
+            double[] col = C.doubles[this.field.getColumn()];
+            for (int r = 0; r < C.size; r++) {
+                Out.putLongLE(Double.doubleToRawLongBits(col[r]));
+            }
+        }
+    }
+
+    /**
+     * An INT field, zigzag varint deltas in columnar files.
+     */
+    private static class IntColumn implements ColumnWriter {
+        private final RecordField field;
+
+        IntColumn(RecordField Field) {
+            this.field = Field;
+        }
+
+        @Override
+        public String getName() {
+            return this.field.getJsonName();
+        }
+
+        @Override
+        public byte getType() {
+            return intType;
+        }
+
+        @Override
+        public void writeCsv(Chunk C, int Row, Sink Out) {
+            Out.putLong(C.ints[this.field.getColumn()][Row]);
+        }
+
+        @Override
+        public void writeColumn(Chunk C, Sink Out) {
+            int[] col = C.ints[this.field.getColumn()];
+            int prev = 0;
+            for (int r = 0; r < C.size; r++) {
+                Out.putZigZag((long) col[r] - prev);
+                prev = col[r];
+            }
+        }
+    }
+
+    /**
+     * A String column, dictionary encoded in columnar files.
+     */
+    private static class StringColumn implements ColumnWriter {
+        private final String name;
+        private final Function<Chunk, String[]> values;
+
+        StringColumn(String Name, Function<Chunk, String[]> Values) {
+            this.name = Name;
+            this.values = Values;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public byte getType() {
+            return stringType;
+        }
+
+        @Override
+        public void writeCsv(Chunk C, int Row, Sink Out) {
+            Out.putCsvString(this.values.apply(C)[Row]);
+        }
+
+        @Override
+        public void writeColumn(Chunk C, Sink Out) {
+            String[] col = this.values.apply(C);
+            Map<String, Integer> index = new HashMap<>();
+            List<String> dict = new ArrayList<>();
+            int[] ids = new int[C.size];
+            for (int r = 0; r < C.size; r++) {
+                String val = col[r] == null ? "" : col[r];
+                Integer id = index.get(val);
+                if (id == null) {
+                    id = dict.size();
+                    index.put(val, id);
+                    dict.add(val);
+                }
+                ids[r] = id;
+            }
+            Out.putVarLong(dict.size());
+            for (String val : dict) {
+                Out.putString(val);
+            }
+            for (int id : ids) {
+                Out.putVarLong(id);
+            }
+        }
+    }
+
+    /**
+     * A growable byte array that chunks are encoded into.
+     */
+    private static class Sink {
+        private byte[] buf;
+        private int size = 0;
+
+        Sink(long Capacity) {
+            this.buf = new byte[(int) Math.min(1 << 30, Math.max(16, Capacity))];
+        }
+
+        private void ensure(int Bytes) {
+            if (this.size + Bytes > this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.size + Bytes));
+            }
+        }
+
+        void put(byte B) {
+            this.ensure(1);
+            this.buf[this.size++] = B;
+        }
+
+        void putAscii(String S) {
+            this.ensure(S.length());
+            for (int i = 0; i < S.length(); i++) {
+                char c = S.charAt(i);
+                if (c >= 0x80) {
+                    // Not ASCII after all, fall back to encoding the rest.
+                    byte[] utf8 = S.substring(i).getBytes(StandardCharsets.UTF_8);
+                    this.ensure(utf8.length);
+                    System.arraycopy(utf8, 0, this.buf, this.size, utf8.length);
+                    this.size += utf8.length;
+                    return;
+                }
+                this.buf[this.size++] = (byte) c;
+            }
+        }
+
+        void putAscii(char[] Chars) {
+            this.ensure(Chars.length);
+            for (char c : Chars) {
+                this.buf[this.size++] = (byte) c;
+            }
+        }
+
+        void putCsvString(String S) {
+            if (S == null || S.isEmpty()) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < S.length() && !quote; i++) {
+                char c = S.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                this.putAscii(S);
+                return;
+            }
+            this.put((byte) '"');
+            this.putAscii(S.replace("\"", "\"\""));
+            this.put((byte) '"');
+        }
+
+        void putLong(long Value) {
+            if (Value == Long.MIN_VALUE) {
+                this.putAscii(Long.toString(Value));
+                return;
+            }
+            this.ensure(20);
+            if (Value < 0) {
+                this.buf[this.size++] = '-';
+                Value = -Value;
+            }
+            int digits = 1;
+            while (digits < pow10.length && Value >= pow10[digits]) {
+                digits++;
+            }
+            byte[] b = this.buf;
+            int pos = this.size + digits;
+            this.size = pos;
+            do {
+                long q = Value / 10;
+                b[--pos] = (byte) ('0' + (Value - q * 10));
+                Value = q;
+            } while (Value != 0);
+        }
+
+        /**
+         * Writes a double in decimal. Values with up to 4 decimal places, which
+         * is all the API sends, are written without going through Double.toString.
+         * A value is written with the fewest places that parse back to exactly
+         * the same double.
+         */
+        void putDouble(double Value) {
+            for (int places = 0; places <= maxPlaces; places++) {
+                double whole = Math.rint(Value * pow10[places]);
+                if (Math.abs(whole) >= 1e15) {
+                    break;
+                } else if (whole / pow10[places] != Value) {
+                    continue;
+                }
+
+                long digits = (long) whole;
+                if (places == 0) {
+                    this.putLong(digits);
+                    return;
+                }
+                this.ensure(2);
+                if (digits < 0) {
+                    this.buf[this.size++] = '-';
+                    digits = -digits;
+                }
+                this.putLong(digits / pow10[places]);
+                this.ensure(1 + places);
+                this.buf[this.size++] = '.';
+                long frac = digits % pow10[places];
+                for (int i = this.size + places - 1; i >= this.size; i--) {
+                    this.buf[i] = (byte) ('0' + frac % 10);
+                    frac /= 10;
+                }
+                this.size += places;
+                return;
+            }
+            this.putAscii(Double.toString(Value));
+        }
+
+        void putVarLong(long Value) {
+            this.ensure(10);
+            while ((Value & ~0x7FL) != 0) {
+                this.buf[this.size++] = (byte) ((Value & 0x7F) | 0x80);
+                Value >>>= 7;
+            }
+            this.buf[this.size++] = (byte) Value;
+        }
+
+        void putZigZag(long Value) {
+            this.putVarLong((Value << 1) ^ (Value >> 63));
+        }
+
+        void putString(String S) {
+            byte[] utf8 = S.getBytes(StandardCharsets.UTF_8);
+            this.putVarLong(utf8.length);
+            this.ensure(utf8.length);
+            System.arraycopy(utf8, 0, this.buf, this.size, utf8.length);
+            this.size += utf8.length;
+        }
+
+        void putIntLE(int Value) {
+            this.ensure(4);
+            for (int i = 0; i < 4; i++) {
+                this.buf[this.size++] = (byte) (Value >>> (8 * i));
+            }
+        }
+
+        void putLongLE(long Value) {
+            this.ensure(8);
+            for (int i = 0; i < 8; i++) {
+                this.buf[this.size++] = (byte) (Value >>> (8 * i));
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(this.buf, 0, this.size);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * DataRecordStore is an embedded, file backed store of data records keyed by
+ * device MAC address and dateutc. Each device has a directory with one segment
+ * file per UTC day. Segments hold fixed width binary rows with dateutc and the
+ * numeric BaseDataRecord fields, are append only and are memory-mapped, so
+ * reads come straight out of the page cache without copying into a heap buffer.
+ * The String fields aren't stored. The date String is rebuilt from dateutc when
+ * records are read back.
+ *
+ * Appending a record that's already stored (same device and dateutc) is a
+ * no-op, so overlapping API pages can be appended without deduping first.
+ * All methods are synchronized so one store can be shared between threads.
+ */
+public class DataRecordStore implements Closeable {
+    /**
+     * Magic number at the start of every segment file. (AWS1)
+     */
+    private static final int magic = 0x41575331;
+
+    /**
+     * The size of the segment header in bytes.
+     */
+    private static final int headerBytes = 64;
+
+    /**
+     * Offset of the row count in the header.
+     */
+    private static final int rowCountOffset = 12;
+
+    /**
+     * The size of a row in bytes. dateutc, the DOUBLE fields and the INT fields
+     * padded to a multiple of 8 so the longs and doubles stay aligned.
+     */
+    static final int rowBytes = ((8 + 8 * RecordField.DOUBLE_COUNT + 4 * RecordField.INT_COUNT) + 7) & ~7;
+
+    /**
+     * Offset of the first INT field in a row.
+     */
+    private static final int intOffset = 8 + 8 * RecordField.DOUBLE_COUNT;
+
+    /**
+     * Rows a new segment has room for. One record a minute for a day.
+     */
+    private static final int initialRows = 1440;
+
+    /**
+     * The max number of segments kept mapped at once.
+     */
+    private static final int maxOpenSegments = 64;
+
+    /**
+     * The root directory of the store.
+     */
+    private Path directory;
+
+    /**
+     * The mapped segments, least recently used first.
+     */
+    private LinkedHashMap<Path, Segment> segments = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Segment> Eldest) {
+            if (size() > maxOpenSegments) {
+                Eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Constructor takes the root directory of the store, which is created if needed.
+     * @param Directory is the Path of the store directory.
+     * @throws IOException
+     */
+    public DataRecordStore(Path Directory) throws IOException {
+        this.directory = Directory;
+        Files.createDirectories(Directory);
+    }
+
+    /**
+     * Appends the records to the store. Records already stored are skipped.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Records is an array of records, such as the result of queryDeviceData.
+     * @return An int with the number of records that were added.
+     * @throws IOException
+     */
+    public synchronized int append(String MacAddress, BaseDataRecord[] Records) throws IOException {
+        int added = 0;
+        for (BaseDataRecord rec : Records) {
+            if (this.append(MacAddress, rec)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Appends one record to the store unless it's already stored.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Rec is the BaseDataRecord to add.
+     * @return A boolean with true if the record was added.
+     * @throws IOException
+     */
+    public synchronized boolean append(String MacAddress, BaseDataRecord Rec) throws IOException {
+        return this.segment(MacAddress, Rec.getDateutcMillis(), true).append(Rec);
+    }
+
+    /**
+     * Checks if a record for the device and time is stored.
+     * @param MacAddress is a String with the device MAC address.
+     * @param EpochMillis is a long with the dateutc.
+     * @return A boolean with true if it's stored.
+     * @throws IOException
+     */
+    public synchronized boolean contains(String MacAddress, long EpochMillis) throws IOException {
+        Segment seg = this.segment(MacAddress, EpochMillis, false);
+        return seg != null && seg.find(EpochMillis) >= 0;
+    }
+
+    /**
+     * Scans the device's stored rows between the times, inclusive, in ascending
+     * dateutc order. The StoredRow passed to the Consumer reads straight from the
+     * mapped segment and is reused for every row, so it must not be kept.
+     * @param MacAddress is a String with the device MAC address.
+     * @param FromMillis is a long with the oldest dateutc to return.
+     * @param ToMillis is a long with the newest dateutc to return.
+     * @param RowConsumer is a Consumer that's called with each row.
+     * @return An int with the number of rows scanned.
+     * @throws IOException
+     */
+    public synchronized int scan(String MacAddress, long FromMillis, long ToMillis, Consumer<StoredRow> RowConsumer) throws IOException {
+        int count = 0;
+        StoredRow row = new StoredRow();
+        LocalDate last = day(ToMillis);
+        for (LocalDate day = day(FromMillis); !day.isAfter(last); day = day.plusDays(1)) {
+            Segment seg = this.segment(MacAddress, day, false);
+            if (seg == null) {
+                continue;
+            }
+
+            row.buffer = seg.buffer;
+            int start = seg.lowerBound(FromMillis);
+            for (int i = start; i < seg.rowCount && seg.sortedTimes[i] <= ToMillis; i++) {
+                row.offset = headerBytes + seg.sortedRows[i] * rowBytes;
+                RowConsumer.accept(row);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the device's stored records between the times, inclusive, as DataRecord
+     * objects in ascending dateutc order. The MAC address and ID are set like
+     * queryDeviceData does.
+     * @param MacAddress is a String with the device MAC address.
+     * @param FromMillis is a long with the oldest dateutc to return.
+     * @param ToMillis is a long with the newest dateutc to return.
+     * @return An array of DataRecord objects.
+     * @throws IOException
+     */
+    public synchronized DataRecord[] read(String MacAddress, long FromMillis, long ToMillis) throws IOException {
+        List<DataRecord> records = new ArrayList<>();
+        this.scan(MacAddress, FromMillis, ToMillis, row -> {
+            DataRecord rec = row.toDataRecord();
+            rec.setDeviceMac(MacAddress);
+            rec.generateId();
+            records.add(rec);
+        });
+        return records.toArray(new DataRecord[0]);
+    }
+
+    /**
+     * Forces all mapped segments to disk.
+     */
+    public synchronized void flush() {
+        for (Segment seg : this.segments.values()) {
+            seg.buffer.force();
+        }
+    }
+
+    /**
+     * Flushes and unmaps all segments.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment seg : this.segments.values()) {
+            seg.close();
+        }
+        this.segments.clear();
+    }
+
+    /**
+     * Gets the segment for the device and time.
+     * @param MacAddress is a String with the device MAC address.
+     * @param EpochMillis is a long with the dateutc.
+     * @param Create is a boolean with true to create the segment if it doesn't exist.
+     * @return The Segment or null if it doesn't exist and Create is false.
+     * @throws IOException
+     */
+    private Segment segment(String MacAddress, long EpochMillis, boolean Create) throws IOException {
+        return this.segment(MacAddress, day(EpochMillis), Create);
+    }
+
+    private Segment segment(String MacAddress, LocalDate Day, boolean Create) throws IOException {
+        Path file = this.directory.resolve(String.format("%016x", RecordKey.macToLong(MacAddress))).resolve(Day + ".seg");
+        Segment seg = this.segments.get(file);
+        if (seg == null) {
+            if (!Create && !Files.exists(file)) {
+                return null;
+            }
+            seg = new Segment(file);
+            this.segments.put(file, seg);
+        }
+        return seg;
+    }
+
+    private static LocalDate day(long EpochMillis) {
+        return LocalDate.ofEpochDay(Math.floorDiv(EpochMillis, 86400000L));
+    }
+
+    /**
+     * StoredRow is a view of one stored row that reads straight from the mapped segment.
+     */
+    public static class StoredRow {
+        /**
+         * The mapped segment the row is in.
+         */
+        private MappedByteBuffer buffer;
+
+        /**
+         * The byte offset of the row in the segment.
+         */
+        private int offset;
+
+        /**
+         * Gets the dateutc of the row.
+         * @return A long with the epoch millis.
+         */
+        public long getDateutc() {
+            return this.buffer.getLong(this.offset);
+        }
+
+        /**
+         * Gets the value of a DOUBLE field.
+         * @param Field is the DOUBLE RecordField to get.
+         * @return A double with the value.
+         */
+        public double getDouble(RecordField Field) {
+            return this.buffer.getDouble(this.offset + 8 + 8 * Field.getColumn());
+        }
+
+        /**
+         * Gets the value of an INT field.
+         * @param Field is the INT RecordField to get.
+         * @return An int with the value.
+         */
+        public int getInt(RecordField Field) {
+            return this.buffer.getInt(this.offset + intOffset + 4 * Field.getColumn());
+        }
+
+        /**
+         * Copies the row into a new DataRecord object.
+         * @return A new DataRecord object.
+         */
+        public DataRecord toDataRecord() {
+            DataRecord rec = new DataRecord();
+            rec.setDateutcMillis(this.getDateutc());
+            for (RecordField field : RecordField.values()) {
+                if (field.getType() == RecordField.Type.DOUBLE) {
+                    field.setDouble(rec, this.getDouble(field));
+                } else if (field.getType() == RecordField.Type.INT) {
+                    field.setInt(rec, this.getInt(field));
+                }
+            }
+            rec.setDate(DataRecordBatch.formatDate(rec.getDateutcMillis()));
+            return rec;
+        }
+    }
+
+    /**
+     * Segment is one mapped segment file. Rows are stored in the order they were
+     * appended, and a sorted copy of their times with the matching row numbers is
+     * kept in memory for lookups and ordered scans.
+     */
+    private static class Segment {
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int capacity;
+        private int rowCount;
+        private long[] sortedTimes;
+        private int[] sortedRows;
+
+        Segment(Path File) throws IOException {
+            Files.createDirectories(File.getParent());
+            boolean exists = Files.exists(File) && Files.size(File) >= headerBytes;
+            this.channel = FileChannel.open(File, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (exists) {
+                this.capacity = (int) ((this.channel.size() - headerBytes) / rowBytes);
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes + (long) this.capacity * rowBytes);
+                if (this.buffer.getInt(0) != magic || this.buffer.getInt(8) != rowBytes) {
+                    this.channel.close();
+                    throw new IOException("File " + File + " isn't a data record segment or has a different row layout.");
+                }
+                this.rowCount = this.buffer.getInt(rowCountOffset);
+            } else {
+                this.capacity = initialRows;
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes + (long) this.capacity * rowBytes);
+                this.buffer.putInt(0, magic);
+                this.buffer.putInt(4, 1);
+                this.buffer.putInt(8, rowBytes);
+                this.buffer.putInt(rowCountOffset, 0);
+            }
+
+            // Build the sorted index from the stored rows.
+            this.sortedTimes = new long[Math.max(16, this.rowCount)];
+            this.sortedRows = new int[this.sortedTimes.length];
+            Integer[] order = new Integer[this.rowCount];
+            for (int i = 0; i < this.rowCount; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(this.timeAt(a), this.timeAt(b)));
+            for (int i = 0; i < this.rowCount; i++) {
+                this.sortedRows[i] = order[i];
+                this.sortedTimes[i] = this.timeAt(order[i]);
+            }
+        }
+
+        boolean append(BaseDataRecord Rec) throws IOException {
+            long time = Rec.getDateutcMillis();
+            int pos = this.find(time);
+            if (pos >= 0) {
+                return false;
+            }
+            pos = -pos - 1;
+
+            if (this.rowCount == this.capacity) {
+                this.capacity *= 2;
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes + (long) this.capacity * rowBytes);
+            }
+
+            // Write the row, then publish it by bumping the row count.
+            int row = this.rowCount;
+            int off = headerBytes + row * rowBytes;
+            this.buffer.putLong(off, time);
+            for (RecordField field : RecordField.values()) {
+                if (field.getType() == RecordField.Type.DOUBLE) {
+                    this.buffer.putDouble(off + 8 + 8 * field.getColumn(), field.getDouble(Rec));
+                } else if (field.getType() == RecordField.Type.INT) {
+                    this.buffer.putInt(off + intOffset + 4 * field.getColumn(), field.getInt(Rec));
+                }
+            }
+            this.rowCount++;
+            this.buffer.putInt(rowCountOffset, this.rowCount);
+
+            if (this.rowCount > this.sortedTimes.length) {
+                this.sortedTimes = Arrays.copyOf(this.sortedTimes, this.sortedTimes.length * 2);
+                this.sortedRows = Arrays.copyOf(this.sortedRows, this.sortedRows.length * 2);
+            }
+            System.arraycopy(this.sortedTimes, pos, this.sortedTimes, pos + 1, row - pos);
+            System.arraycopy(this.sortedRows, pos, this.sortedRows, pos + 1, row - pos);
+            this.sortedTimes[pos] = time;
+            this.sortedRows[pos] = row;
+            return true;
+        }
+
+        /**
+         * Finds the time in the sorted index.
+         * @param Time is a long with the dateutc.
+         * @return The index in sortedTimes or -(insertion point) - 1 if not found.
+         */
+        int find(long Time) {
+            return Arrays.binarySearch(this.sortedTimes, 0, this.rowCount, Time);
+        }
+
+        /**
+         * Gets the index of the first time in sortedTimes at or after the provided time.
+         */
+        int lowerBound(long Time) {
+            int lo = 0, hi = this.rowCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (this.sortedTimes[mid] < Time) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private long timeAt(int Row) {
+            return this.buffer.getLong(headerBytes + Row * rowBytes);
+        }
+
+        void close() {
+            try {
+                this.buffer.force();
+                this.channel.close();
+            } catch (IOException e) {
+                // The data is in the page cache already, nothing more to do.
+            }
+        }
+    }
+}
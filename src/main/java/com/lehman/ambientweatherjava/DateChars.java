@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.time.LocalDate;
+
+/**
+ * DateChars formats dateutc values like the API date field into a reused
+ * char array. Consecutive records are almost always on the same day, so the
+ * date part is only rebuilt when the day changes, which is much cheaper than
+ * a DateTimeFormatter call per record. Not thread safe.
+ */
+final class DateChars {
+    /**
+     * The formatted date. (2020-05-09T04:05:00.000Z)
+     */
+    private final char[] chars = new char[24];
+
+    /**
+     * The epoch day the date part of chars is for.
+     */
+    private long day = Long.MIN_VALUE;
+
+    /**
+     * Formats the dateutc into the char array.
+     * @param Time is a long with the dateutc in epoch millis.
+     * @return A boolean with false if the year isn't 4 digits, in which case DataRecordBatch.formatDate has to be used.
+     */
+    boolean format(long Time) {
+        long day = Math.floorDiv(Time, 86400000L);
+        if (day != this.day) {
+            String date = LocalDate.ofEpochDay(day).toString();
+            if (date.length() != 10) {
+                return false;
+            }
+            date.getChars(0, 10, this.chars, 0);
+            this.chars[10] = 'T';
+            this.chars[13] = ':';
+            this.chars[16] = ':';
+            this.chars[19] = '.';
+            this.chars[23] = 'Z';
+            this.day = day;
+        }
+        int millis = (int) Math.floorMod(Time, 86400000L);
+        this.putDigits(11, millis / 3600000, 2);
+        this.putDigits(14, millis / 60000 % 60, 2);
+        this.putDigits(17, millis / 1000 % 60, 2);
+        this.putDigits(20, millis % 1000, 3);
+        return true;
+    }
+
+    /**
+     * Gets the chars of the last formatted date.
+     * @return A char array that is reused by the next call to format.
+     */
+    char[] chars() {
+        return this.chars;
+    }
+
+    /**
+     * Whether the String is the last formatted date.
+     * @param Date is the String to compare.
+     * @return A boolean with true if it matches.
+     */
+    boolean matches(String Date) {
+        if (Date.length() != this.chars.length) {
+            return false;
+        }
+        for (int i = 0; i < this.chars.length; i++) {
+            if (Date.charAt(i) != this.chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Formats the dateutc into a new String.
+     * @param Time is a long with the dateutc in epoch millis.
+     * @return A String like the API date field.
+     */
+    String toString(long Time) {
+        return this.format(Time) ? new String(this.chars) : DataRecordBatch.formatDate(Time);
+    }
+
+    private void putDigits(int Offset, int Value, int Digits) {
+        for (int i = Offset + Digits - 1; i >= Offset; i--) {
+            this.chars[i] = (char) ('0' + Value % 10);
+            Value /= 10;
+        }
+    }
+}
@@ -26,7 +26,9 @@ import java.util.Date;
 
 /**
  * This is a deserializer for use with Jackson to convert
- * long epoch times into Java Date objects.
+ * long epoch times into Java Date objects. BaseDataRecord no
+ * longer uses it since dateutc is bound straight to a primitive
+ * long, but it's kept for anyone using it on their own classes.
  */
 public class DateHandler extends StdDeserializer<Date> {
     public DateHandler() {
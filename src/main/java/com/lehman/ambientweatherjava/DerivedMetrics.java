@@ -0,0 +1,334 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * DerivedMetrics computes the dew point and feels like temperatures of
+ * records from their temperature, humidity and wind, and reference
+ * evapotranspiration from solar radiation. Stations on older firmware don't
+ * send feelsLike, dewPoint, feelsLikein and dewPointin, so they are left at 0.
+ * By default apply fills in only those that are 0, and recompute(true)
+ * overwrites them all.
+ *
+ * The records are updated in place with no per-record allocation. Arrays of
+ * at least parallelThreshold records, such as a long backfill, are split
+ * into chunks and processed on a ForkJoinPool.
+ *
+ * The formulas are the NWS heat index (Rothfusz) and wind chill, the Magnus
+ * dew point and FAO-56 hourly Penman-Monteith reference ET.
+ */
+public class DerivedMetrics {
+    /**
+     * Magnus coefficients for the dew point. (Celsius)
+     */
+    private static final double magnusA = 17.625;
+    private static final double magnusB = 243.04;
+
+    /**
+     * The smallest chunk of records a parallel task processes.
+     */
+    private static final int minChunk = 1024;
+
+    /**
+     * If true all derived fields are overwritten, otherwise only those at 0.
+     */
+    private boolean recompute = false;
+
+    /**
+     * The number of records at which work is split across the pool.
+     */
+    private int parallelThreshold = 16384;
+
+    /**
+     * The pool parallel work runs on.
+     */
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Work on a range of record indexes.
+     */
+    private interface Range {
+        void run(int From, int To);
+    }
+
+    /**
+     * Sets whether derived fields the station did send are overwritten too.
+     * @param Recompute is a boolean with true to overwrite.
+     * @return This object.
+     */
+    public DerivedMetrics recompute(boolean Recompute) {
+        this.recompute = Recompute;
+        return this;
+    }
+
+    /**
+     * Sets the number of records at which work is split across the pool.
+     * @param Threshold is an int with the number of records.
+     * @return This object.
+     */
+    public DerivedMetrics parallelThreshold(int Threshold) {
+        this.parallelThreshold = Math.max(1, Threshold);
+        return this;
+    }
+
+    /**
+     * Sets the pool parallel work runs on. Defaults to the common pool.
+     * @param Pool is a ForkJoinPool.
+     * @return This object.
+     */
+    public DerivedMetrics pool(ForkJoinPool Pool) {
+        this.pool = Pool;
+        return this;
+    }
+
+    /**
+     * Fills in the feelsLike, dewPoint, feelsLikein and dewPointin fields of the records.
+     * @param Records is an array of records to update.
+     * @return The same array.
+     */
+    public <T extends BaseDataRecord> T[] apply(T[] Records) {
+        this.apply(Records, 0, Records.length);
+        return Records;
+    }
+
+    /**
+     * Fills in the feelsLike, dewPoint, feelsLikein and dewPointin fields of a range of records.
+     * @param Records is an array of records to update.
+     * @param From is an int with the first index.
+     * @param To is an int with the index after the last.
+     */
+    public void apply(BaseDataRecord[] Records, int From, int To) {
+        this.run(From, To, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                this.applyOne(Records[i]);
+            }
+        });
+    }
+
+    /**
+     * Computes the reference evapotranspiration rate of each record.
+     * @param Records is an array of records.
+     * @param Out is a double array at least as long as Records that gets the ET in inches per hour.
+     * @return The Out array.
+     */
+    public double[] evapotranspiration(BaseDataRecord[] Records, double[] Out) {
+        if (Out.length < Records.length) {
+            throw new IllegalArgumentException("Out array is shorter than the records.");
+        }
+        this.run(0, Records.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                BaseDataRecord rec = Records[i];
+                Out[i] = evapotranspiration(rec.getTempf(), rec.getHumidity(), rec.getWindspeedmph(),
+                    rec.getSolarradiation(), rec.getBaromabsin());
+            }
+        });
+        return Out;
+    }
+
+    /**
+     * Computes the reference evapotranspiration rate of the rows of a batch.
+     * @param Batch is a DataRecordBatch.
+     * @param Out is a double array at least as long as the batch that gets the ET in inches per hour.
+     * @return The Out array.
+     */
+    public double[] evapotranspiration(DataRecordBatch Batch, double[] Out) {
+        if (Out.length < Batch.size()) {
+            throw new IllegalArgumentException("Out array is shorter than the batch.");
+        }
+        double[] temp = Batch.doubleColumn(RecordField.TEMPF);
+        int[] humidity = Batch.intColumn(RecordField.HUMIDITY);
+        double[] wind = Batch.doubleColumn(RecordField.WINDSPEEDMPH);
+        double[] solar = Batch.doubleColumn(RecordField.SOLARRADIATION);
+        double[] barom = Batch.doubleColumn(RecordField.BAROMABSIN);
+        this.run(0, Batch.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Out[i] = evapotranspiration(temp[i], humidity[i], wind[i], solar[i], barom[i]);
+            }
+        });
+        return Out;
+    }
+
+    private void applyOne(BaseDataRecord Rec) {
+        int humidity = Rec.getHumidity();
+        if (humidity > 0) {
+            double temp = Rec.getTempf();
+            if (this.recompute || Rec.getDewPoint() == 0) {
+                Rec.setDewPoint(dewPoint(temp, humidity));
+            }
+            if (this.recompute || Rec.getFeelsLike() == 0) {
+                Rec.setFeelsLike(feelsLike(temp, humidity, Rec.getWindspeedmph()));
+            }
+        }
+
+        int humidityin = Rec.getHumidityin();
+        if (humidityin > 0) {
+            double tempin = Rec.getTempinf();
+            if (this.recompute || Rec.getDewPointin() == 0) {
+                Rec.setDewPointin(dewPoint(tempin, humidityin));
+            }
+            if (this.recompute || Rec.getFeelsLikein() == 0) {
+                Rec.setFeelsLikein(feelsLike(tempin, humidityin, 0));
+            }
+        }
+    }
+
+    /**
+     * Runs the work on the calling thread, or split across the pool if the
+     * range is at least parallelThreshold long.
+     */
+    private void run(int From, int To, Range Work) {
+        int length = To - From;
+        if (length < this.parallelThreshold || this.pool.getParallelism() < 2) {
+            Work.run(From, To);
+            return;
+        }
+        int chunk = Math.max(minChunk, length / (this.pool.getParallelism() * 4));
+        this.pool.invoke(new RangeTask(Work, From, To, chunk));
+    }
+
+    /**
+     * Computes the dew point.
+     * @param TempF is a double with the temperature in Fahrenheit.
+     * @param Humidity is a double with the relative humidity percent.
+     * @return A double with the dew point in Fahrenheit.
+     */
+    public static double dewPoint(double TempF, double Humidity) {
+        double c = (TempF - 32.0) * 5.0 / 9.0;
+        double g = Math.log(Humidity / 100.0) + magnusA * c / (magnusB + c);
+        return magnusB * g / (magnusA - g) * 9.0 / 5.0 + 32.0;
+    }
+
+    /**
+     * Computes the NWS heat index.
+     * @param TempF is a double with the temperature in Fahrenheit.
+     * @param Humidity is a double with the relative humidity percent.
+     * @return A double with the heat index in Fahrenheit.
+     */
+    public static double heatIndex(double TempF, double Humidity) {
+        double t = TempF;
+        double rh = Humidity;
+        double hi = 0.5 * (t + 61.0 + (t - 68.0) * 1.2 + rh * 0.094);
+        if ((hi + t) / 2.0 < 80.0) {
+            return hi;
+        }
+
+        hi = -42.379 + 2.04901523 * t + 10.14333127 * rh - 0.22475541 * t * rh
+            - 0.00683783 * t * t - 0.05481717 * rh * rh + 0.00122874 * t * t * rh
+            + 0.00085282 * t * rh * rh - 0.00000199 * t * t * rh * rh;
+        if (rh < 13 && t >= 80 && t <= 112) {
+            hi -= (13 - rh) / 4.0 * Math.sqrt((17 - Math.abs(t - 95)) / 17.0);
+        } else if (rh > 85 && t >= 80 && t <= 87) {
+            hi += (rh - 85) / 10.0 * ((87 - t) / 5.0);
+        }
+        return hi;
+    }
+
+    /**
+     * Computes the NWS wind chill. It's only defined at 50F or below with
+     * wind of at least 3 mph, outside of that the temperature is returned.
+     * @param TempF is a double with the temperature in Fahrenheit.
+     * @param WindMph is a double with the wind speed in mph.
+     * @return A double with the wind chill in Fahrenheit.
+     */
+    public static double windChill(double TempF, double WindMph) {
+        if (TempF > 50 || WindMph < 3) {
+            return TempF;
+        }
+        double v = Math.pow(WindMph, 0.16);
+        return 35.74 + 0.6215 * TempF - 35.75 * v + 0.4275 * TempF * v;
+    }
+
+    /**
+     * Computes the feels like temperature, the wind chill when it's cold and
+     * windy, the heat index when it's 80F or above and otherwise the temperature.
+     * @param TempF is a double with the temperature in Fahrenheit.
+     * @param Humidity is a double with the relative humidity percent.
+     * @param WindMph is a double with the wind speed in mph.
+     * @return A double with the feels like temperature in Fahrenheit.
+     */
+    public static double feelsLike(double TempF, double Humidity, double WindMph) {
+        if (TempF <= 50 && WindMph >= 3) {
+            return windChill(TempF, WindMph);
+        } else if (TempF >= 80) {
+            return heatIndex(TempF, Humidity);
+        }
+        return TempF;
+    }
+
+    /**
+     * Computes the FAO-56 hourly reference evapotranspiration rate. Net
+     * radiation is estimated as 77% of the solar radiation with no
+     * longwave term, and the wind is used as is as the 2m wind speed.
+     * @param TempF is a double with the temperature in Fahrenheit.
+     * @param Humidity is a double with the relative humidity percent.
+     * @param WindMph is a double with the wind speed in mph.
+     * @param SolarRadiation is a double with the solar radiation in W/m^2.
+     * @param BaromAbsIn is a double with the absolute pressure in inHg, or 0 to use sea level.
+     * @return A double with the ET in inches per hour.
+     */
+    public static double evapotranspiration(double TempF, double Humidity, double WindMph, double SolarRadiation, double BaromAbsIn) {
+        double t = (TempF - 32.0) * 5.0 / 9.0;
+        double u2 = WindMph * 0.44704;
+        double kpa = BaromAbsIn > 0 ? BaromAbsIn * 3.38639 : 101.3;
+        double gamma = 0.000665 * kpa;
+
+        double es = 0.6108 * Math.exp(17.27 * t / (t + 237.3));
+        double ea = es * Humidity / 100.0;
+        double delta = 4098.0 * es / ((t + 237.3) * (t + 237.3));
+
+        // W/m^2 to MJ/m^2 per hour, soil heat flux is 10% of net radiation by day and 50% by night.
+        double rn = 0.77 * SolarRadiation * 0.0036;
+        double g = SolarRadiation > 0 ? 0.1 * rn : 0.5 * rn;
+
+        double mm = (0.408 * delta * (rn - g) + gamma * 37.0 / (t + 273.0) * u2 * (es - ea))
+            / (delta + gamma * (1 + 0.34 * u2));
+        return Math.max(0, mm) / 25.4;
+    }
+
+    /**
+     * Splits a range in half until it's at most chunk long.
+     */
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Range work;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        RangeTask(Range Work, int From, int To, int Chunk) {
+            this.work = Work;
+            this.from = From;
+            this.to = To;
+            this.chunk = Chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.chunk) {
+                this.work.run(this.from, this.to);
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new RangeTask(this.work, this.from, mid, this.chunk),
+                new RangeTask(this.work, mid, this.to, this.chunk));
+        }
+    }
+}
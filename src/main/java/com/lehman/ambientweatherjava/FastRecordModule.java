@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * Jackson module that registers the hand written DataRecordDeserializer and
+ * DeviceDataRecordDeserializer. Register it on your own ObjectMapper or use
+ * AmbientWeatherBuilder.fastDeserializer() to have the client do it.
+ */
+public class FastRecordModule extends SimpleModule {
+    private static final long serialVersionUID = 1L;
+
+    public FastRecordModule() {
+        super("FastRecordModule");
+    }
+
+    /**
+     * Adds the deserializers when the module is registered on an ObjectMapper.
+     * @param Context is the SetupContext of the ObjectMapper.
+     */
+    @Override
+    public void setupModule(SetupContext Context) {
+        this.addDeserializer(DataRecord.class, new DataRecordDeserializer());
+        this.addDeserializer(DeviceDataRecord.class, new DeviceDataRecordDeserializer());
+        super.setupModule(Context);
+    }
+}
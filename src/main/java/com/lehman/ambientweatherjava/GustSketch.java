@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+/**
+ * GustSketch is a streaming quantile sketch for wind gusts. Values are counted
+ * in fixed width buckets, so the sketch takes the same memory however many
+ * values are added, sketches can be merged and quantiles are exact to the bucket
+ * width. The API reports gusts to 0.1 mph, which is the default width, so for
+ * API data the quantiles are exact.
+ */
+public class GustSketch {
+    /**
+     * The width of a bucket.
+     */
+    private double width;
+
+    /**
+     * The count of values in each bucket. The last bucket holds everything above.
+     */
+    private long[] buckets;
+
+    /**
+     * The number of values added.
+     */
+    private long count = 0;
+
+    /**
+     * The smallest value added.
+     */
+    private double min = Double.POSITIVE_INFINITY;
+
+    /**
+     * The largest value added.
+     */
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Default constructor covers 0 to 250 mph in 0.1 mph buckets.
+     */
+    public GustSketch() {
+        this(0.1, 250);
+    }
+
+    /**
+     * Constructor takes the bucket width and the largest value to bucket exactly.
+     * @param Width is a double with the bucket width.
+     * @param Max is a double with the largest value, larger values share the last bucket.
+     */
+    public GustSketch(double Width, double Max) {
+        this.width = Width;
+        this.buckets = new long[(int) Math.ceil(Max / Width) + 2];
+    }
+
+    /**
+     * Adds a value.
+     * @param Value is a double with the value to add.
+     */
+    public void add(double Value) {
+        this.buckets[this.bucket(Value)]++;
+        this.count++;
+        if (Value < this.min) this.min = Value;
+        if (Value > this.max) this.max = Value;
+    }
+
+    /**
+     * Adds the values in the range of the array.
+     * @param Values is an array of doubles.
+     * @param From is an int with the first index, inclusive.
+     * @param To is an int with the last index, exclusive.
+     */
+    public void addAll(double[] Values, int From, int To) {
+        long[] b = this.buckets;
+        double lo = this.min, hi = this.max;
+        for (int i = From; i < To; i++) {
+            double v = Values[i];
+            b[this.bucket(v)]++;
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        this.min = lo;
+        this.max = hi;
+        this.count += Math.max(0, To - From);
+    }
+
+    /**
+     * Adds the counts of another sketch with the same bucket width.
+     * @param Other is the GustSketch to merge in.
+     */
+    public void merge(GustSketch Other) {
+        if (Other.width != this.width || Other.buckets.length != this.buckets.length) {
+            throw new IllegalArgumentException("Only sketches with the same buckets can be merged.");
+        }
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] += Other.buckets[i];
+        }
+        this.count += Other.count;
+        this.min = Math.min(this.min, Other.min);
+        this.max = Math.max(this.max, Other.max);
+    }
+
+    /**
+     * Gets the value at the quantile, using the nearest rank.
+     * @param Quantile is a double from 0 to 1, such as 0.95 for the 95th percentile.
+     * @return A double with the value, rounded to the bucket width, or NaN if the sketch is empty.
+     */
+    public double quantile(double Quantile) {
+        if (this.count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Quantile * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            seen += this.buckets[i];
+            if (seen >= rank) {
+                // The end buckets also hold the values outside the range.
+                if (i == 0) return this.min;
+                if (i == this.buckets.length - 1) return this.max;
+                return Math.min(this.max, Math.max(this.min, i * this.width));
+            }
+        }
+        return this.max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return this.count == 0 ? Double.NaN : this.min;
+    }
+
+    public double getMax() {
+        return this.count == 0 ? Double.NaN : this.max;
+    }
+
+    private int bucket(double Value) {
+        long idx = Math.round(Value / this.width);
+        return (int) Math.max(0, Math.min(this.buckets.length - 1, idx));
+    }
+}
@@ -20,6 +20,21 @@ package com.lehman.ambientweatherjava;
  * Custom exception signal an unexpected HTTP status code was returned.
  */
 public class HttpStatusException extends Exception {
+    /**
+     * The non-200 status code.
+     */
+    private int statusCode;
+
+    /**
+     * The HttpResponse body.
+     */
+    private String responseBody;
+
+    /**
+     * The Retry-After header value in milliseconds or -1 if it wasn't set.
+     */
+    private long retryAfterMillis = -1;
+
     /**
      * Constructor takes the status code and response body.
      * @param Code is an int with the non-200 status code.
@@ -27,5 +42,30 @@ public class HttpStatusException extends Exception {
      */
     public HttpStatusException(int Code, String ResponseBody) {
         super("HttpResponse returned status code " + Code + ". Response body: " + ResponseBody);
+        this.statusCode = Code;
+        this.responseBody = ResponseBody;
+    }
+
+    /**
+     * Constructor takes the status code, response body and Retry-After value.
+     * @param Code is an int with the non-200 status code.
+     * @param ResponseBody is a String with the HttpResponse body.
+     * @param RetryAfterMillis is a long with the Retry-After header in milliseconds or -1 if not set.
+     */
+    public HttpStatusException(int Code, String ResponseBody, long RetryAfterMillis) {
+        this(Code, ResponseBody);
+        this.retryAfterMillis = RetryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
     }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * IncrementalPoller polls devices for records that haven't been seen before. It
+ * keeps the newest dateutc seen per device, the watermark, and asks for only as
+ * many records as could have been reported since then, based on the device's
+ * reporting interval. Only records newer than the watermark are passed on, oldest
+ * first. If the poller falls behind by more than a page it pages back until it
+ * reaches the watermark, up to maxCatchUpPages.
+ *
+ * Watermarks and intervals are saved to a properties file after each poll that
+ * finds new records, so a restarted poller carries on where it left off. Different devices
+ * can be polled from different threads, but don't poll one device from two
+ * threads at once.
+ */
+public class IncrementalPoller {
+    /**
+     * The most records the API returns per request.
+     */
+    static final int maxLimit = 288;
+
+    /**
+     * The interval assumed until a device's interval has been seen. One minute
+     * is the shortest interval stations report at, so it never asks for too few.
+     */
+    static final long defaultIntervalMillis = 60000;
+
+    /**
+     * Suffix of the keys the intervals are saved under in the watermark file.
+     */
+    private static final String intervalSuffix = ".interval";
+
+    /**
+     * The client to poll with.
+     */
+    private AmbientWeather client;
+
+    /**
+     * The file watermarks are saved to or null to keep them in memory only.
+     */
+    private Path watermarkFile;
+
+    /**
+     * The number of records to request the first time a device is polled.
+     */
+    private int initialLimit = maxLimit;
+
+    /**
+     * The max number of pages to request in one poll when catching up.
+     */
+    private int maxCatchUpPages = 5;
+
+    /**
+     * The clock used to work out how many records could be new.
+     */
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * The newest dateutc seen per MAC address.
+     */
+    private Map<String, Long> watermarks = new ConcurrentHashMap<>();
+
+    /**
+     * The reporting interval seen per MAC address in milliseconds.
+     */
+    private Map<String, Long> intervals = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor takes the client and the file to keep the watermarks in. If the
+     * file exists the watermarks are loaded from it.
+     * @param Client is the AmbientWeather client to poll with.
+     * @param WatermarkFile is the Path of the watermark file or null to not save them.
+     * @throws IOException
+     */
+    public IncrementalPoller(AmbientWeather Client, Path WatermarkFile) throws IOException {
+        this.client = Client;
+        this.watermarkFile = WatermarkFile;
+        if (WatermarkFile != null && Files.exists(WatermarkFile)) {
+            Properties props = new Properties();
+            try (Reader in = Files.newBufferedReader(WatermarkFile, StandardCharsets.UTF_8)) {
+                props.load(in);
+            }
+            for (String key : props.stringPropertyNames()) {
+                long value = Long.parseLong(props.getProperty(key));
+                if (key.endsWith(intervalSuffix)) {
+                    this.intervals.put(key.substring(0, key.length() - intervalSuffix.length()), value);
+                } else {
+                    this.watermarks.put(key, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the number of records to request the first time a device is polled.
+     * Defaults to 288, the most the API returns.
+     * @param Limit is an int with the initial limit.
+     * @return This poller.
+     */
+    public IncrementalPoller initialLimit(int Limit) {
+        this.initialLimit = Limit;
+        return this;
+    }
+
+    /**
+     * Sets the max number of pages requested in one poll when the poller has
+     * fallen more than a page behind. Older records are skipped, use backfill to
+     * get them. Defaults to 5.
+     * @param Pages is an int with the max pages.
+     * @return This poller.
+     */
+    public IncrementalPoller maxCatchUpPages(int Pages) {
+        this.maxCatchUpPages = Pages;
+        return this;
+    }
+
+    /**
+     * Sets the clock used to work out how many records could be new. Mostly
+     * useful for tests.
+     * @param Clock is the Clock to use.
+     * @return This poller.
+     */
+    public IncrementalPoller clock(Clock Clock) {
+        this.clock = Clock;
+        return this;
+    }
+
+    /**
+     * Polls the device and returns the records newer than its watermark.
+     * @param MacAddress is a String with the device MAC address.
+     * @return An array of new DataRecord objects, oldest first.
+     * @throws HttpStatusException will be thrown if a non-200 status is returned.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public DataRecord[] poll(String MacAddress) throws HttpStatusException, IOException, InterruptedException {
+        List<DataRecord> records = new ArrayList<>();
+        this.poll(MacAddress, records::add);
+        return records.toArray(new DataRecord[0]);
+    }
+
+    /**
+     * Polls the device and passes the records newer than its watermark to the
+     * Consumer, oldest first. The watermark is moved forward and saved after all
+     * the new records have been passed on.
+     * @param MacAddress is a String with the device MAC address.
+     * @param RecordConsumer is a Consumer that's called with each new record.
+     * @return An int with the number of new records.
+     * @throws HttpStatusException will be thrown if a non-200 status is returned.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int poll(String MacAddress, Consumer<DataRecord> RecordConsumer) throws HttpStatusException, IOException, InterruptedException {
+        Long watermark = this.watermarks.get(MacAddress);
+        int limit = watermark == null ? this.initialLimit : this.getLimit(MacAddress, watermark);
+        long after = watermark == null ? Long.MIN_VALUE : watermark;
+
+        // Collect the new records by time, which also drops duplicates on page boundaries.
+        TreeMap<Long, DataRecord> found = new TreeMap<>();
+        String endDate = "";
+        for (int page = 0; page < this.maxCatchUpPages; page++) {
+            DataRecord[] records = this.client.queryDeviceData(MacAddress, limit, endDate);
+            long oldest = Long.MAX_VALUE;
+            for (DataRecord rec : records) {
+                long time = rec.getDateutcMillis();
+                oldest = Math.min(oldest, time);
+                if (time > after) {
+                    found.putIfAbsent(time, rec);
+                }
+            }
+            this.learnInterval(MacAddress, records);
+
+            // Stop at a short page, the watermark, or the first poll of a device.
+            if (records.length < limit || oldest <= after || watermark == null) {
+                break;
+            }
+            endDate = String.valueOf(oldest);
+            limit = maxLimit;
+        }
+
+        for (DataRecord rec : found.values()) {
+            RecordConsumer.accept(rec);
+        }
+        if (!found.isEmpty()) {
+            this.watermarks.put(MacAddress, found.lastKey());
+            this.save();
+        }
+        return found.size();
+    }
+
+    /**
+     * Gets the client the poller polls with.
+     * @return The AmbientWeather client.
+     */
+    AmbientWeather getClient() {
+        return this.client;
+    }
+
+    /**
+     * Gets the newest dateutc seen for the device.
+     * @param MacAddress is a String with the device MAC address.
+     * @return A long with the watermark in epoch millis or -1 if the device hasn't been polled.
+     */
+    public long getWatermark(String MacAddress) {
+        return this.watermarks.getOrDefault(MacAddress, -1L);
+    }
+
+    /**
+     * Sets the watermark of the device, for example to skip old records or to
+     * poll them again.
+     * @param MacAddress is a String with the device MAC address.
+     * @param EpochMillis is a long with the watermark in epoch millis.
+     * @throws IOException
+     */
+    public void setWatermark(String MacAddress, long EpochMillis) throws IOException {
+        this.watermarks.put(MacAddress, EpochMillis);
+        this.save();
+    }
+
+    /**
+     * Gets the reporting interval seen for the device.
+     * @param MacAddress is a String with the device MAC address.
+     * @return A long with the interval in milliseconds or -1 if it hasn't been seen yet.
+     */
+    public long getIntervalMillis(String MacAddress) {
+        return this.intervals.getOrDefault(MacAddress, -1L);
+    }
+
+    /**
+     * Works out the smallest limit that returns every record reported since the
+     * watermark, plus one so the watermark record itself shows there's no gap.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Watermark is a long with the device's watermark.
+     * @return An int with the limit.
+     */
+    int getLimit(String MacAddress, long Watermark) {
+        long interval = this.intervals.getOrDefault(MacAddress, defaultIntervalMillis);
+        long elapsed = Math.max(0, this.clock.millis() - Watermark);
+        long limit = (elapsed + interval - 1) / interval + 1;
+        return (int) Math.max(1, Math.min(maxLimit, limit));
+    }
+
+    /**
+     * Keeps the smallest spacing between the records as the device's interval.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Records is an array of the device's records.
+     */
+    private void learnInterval(String MacAddress, DataRecord[] Records) {
+        long interval = Long.MAX_VALUE;
+        for (int i = 1; i < Records.length; i++) {
+            long diff = Math.abs(Records[i - 1].getDateutcMillis() - Records[i].getDateutcMillis());
+            if (diff > 0) {
+                interval = Math.min(interval, diff);
+            }
+        }
+        if (interval != Long.MAX_VALUE) {
+            this.intervals.put(MacAddress, interval);
+        }
+    }
+
+    /**
+     * Writes the watermarks to a temp file and moves it over the watermark
+     * file, so a crash never leaves a half written file behind.
+     * @throws IOException
+     */
+    private synchronized void save() throws IOException {
+        if (this.watermarkFile == null) {
+            return;
+        }
+
+        Properties props = new Properties();
+        this.watermarks.forEach((mac, time) -> props.setProperty(mac, String.valueOf(time)));
+        this.intervals.forEach((mac, interval) -> props.setProperty(mac + intervalSuffix, String.valueOf(interval)));
+        Path dir = this.watermarkFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, this.watermarkFile.getFileName().toString(), ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            props.store(out, "IncrementalPoller watermarks");
+        }
+        Files.move(tmp, this.watermarkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
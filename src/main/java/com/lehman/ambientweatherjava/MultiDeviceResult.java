@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * MultiDeviceResult holds the result of querying several devices at once.
+ * Devices that were queried successfully are in records and devices that
+ * failed are in failures with the exception they failed with, so one bad
+ * station doesn't fail the whole batch.
+ */
+public class MultiDeviceResult {
+    /**
+     * Map of MAC address to the records returned for the device.
+     */
+    private Map<String, DataRecord[]> records;
+
+    /**
+     * Map of MAC address to the exception the device query failed with.
+     */
+    private Map<String, Throwable> failures;
+
+    /**
+     * Constructor takes the records and failures maps.
+     * @param Records is a Map of MAC address to DataRecord arrays.
+     * @param Failures is a Map of MAC address to Throwable.
+     */
+    public MultiDeviceResult(Map<String, DataRecord[]> Records, Map<String, Throwable> Failures) {
+        this.records = Collections.unmodifiableMap(Records);
+        this.failures = Collections.unmodifiableMap(Failures);
+    }
+
+    public Map<String, DataRecord[]> getRecords() {
+        return records;
+    }
+
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Checks if any of the device queries failed.
+     * @return A boolean with true if there were failures.
+     */
+    public boolean hasFailures() {
+        return !this.failures.isEmpty();
+    }
+}
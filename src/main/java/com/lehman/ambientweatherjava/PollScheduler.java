@@ -0,0 +1,420 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * PollScheduler polls a fleet of devices with an IncrementalPoller, timing each
+ * poll to just after the device's next report is expected instead of polling
+ * every device on a fixed interval. A device's reporting interval is learned by
+ * the poller from the spacing of its records, and the next report is expected one
+ * interval after the newest record seen, plus a short delay for the upload.
+ *
+ * Polls are spread over the request budget. Each poll takes a time slot that's one
+ * request wide at the budget's rate, and if the slot a device wants is taken it
+ * moves to the next free one, so devices that report at the same moment don't all
+ * hit the rate limiter at once. A device that has nothing new is polled again
+ * after one interval, then two, four and so on up to maxBackoff, so stations
+ * that have gone offline stop using the budget.
+ */
+public class PollScheduler implements AutoCloseable {
+    /**
+     * The poller to poll devices with.
+     */
+    private IncrementalPoller poller;
+
+    /**
+     * The Consumer new records are passed to.
+     */
+    private Consumer<DataRecord> recordConsumer;
+
+    /**
+     * Called with the MAC address and exception when a poll fails.
+     */
+    private BiConsumer<String, Throwable> errorHandler = (mac, error) -> { };
+
+    /**
+     * How long after the expected report a device is polled.
+     */
+    private long pollDelayMillis = 15000;
+
+    /**
+     * The longest wait between polls of a device that has stopped reporting.
+     */
+    private long maxBackoffMillis = 3600000;
+
+    /**
+     * The width of one poll slot in milliseconds.
+     */
+    private long slotMillis;
+
+    /**
+     * The clock used to plan polls.
+     */
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * The slots taken by planned polls, as slot numbers since the epoch.
+     */
+    private TreeSet<Long> slots = new TreeSet<>();
+
+    /**
+     * The state of each scheduled device by MAC address.
+     */
+    private Map<String, DeviceState> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the timers that start polls.
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Runs the polls, which block while they wait on the rate limiter and the response.
+     */
+    private Executor pollExecutor;
+
+    /**
+     * Whether the poll executor was created here and needs to be shut down on close.
+     */
+    private boolean ownsPollExecutor = false;
+
+    /**
+     * Whether close was called.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor takes the poller and the Consumer to pass new records to. The
+     * budget is taken from the client's rate limiter, or 1 request per second if
+     * rate limiting is off.
+     * @param Poller is the IncrementalPoller to poll devices with.
+     * @param RecordConsumer is a Consumer that's called with each new record.
+     */
+    public PollScheduler(IncrementalPoller Poller, Consumer<DataRecord> RecordConsumer) {
+        this.poller = Poller;
+        this.recordConsumer = RecordConsumer;
+        RateLimiter limiter = Poller.getClient().getRateLimiter();
+        this.slotMillis = toSlotMillis(limiter != null ? limiter.getPermitsPerSecond() : RateLimiter.DEFAULT_PERMITS_PER_SECOND);
+        this.pollExecutor = Poller.getClient().getExecutor();
+        if (this.pollExecutor == null) {
+            this.pollExecutor = Executors.newVirtualThreadPerTaskExecutor();
+            this.ownsPollExecutor = true;
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PollScheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Sets the number of polls per second to spread the polls over. Set it below
+     * the rate limit to leave room for other requests with the same keys.
+     * @param PollsPerSecond is a double with the polls per second.
+     * @return This scheduler.
+     */
+    public PollScheduler budget(double PollsPerSecond) {
+        this.slotMillis = toSlotMillis(PollsPerSecond);
+        return this;
+    }
+
+    /**
+     * Gets the length of a slot for the number of polls per second.
+     */
+    private static long toSlotMillis(double PollsPerSecond) {
+        return Math.max(1, (long) Math.ceil(1000.0 / PollsPerSecond));
+    }
+
+    /**
+     * Sets how long after a device's expected report it's polled, to give the
+     * station time to upload. Defaults to 15 seconds.
+     * @param Delay is a Duration with the poll delay.
+     * @return This scheduler.
+     */
+    public PollScheduler pollDelay(Duration Delay) {
+        this.pollDelayMillis = Delay.toMillis();
+        return this;
+    }
+
+    /**
+     * Sets the longest wait between polls of a device that has stopped reporting.
+     * Defaults to 1 hour.
+     * @param MaxBackoff is a Duration with the max backoff.
+     * @return This scheduler.
+     */
+    public PollScheduler maxBackoff(Duration MaxBackoff) {
+        this.maxBackoffMillis = MaxBackoff.toMillis();
+        return this;
+    }
+
+    /**
+     * Sets the handler called when a poll fails. The device is backed off like
+     * one that had nothing new.
+     * @param Handler is a BiConsumer that's called with the MAC address and exception.
+     * @return This scheduler.
+     */
+    public PollScheduler onError(BiConsumer<String, Throwable> Handler) {
+        this.errorHandler = Handler;
+        return this;
+    }
+
+    /**
+     * Sets the clock used to plan polls. Mostly useful for tests.
+     * @param Clock is the Clock to use.
+     * @return This scheduler.
+     */
+    public PollScheduler clock(Clock Clock) {
+        this.clock = Clock;
+        return this;
+    }
+
+    /**
+     * Adds a device and plans its first poll, right away unless the poller has
+     * already seen a newer report than the expected interval.
+     * @param MacAddress is a String with the device MAC address.
+     */
+    public void addDevice(String MacAddress) {
+        this.addDevice(MacAddress, this.poller.getWatermark(MacAddress));
+    }
+
+    /**
+     * Adds a device from listUsersDevices. The time of its last data is used to
+     * plan the first poll if it's newer than the poller's watermark.
+     * @param Dev is the Device to add.
+     */
+    public void addDevice(Device Dev) {
+        long last = this.poller.getWatermark(Dev.getMacAddress());
+        if (Dev.getLastData() != null) {
+            last = Math.max(last, Dev.getLastData().getDateutcMillis());
+        }
+        this.addDevice(Dev.getMacAddress(), last);
+    }
+
+    /**
+     * Adds the devices from listUsersDevices.
+     * @param Devices is an array of Device objects.
+     */
+    public void addDevices(Device[] Devices) {
+        for (Device dev : Devices) {
+            this.addDevice(dev);
+        }
+    }
+
+    /**
+     * Stops polling a device. A poll that's already running finishes.
+     * @param MacAddress is a String with the device MAC address.
+     */
+    public void removeDevice(String MacAddress) {
+        DeviceState state = this.devices.remove(MacAddress);
+        if (state != null) {
+            this.cancel(state);
+        }
+    }
+
+    /**
+     * Gets when the device's next poll is planned.
+     * @param MacAddress is a String with the device MAC address.
+     * @return A long with the time in epoch millis or -1 if the device isn't scheduled.
+     */
+    public long getNextPollMillis(String MacAddress) {
+        DeviceState state = this.devices.get(MacAddress);
+        return state == null ? -1 : state.nextPollAt;
+    }
+
+    /**
+     * Stops all polling. Polls that are already running finish.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.timer.shutdownNow();
+        if (this.ownsPollExecutor) {
+            ((ExecutorService) this.pollExecutor).shutdown();
+        }
+    }
+
+    private void addDevice(String MacAddress, long LastReport) {
+        DeviceState state = new DeviceState(MacAddress);
+        state.lastReport = LastReport;
+        DeviceState previous = this.devices.put(MacAddress, state);
+        // Adding a device again replans it, so drop the old timer and slot.
+        if (previous != null) {
+            this.cancel(previous);
+        }
+        long now = this.clock.millis();
+        this.schedule(state, LastReport < 0 ? now : this.expectedPoll(state, now), now);
+    }
+
+    /**
+     * Polls the device, passes on the new records and plans the next poll.
+     * @param State is the DeviceState of the device.
+     */
+    private void poll(DeviceState State) {
+        boolean found = false;
+        try {
+            found = this.poller.poll(State.macAddress, this.recordConsumer) > 0;
+        } catch (Exception e) {
+            this.errorHandler.accept(State.macAddress, e);
+        }
+
+        if (this.closed || this.devices.get(State.macAddress) != State) {
+            return;
+        }
+        long now = this.clock.millis();
+        this.schedule(State, this.planNext(State, found, now), now);
+    }
+
+    /**
+     * Works out when to poll the device next after a poll.
+     * @param State is the DeviceState of the device.
+     * @param Found is a boolean with true if the poll found new records.
+     * @param Now is a long with the current time in epoch millis.
+     * @return A long with the time to poll at in epoch millis.
+     */
+    long planNext(DeviceState State, boolean Found, long Now) {
+        if (Found) {
+            State.misses = 0;
+            State.lastReport = this.poller.getWatermark(State.macAddress);
+            long expected = this.expectedPoll(State, Now);
+            // Already overdue means the station reports faster than it looked, wait one interval.
+            return expected > Now ? expected : Now + this.getInterval(State);
+        }
+
+        State.misses++;
+        long backoff = this.getInterval(State) << Math.min(State.misses - 1, 20);
+        return Now + Math.min(backoff, this.maxBackoffMillis);
+    }
+
+    /**
+     * Gets the time just after the device's next expected report.
+     */
+    private long expectedPoll(DeviceState State, long Now) {
+        return Math.max(Now, State.lastReport + this.getInterval(State) + this.pollDelayMillis);
+    }
+
+    private long getInterval(DeviceState State) {
+        long interval = this.poller.getIntervalMillis(State.macAddress);
+        return interval > 0 ? interval : IncrementalPoller.defaultIntervalMillis;
+    }
+
+    /**
+     * Takes the first free slot at or after the time and starts a timer for it.
+     * @param State is the DeviceState of the device.
+     * @param At is a long with the wanted poll time in epoch millis.
+     * @param Now is a long with the current time in epoch millis.
+     */
+    private void schedule(DeviceState State, long At, long Now) {
+        if (this.closed) {
+            return;
+        }
+        long when = this.takeSlot(State, At, Now);
+        State.nextPollAt = when;
+        State.timer = this.timer.schedule(() -> this.pollExecutor.execute(() -> this.poll(State)), Math.max(0, when - Now), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the device's timer and frees the slot it reserved.
+     * @param State is the DeviceState of the device.
+     */
+    private void cancel(DeviceState State) {
+        if (State.timer != null) {
+            State.timer.cancel(false);
+        }
+        synchronized (this) {
+            if (State.slot >= 0) {
+                this.slots.remove(State.slot);
+                State.slot = -1;
+            }
+        }
+    }
+
+    /**
+     * Takes the first free slot at or after the time for the device and
+     * remembers it so it can be freed if the device is removed.
+     */
+    private synchronized long takeSlot(DeviceState State, long At, long Now) {
+        long when = this.takeSlot(At, Now);
+        State.slot = when / this.slotMillis;
+        return when;
+    }
+
+    /**
+     * Takes the first free slot at or after the time.
+     * @param At is a long with the wanted time in epoch millis.
+     * @param Now is a long with the current time in epoch millis.
+     * @return A long with the start of the slot taken in epoch millis.
+     */
+    synchronized long takeSlot(long At, long Now) {
+        // Slots in the past are free again.
+        this.slots.headSet(Now / this.slotMillis).clear();
+
+        long slot = Math.max(At, Now) / this.slotMillis;
+        while (this.slots.contains(slot)) {
+            slot++;
+        }
+        this.slots.add(slot);
+        return Math.max(slot * this.slotMillis, At);
+    }
+
+    /**
+     * DeviceState is the scheduling state of one device.
+     */
+    static class DeviceState {
+        private String macAddress;
+
+        /**
+         * The time of the newest report seen in epoch millis or -1.
+         */
+        private long lastReport = -1;
+
+        /**
+         * The number of polls in a row that found nothing new.
+         */
+        private int misses = 0;
+
+        /**
+         * When the next poll is planned in epoch millis.
+         */
+        private volatile long nextPollAt;
+
+        /**
+         * The timer of the next poll.
+         */
+        private ScheduledFuture<?> timer;
+
+        /**
+         * The slot number the next poll reserved or -1.
+         */
+        private long slot = -1;
+
+        DeviceState(String MacAddress) {
+            this.macAddress = MacAddress;
+        }
+    }
+}
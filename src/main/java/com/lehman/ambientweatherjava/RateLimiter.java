@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter used to keep requests under the Ambient Weather
+ * per-key rate limit. Permits are added at a fixed rate up to the burst size.
+ * When the bucket is empty the caller reserves the next permit and either waits
+ * for it with acquire() or gets a future that completes when it's available
+ * with acquireAsync(). Reserving up front means waiting callers are served in
+ * the order they asked and never spin.
+ */
+public class RateLimiter {
+    /**
+     * Ambient Weather allows 1 request per second per API key.
+     */
+    public static final double DEFAULT_PERMITS_PER_SECOND = 1.0;
+
+    /**
+     * Limiters shared by all clients using the same application and API keys.
+     */
+    private static final ConcurrentHashMap<String, RateLimiter> sharedLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * The number of nanoseconds between permits.
+     */
+    private double intervalNanos;
+
+    /**
+     * The max number of permits that can be stored in the bucket.
+     */
+    private double maxPermits;
+
+    /**
+     * The number of permits currently in the bucket.
+     */
+    private double storedPermits;
+
+    /**
+     * The System.nanoTime() when the next permit is free. If this is in
+     * the future then permits have been reserved ahead of time.
+     */
+    private long nextFreeNanos;
+
+    /**
+     * Constructor takes the rate and burst size. The bucket starts full.
+     * @param PermitsPerSecond is a double with the number of permits added per second.
+     * @param Burst is an int with the max number of permits that can be used back to back.
+     */
+    public RateLimiter(double PermitsPerSecond, int Burst) {
+        if (PermitsPerSecond <= 0 || Burst < 1) {
+            throw new IllegalArgumentException("PermitsPerSecond must be positive and Burst must be at least 1.");
+        }
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / PermitsPerSecond;
+        this.maxPermits = Burst;
+        this.storedPermits = Burst;
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the limiter shared by all clients with the provided application and
+     * API keys, creating it with the provided rate and burst if it doesn't exist yet.
+     * If it already exists the existing limiter is returned unchanged.
+     * @param ApplicationKey is a String with the application key.
+     * @param APIKey is a String with the API key.
+     * @param PermitsPerSecond is a double with the number of permits added per second.
+     * @param Burst is an int with the max number of permits that can be used back to back.
+     * @return The shared RateLimiter object.
+     */
+    public static RateLimiter forKeys(String ApplicationKey, String APIKey, double PermitsPerSecond, int Burst) {
+        return sharedLimiters.computeIfAbsent(ApplicationKey + ":" + APIKey, key -> new RateLimiter(PermitsPerSecond, Burst));
+    }
+
+    /**
+     * Takes a permit, blocking until one is available.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = this.reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a permit without blocking. The returned future completes when
+     * the permit is available.
+     * @return A CompletableFuture that completes when the permit is available.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        long waitNanos = this.reserve();
+        if (waitNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Takes a permit only if one is available right now.
+     * @return A boolean with true if a permit was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        this.resync(now);
+        if (this.storedPermits < 1.0) {
+            return false;
+        }
+        this.reserve();
+        return true;
+    }
+
+    /**
+     * Gets the number of permits added per second.
+     * @return A double with the permits per second.
+     */
+    public double getPermitsPerSecond() {
+        return TimeUnit.SECONDS.toNanos(1) / this.intervalNanos;
+    }
+
+    /**
+     * Reserves the next permit. Stored permits are used first, otherwise the
+     * permit is taken from the future and the caller waits for it.
+     * @return A long with the number of nanoseconds until the permit is available.
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        this.resync(now);
+
+        double fromStored = Math.min(1.0, this.storedPermits);
+        double fresh = 1.0 - fromStored;
+        this.storedPermits -= fromStored;
+        this.nextFreeNanos += (long) (fresh * this.intervalNanos);
+        return Math.max(0, this.nextFreeNanos - now);
+    }
+
+    /**
+     * Adds the permits earned since the last call to the bucket.
+     * @param Now is a long with the current System.nanoTime().
+     */
+    private void resync(long Now) {
+        if (Now - this.nextFreeNanos > 0) {
+            this.storedPermits = Math.min(this.maxPermits, this.storedPermits + (Now - this.nextFreeNanos) / this.intervalNanos);
+            this.nextFreeNanos = Now;
+        }
+    }
+}
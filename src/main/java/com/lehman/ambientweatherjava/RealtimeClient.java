@@ -0,0 +1,496 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RealtimeClient subscribes to the Ambient Weather realtime API, which pushes
+ * new data as stations report instead of it having to be polled with
+ * queryDeviceData. The realtime API is a Socket.IO server, this client speaks
+ * the Engine.IO 4 WebSocket transport over java.net.http.WebSocket so no extra
+ * dependencies are needed.
+ *
+ * Events are delivered to RealtimeListener objects and to Flow subscribers as
+ * Device objects with the new record in lastData. Flow subscribers each have a
+ * bounded buffer. If a subscriber falls behind, new data for it is dropped rather
+ * than blocking the connection, see getDroppedCount. When the connection drops the
+ * client reconnects and subscribes again with the delays of its RetryPolicy.
+ * A connection that stops receiving the server's Engine.IO pings is treated as
+ * dropped too.
+ */
+public class RealtimeClient implements Flow.Publisher<Device>, AutoCloseable {
+    /**
+     * The default URL of the realtime API.
+     */
+    public static final String DEFAULT_URL = "wss://rt2.ambientweather.net/";
+
+    /**
+     * The URL of the realtime API. It must end with a '/'.
+     */
+    private String url = DEFAULT_URL;
+
+    /**
+     * Stores the application key.
+     */
+    private String applicationKey;
+
+    /**
+     * The API keys of the users to subscribe to.
+     */
+    private List<String> apiKeys;
+
+    /**
+     * The HttpClient used to open the WebSocket.
+     */
+    private HttpClient client;
+
+    /**
+     * Gives the delays between reconnects. Only the delays are used, the client
+     * keeps reconnecting until it's closed.
+     */
+    private RetryPolicy reconnectPolicy = new RetryPolicy().baseDelay(Duration.ofSeconds(1)).maxDelay(Duration.ofMinutes(1));
+
+    /**
+     * Reader for the devices in the subscribed event.
+     */
+    private ObjectReader deviceReader;
+
+    /**
+     * Reader for the record in a data event.
+     */
+    private ObjectReader recordReader;
+
+    /**
+     * Reader for the device info in a data event.
+     */
+    private ObjectReader infoReader;
+
+    /**
+     * The listeners to call with events.
+     */
+    private List<RealtimeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Publishes data events to Flow subscribers.
+     */
+    private SubmissionPublisher<Device> publisher = new SubmissionPublisher<>();
+
+    /**
+     * The number of data events dropped because a subscriber's buffer was full.
+     */
+    private AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The number of times the client has reconnected.
+     */
+    private AtomicLong reconnects = new AtomicLong();
+
+    /**
+     * The open WebSocket or null.
+     */
+    private volatile WebSocket socket;
+
+    /**
+     * The time in epoch millis the last packet was received.
+     */
+    private volatile long lastPacketAt;
+
+    /**
+     * How long the connection can go without a packet before it's treated as
+     * dead, from the ping interval and timeout the server sends when it opens.
+     */
+    private volatile long pingDeadlineMillis;
+
+    /**
+     * The number of connection attempts since the last successful subscribe.
+     */
+    private int attempt = 0;
+
+    /**
+     * Whether connect was called.
+     */
+    private volatile boolean started = false;
+
+    /**
+     * The future returned by the first connect call.
+     */
+    private CompletableFuture<Void> connected;
+
+    /**
+     * Whether close was called.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor takes the application key and the API keys to subscribe to.
+     * @param ApplicationKey is a String with the application key.
+     * @param APIKeys is a List of API key Strings.
+     */
+    public RealtimeClient(String ApplicationKey, List<String> APIKeys) {
+        this(ApplicationKey, APIKeys, new ObjectMapper());
+    }
+
+    /**
+     * Constructor takes the application key, the API keys to subscribe to and
+     * the ObjectMapper to parse events with.
+     * @param ApplicationKey is a String with the application key.
+     * @param APIKeys is a List of API key Strings.
+     * @param Mapper is the ObjectMapper to parse events with.
+     */
+    public RealtimeClient(String ApplicationKey, List<String> APIKeys, ObjectMapper Mapper) {
+        this.applicationKey = ApplicationKey;
+        this.apiKeys = new ArrayList<>(APIKeys);
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20)).build();
+
+        // The realtime events carry extra fields such as macAddress and device.
+        this.deviceReader = Mapper.readerFor(Device[].class).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.recordReader = Mapper.readerFor(DeviceDataRecord.class).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.infoReader = Mapper.readerFor(DeviceInfo.class).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    /**
+     * Sets the URL of the realtime API. This is mostly useful for pointing the
+     * client at a local server. The URL must end with a '/'.
+     * @param Url is a String with the ws:// or wss:// URL.
+     * @return This client.
+     */
+    public RealtimeClient url(String Url) {
+        this.url = Url;
+        return this;
+    }
+
+    /**
+     * Sets the RetryPolicy that gives the delays between reconnects.
+     * @param Policy is the RetryPolicy to use.
+     * @return This client.
+     */
+    public RealtimeClient reconnectPolicy(RetryPolicy Policy) {
+        this.reconnectPolicy = Policy;
+        return this;
+    }
+
+    /**
+     * Adds a listener to call with events.
+     * @param Listener is the RealtimeListener to add.
+     * @return This client.
+     */
+    public RealtimeClient addListener(RealtimeListener Listener) {
+        this.listeners.add(Listener);
+        return this;
+    }
+
+    /**
+     * Removes a listener.
+     * @param Listener is the RealtimeListener to remove.
+     */
+    public void removeListener(RealtimeListener Listener) {
+        this.listeners.remove(Listener);
+    }
+
+    /**
+     * Subscribes to data events. Each subscriber gets its own buffer and only
+     * receives as many events as it has requested.
+     * @param Subscriber is the Flow.Subscriber to add.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Device> Subscriber) {
+        this.publisher.subscribe(Subscriber);
+    }
+
+    /**
+     * Opens the connection and subscribes. The client keeps reconnecting until
+     * it's closed, so the returned future only reports the first attempt.
+     * Calling it again doesn't open another connection, it returns the same future.
+     * @return A CompletableFuture that completes when the WebSocket is open.
+     */
+    public synchronized CompletableFuture<Void> connect() {
+        if (this.closed) {
+            throw new IllegalStateException("The realtime client is closed.");
+        }
+        if (this.started) {
+            return this.connected;
+        }
+        this.started = true;
+        this.connected = this.open().thenApply(ws -> null);
+        return this.connected;
+    }
+
+    /**
+     * Closes the connection and completes the Flow subscribers.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        WebSocket ws = this.socket;
+        if (ws != null) {
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "");
+        }
+        this.publisher.close();
+    }
+
+    public boolean isConnected() {
+        WebSocket ws = this.socket;
+        return ws != null && !ws.isOutputClosed() && !ws.isInputClosed();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    public long getReconnectCount() {
+        return this.reconnects.get();
+    }
+
+    /**
+     * Opens the WebSocket.
+     * @return A CompletableFuture with the WebSocket.
+     */
+    private CompletableFuture<WebSocket> open() {
+        URI uri = URI.create(this.url + "socket.io/?EIO=4&transport=websocket&api=1&applicationKey=" + this.applicationKey);
+        CompletableFuture<WebSocket> opened = this.client.newWebSocketBuilder().buildAsync(uri, new SocketListener());
+        opened.whenComplete((ws, error) -> {
+            if (error != null) {
+                this.disconnected(null, error);
+            }
+        });
+        return opened;
+    }
+
+    /**
+     * Called when the connection fails or closes. Schedules a reconnect unless
+     * the client is closed.
+     * @param WS is the WebSocket that closed or null if it never opened.
+     * @param Error is the Throwable the connection failed with or null.
+     */
+    private synchronized void disconnected(WebSocket WS, Throwable Error) {
+        if (WS != null && WS != this.socket) {
+            // Already handled.
+            return;
+        }
+        this.socket = null;
+        for (RealtimeListener listener : this.listeners) {
+            listener.onDisconnected(Error);
+        }
+        if (this.closed || !this.started) {
+            return;
+        }
+
+        this.attempt++;
+        long delay = this.reconnectPolicy.getDelayMillis(this.attempt, -1);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            if (!this.closed) {
+                this.reconnects.incrementAndGet();
+                this.open();
+            }
+        });
+    }
+
+    /**
+     * Checks that packets keep arriving on the WebSocket. The server pings every
+     * ping interval, so if nothing arrives within the interval plus the timeout
+     * the connection is dead even if the socket hasn't noticed yet.
+     * @param WS is the WebSocket to watch.
+     */
+    private void watchPings(WebSocket WS) {
+        long remaining = this.lastPacketAt + this.pingDeadlineMillis - System.currentTimeMillis();
+        CompletableFuture.delayedExecutor(Math.max(remaining, 1), TimeUnit.MILLISECONDS).execute(() -> {
+            if (WS != this.socket || this.closed) {
+                return;
+            }
+            if (System.currentTimeMillis() - this.lastPacketAt > this.pingDeadlineMillis) {
+                WS.abort();
+                this.disconnected(WS, new IOException("Realtime API stopped sending pings."));
+            } else {
+                this.watchPings(WS);
+            }
+        });
+    }
+
+    /**
+     * Handles one Engine.IO packet.
+     * @param WS is the WebSocket the packet came from.
+     * @param Packet is a String with the packet.
+     * @throws IOException
+     */
+    private void handlePacket(WebSocket WS, String Packet) throws IOException {
+        this.lastPacketAt = System.currentTimeMillis();
+        if (Packet.isEmpty()) {
+            return;
+        }
+
+        switch (Packet.charAt(0)) {
+            case '0':
+                // Engine.IO open, connect to the default Socket.IO namespace.
+                JsonNode open = this.deviceReader.readTree(Packet.substring(1));
+                this.pingDeadlineMillis = open.path("pingInterval").asLong(25000) + open.path("pingTimeout").asLong(20000);
+                this.watchPings(WS);
+                WS.sendText("40", true);
+                break;
+            case '1':
+                // Engine.IO close.
+                WS.abort();
+                this.disconnected(WS, null);
+                break;
+            case '2':
+                // Engine.IO ping.
+                WS.sendText("3", true);
+                break;
+            case '4':
+                this.handleMessage(WS, Packet.substring(1));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Handles one Socket.IO packet.
+     * @param WS is the WebSocket the packet came from.
+     * @param Packet is a String with the packet without the Engine.IO type.
+     * @throws IOException
+     */
+    private void handleMessage(WebSocket WS, String Packet) throws IOException {
+        if (Packet.startsWith("0")) {
+            // Connected to the namespace, subscribe.
+            ObjectNode keys = JsonNodeFactory.instance.objectNode();
+            ArrayNode apiKeys = keys.putArray("apiKeys");
+            this.apiKeys.forEach(apiKeys::add);
+            ArrayNode event = JsonNodeFactory.instance.arrayNode().add("subscribe").add(keys);
+            WS.sendText("42" + event, true);
+        } else if (Packet.startsWith("1") || Packet.startsWith("4")) {
+            // Disconnected from the namespace or refused.
+            WS.abort();
+            this.disconnected(WS, Packet.startsWith("4") ? new IOException("Realtime API refused the connection: " + Packet.substring(1)) : null);
+        } else if (Packet.startsWith("2")) {
+            JsonNode event = this.deviceReader.readTree(Packet.substring(1));
+            String name = event.path(0).asText();
+            JsonNode payload = event.path(1);
+            if (name.equals("subscribed")) {
+                this.subscribed(payload);
+            } else if (name.equals("data")) {
+                this.data(payload);
+            }
+        }
+    }
+
+    /**
+     * Handles the subscribed event.
+     * @param Payload is the JsonNode with the event payload.
+     * @throws IOException
+     */
+    private void subscribed(JsonNode Payload) throws IOException {
+        synchronized (this) {
+            this.attempt = 0;
+        }
+        Device[] devices = Payload.has("devices") ? this.deviceReader.readValue(Payload.get("devices")) : new Device[0];
+        for (RealtimeListener listener : this.listeners) {
+            listener.onSubscribed(devices);
+        }
+    }
+
+    /**
+     * Handles a data event.
+     * @param Payload is the JsonNode with the event payload.
+     * @throws IOException
+     */
+    private void data(JsonNode Payload) throws IOException {
+        Device device = new Device();
+        device.setMacAddress(Payload.path("macAddress").asText());
+        device.setLastData(this.recordReader.readValue(Payload));
+        if (Payload.path("device").has("info")) {
+            device.setInfo(this.infoReader.readValue(Payload.get("device").get("info")));
+        }
+
+        for (RealtimeListener listener : this.listeners) {
+            listener.onData(device);
+        }
+        this.publisher.offer(device, (subscriber, item) -> {
+            this.dropped.incrementAndGet();
+            return false;
+        });
+    }
+
+    /**
+     * SocketListener collects the WebSocket text frames into packets.
+     */
+    private class SocketListener implements WebSocket.Listener {
+        /**
+         * The text of the packet being received.
+         */
+        private StringBuilder text = new StringBuilder();
+
+        @Override
+        public void onOpen(WebSocket WS) {
+            RealtimeClient.this.socket = WS;
+            if (RealtimeClient.this.closed) {
+                WS.sendClose(WebSocket.NORMAL_CLOSURE, "");
+            }
+            WS.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket WS, CharSequence Data, boolean Last) {
+            this.text.append(Data);
+            if (Last) {
+                String packet = this.text.toString();
+                this.text.setLength(0);
+                try {
+                    RealtimeClient.this.handlePacket(WS, packet);
+                } catch (IOException | RuntimeException e) {
+                    // A bad event shouldn't drop the connection.
+                    for (RealtimeListener listener : RealtimeClient.this.listeners) {
+                        listener.onError(e);
+                    }
+                }
+            }
+            WS.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket WS, int StatusCode, String Reason) {
+            RealtimeClient.this.disconnected(WS, null);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket WS, Throwable Error) {
+            RealtimeClient.this.disconnected(WS, Error);
+        }
+    }
+}
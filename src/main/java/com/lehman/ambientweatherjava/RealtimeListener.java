@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+/**
+ * RealtimeListener is called by RealtimeClient as the realtime API pushes
+ * events. Calls are made one at a time on the WebSocket thread, so they should
+ * return quickly. Hand slow work off or subscribe to the client as a
+ * Flow.Publisher instead.
+ */
+public interface RealtimeListener {
+    /**
+     * Called with the user's devices each time the client subscribes, including
+     * after a reconnect.
+     * @param Devices is an array of Device objects.
+     */
+    default void onSubscribed(Device[] Devices) { }
+
+    /**
+     * Called when a station reports. The Device has the MAC address, the info if
+     * the server sent it and the new record in lastData.
+     * @param Data is a Device object with the new record.
+     */
+    void onData(Device Data);
+
+    /**
+     * Called when the connection drops. The client reconnects on its own unless it
+     * was closed.
+     * @param Error is the Throwable the connection failed with or null if it was closed.
+     */
+    default void onDisconnected(Throwable Error) { }
+
+    /**
+     * Called when an event can't be handled, for example if it can't be parsed.
+     * The connection stays open.
+     * @param Error is the Throwable the event failed with.
+     */
+    default void onError(Throwable Error) { }
+}
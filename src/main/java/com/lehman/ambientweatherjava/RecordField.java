@@ -0,0 +1,262 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+/**
+ * RecordField describes the numeric fields of BaseDataRecord so code that
+ * works on every field (columnar batches, storage, codecs, exports) can loop
+ * over them instead of calling each getter by hand. Each field has a type and
+ * an index within the fields of that type, which columnar code uses to pick
+ * the column array. Access goes through a switch rather than reflection so
+ * it stays cheap in tight loops.
+ */
+public enum RecordField {
+    DATEUTC("dateutc", Type.LONG, 0),
+    TEMPINF("tempinf", Type.DOUBLE, 0),
+    HUMIDITYIN("humidityin", Type.INT, 0),
+    BAROMRELIN("baromrelin", Type.DOUBLE, 1),
+    BAROMABSIN("baromabsin", Type.DOUBLE, 2),
+    TEMPF("tempf", Type.DOUBLE, 3),
+    BATTOUT("battout", Type.INT, 1),
+    HUMIDITY("humidity", Type.INT, 2),
+    WINDDIR("winddir", Type.INT, 3),
+    WINDSPEEDMPH("windspeedmph", Type.DOUBLE, 4),
+    WINDGUSTMPH("windgustmph", Type.DOUBLE, 5),
+    MAXDAILYGUST("maxdailygust", Type.DOUBLE, 6),
+    HOURLYRAININ("hourlyrainin", Type.DOUBLE, 7),
+    EVENTRAININ("eventrainin", Type.DOUBLE, 8),
+    DAILYRAININ("dailyrainin", Type.DOUBLE, 9),
+    WEEKLYRAININ("weeklyrainin", Type.DOUBLE, 10),
+    MONTHLYRAININ("monthlyrainin", Type.DOUBLE, 11),
+    TOTALRAININ("totalrainin", Type.DOUBLE, 12),
+    SOLARRADIATION("solarradiation", Type.DOUBLE, 13),
+    UV("uv", Type.INT, 4),
+    FEELSLIKE("feelsLike", Type.DOUBLE, 14),
+    DEWPOINT("dewPoint", Type.DOUBLE, 15),
+    FEELSLIKEIN("feelsLikein", Type.DOUBLE, 16),
+    DEWPOINTIN("dewPointin", Type.DOUBLE, 17);
+
+    /**
+     * The Java type a field is stored as.
+     */
+    public enum Type { LONG, DOUBLE, INT }
+
+    /**
+     * The number of DOUBLE fields.
+     */
+    public static final int DOUBLE_COUNT = 18;
+
+    /**
+     * The number of INT fields.
+     */
+    public static final int INT_COUNT = 5;
+
+    /**
+     * The DOUBLE fields in column index order.
+     */
+    private static final RecordField[] doubleFields = new RecordField[DOUBLE_COUNT];
+
+    /**
+     * The INT fields in column index order.
+     */
+    private static final RecordField[] intFields = new RecordField[INT_COUNT];
+
+    static {
+        for (RecordField field : values()) {
+            if (field.type == Type.DOUBLE) doubleFields[field.column] = field;
+            else if (field.type == Type.INT) intFields[field.column] = field;
+        }
+    }
+
+    /**
+     * The JSON property name of the field.
+     */
+    private String jsonName;
+
+    /**
+     * The type the field is stored as.
+     */
+    private Type type;
+
+    /**
+     * The index of the field among the fields of the same type.
+     */
+    private int column;
+
+    RecordField(String JsonName, Type FieldType, int Column) {
+        this.jsonName = JsonName;
+        this.type = FieldType;
+        this.column = Column;
+    }
+
+    public String getJsonName() {
+        return jsonName;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Gets the DOUBLE fields in column index order.
+     * @return An array of RecordField.
+     */
+    public static RecordField[] doubleFields() {
+        return doubleFields.clone();
+    }
+
+    /**
+     * Gets the INT fields in column index order.
+     * @return An array of RecordField.
+     */
+    public static RecordField[] intFields() {
+        return intFields.clone();
+    }
+
+    /**
+     * Gets the value of any field from the record as a double, for code that
+     * aggregates fields of different types the same way.
+     * @param Rec is the BaseDataRecord to read from.
+     * @return A double with the value.
+     */
+    public double getAsDouble(BaseDataRecord Rec) {
+        switch (this.type) {
+            case DOUBLE: return this.getDouble(Rec);
+            case INT: return this.getInt(Rec);
+            default: return this.getLong(Rec);
+        }
+    }
+
+    /**
+     * Gets the value of a LONG field from the record.
+     * @param Rec is the BaseDataRecord to read from.
+     * @return A long with the value.
+     */
+    public long getLong(BaseDataRecord Rec) {
+        if (this == DATEUTC) {
+            return Rec.getDateutcMillis();
+        }
+        throw new IllegalStateException(this + " isn't a LONG field.");
+    }
+
+    /**
+     * Sets the value of a LONG field on the record.
+     * @param Rec is the BaseDataRecord to update.
+     * @param Value is a long with the value.
+     */
+    public void setLong(BaseDataRecord Rec, long Value) {
+        if (this == DATEUTC) {
+            Rec.setDateutcMillis(Value);
+            return;
+        }
+        throw new IllegalStateException(this + " isn't a LONG field.");
+    }
+
+    /**
+     * Gets the value of a DOUBLE field from the record.
+     * @param Rec is the BaseDataRecord to read from.
+     * @return A double with the value.
+     */
+    public double getDouble(BaseDataRecord Rec) {
+        switch (this) {
+            case TEMPINF: return Rec.getTempinf();
+            case BAROMRELIN: return Rec.getBaromrelin();
+            case BAROMABSIN: return Rec.getBaromabsin();
+            case TEMPF: return Rec.getTempf();
+            case WINDSPEEDMPH: return Rec.getWindspeedmph();
+            case WINDGUSTMPH: return Rec.getWindgustmph();
+            case MAXDAILYGUST: return Rec.getMaxdailygust();
+            case HOURLYRAININ: return Rec.getHourlyrainin();
+            case EVENTRAININ: return Rec.getEventrainin();
+            case DAILYRAININ: return Rec.getDailyrainin();
+            case WEEKLYRAININ: return Rec.getWeeklyrainin();
+            case MONTHLYRAININ: return Rec.getMonthlyrainin();
+            case TOTALRAININ: return Rec.getTotalrainin();
+            case SOLARRADIATION: return Rec.getSolarradiation();
+            case FEELSLIKE: return Rec.getFeelsLike();
+            case DEWPOINT: return Rec.getDewPoint();
+            case FEELSLIKEIN: return Rec.getFeelsLikein();
+            case DEWPOINTIN: return Rec.getDewPointin();
+            default: throw new IllegalStateException(this + " isn't a DOUBLE field.");
+        }
+    }
+
+    /**
+     * Sets the value of a DOUBLE field on the record.
+     * @param Rec is the BaseDataRecord to update.
+     * @param Value is a double with the value.
+     */
+    public void setDouble(BaseDataRecord Rec, double Value) {
+        switch (this) {
+            case TEMPINF: Rec.setTempinf(Value); break;
+            case BAROMRELIN: Rec.setBaromrelin(Value); break;
+            case BAROMABSIN: Rec.setBaromabsin(Value); break;
+            case TEMPF: Rec.setTempf(Value); break;
+            case WINDSPEEDMPH: Rec.setWindspeedmph(Value); break;
+            case WINDGUSTMPH: Rec.setWindgustmph(Value); break;
+            case MAXDAILYGUST: Rec.setMaxdailygust(Value); break;
+            case HOURLYRAININ: Rec.setHourlyrainin(Value); break;
+            case EVENTRAININ: Rec.setEventrainin(Value); break;
+            case DAILYRAININ: Rec.setDailyrainin(Value); break;
+            case WEEKLYRAININ: Rec.setWeeklyrainin(Value); break;
+            case MONTHLYRAININ: Rec.setMonthlyrainin(Value); break;
+            case TOTALRAININ: Rec.setTotalrainin(Value); break;
+            case SOLARRADIATION: Rec.setSolarradiation(Value); break;
+            case FEELSLIKE: Rec.setFeelsLike(Value); break;
+            case DEWPOINT: Rec.setDewPoint(Value); break;
+            case FEELSLIKEIN: Rec.setFeelsLikein(Value); break;
+            case DEWPOINTIN: Rec.setDewPointin(Value); break;
+            default: throw new IllegalStateException(this + " isn't a DOUBLE field.");
+        }
+    }
+
+    /**
+     * Gets the value of an INT field from the record.
+     * @param Rec is the BaseDataRecord to read from.
+     * @return An int with the value.
+     */
+    public int getInt(BaseDataRecord Rec) {
+        switch (this) {
+            case HUMIDITYIN: return Rec.getHumidityin();
+            case BATTOUT: return Rec.getBattout();
+            case HUMIDITY: return Rec.getHumidity();
+            case WINDDIR: return Rec.getWinddir();
+            case UV: return Rec.getUv();
+            default: throw new IllegalStateException(this + " isn't an INT field.");
+        }
+    }
+
+    /**
+     * Sets the value of an INT field on the record.
+     * @param Rec is the BaseDataRecord to update.
+     * @param Value is an int with the value.
+     */
+    public void setInt(BaseDataRecord Rec, int Value) {
+        switch (this) {
+            case HUMIDITYIN: Rec.setHumidityin(Value); break;
+            case BATTOUT: Rec.setBattout(Value); break;
+            case HUMIDITY: Rec.setHumidity(Value); break;
+            case WINDDIR: Rec.setWinddir(Value); break;
+            case UV: Rec.setUv(Value); break;
+            default: throw new IllegalStateException(this + " isn't an INT field.");
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the BaseDataRecord fields straight from a JsonParser for the fast
+ * record deserializers. Field names are dispatched with a String switch,
+ * which compiles to a hashCode lookup table, and values are written into
+ * the primitive fields without going through bean introspection. Plain
+ * decimals like 29.92 are converted with an exact fast path instead of
+ * Double.parseDouble, which is where most of the parse time goes. Strings
+ * that repeat from record to record are interned in a small shared table.
+ */
+class RecordFieldReader {
+    /**
+     * The max number of distinct Strings kept in the intern table. Once full,
+     * new Strings are returned as is so the table can't grow without bound.
+     */
+    private static final int maxInterned = 4096;
+
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] powersOfTen = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Interned repeated String values such as loc, lastRain and tz.
+     */
+    private static final ConcurrentHashMap<String, String> interned = new ConcurrentHashMap<>();
+
+    private RecordFieldReader() { }
+
+    /**
+     * Reads the current value into the record if the field name is a BaseDataRecord
+     * field. The parser must be positioned on the value token, which must not be null.
+     * @param P is the JsonParser positioned on the value.
+     * @param Name is a String with the field name.
+     * @param Rec is the BaseDataRecord to set the value on.
+     * @return A boolean with true if the field was a BaseDataRecord field.
+     * @throws IOException
+     */
+    static boolean readBaseField(JsonParser P, String Name, BaseDataRecord Rec) throws IOException {
+        switch (Name) {
+            case "dateutc": Rec.setDateutcMillis(P.getValueAsLong()); return true;
+            case "tempinf": Rec.setTempinf(readDouble(P)); return true;
+            case "humidityin": Rec.setHumidityin(P.getValueAsInt()); return true;
+            case "baromrelin": Rec.setBaromrelin(readDouble(P)); return true;
+            case "baromabsin": Rec.setBaromabsin(readDouble(P)); return true;
+            case "tempf": Rec.setTempf(readDouble(P)); return true;
+            case "battout": Rec.setBattout(P.getValueAsInt()); return true;
+            case "humidity": Rec.setHumidity(P.getValueAsInt()); return true;
+            case "winddir": Rec.setWinddir(P.getValueAsInt()); return true;
+            case "windspeedmph": Rec.setWindspeedmph(readDouble(P)); return true;
+            case "windgustmph": Rec.setWindgustmph(readDouble(P)); return true;
+            case "maxdailygust": Rec.setMaxdailygust(readDouble(P)); return true;
+            case "hourlyrainin": Rec.setHourlyrainin(readDouble(P)); return true;
+            case "eventrainin": Rec.setEventrainin(readDouble(P)); return true;
+            case "dailyrainin": Rec.setDailyrainin(readDouble(P)); return true;
+            case "weeklyrainin": Rec.setWeeklyrainin(readDouble(P)); return true;
+            case "monthlyrainin": Rec.setMonthlyrainin(readDouble(P)); return true;
+            case "totalrainin": Rec.setTotalrainin(readDouble(P)); return true;
+            case "solarradiation": Rec.setSolarradiation(readDouble(P)); return true;
+            case "uv": Rec.setUv(P.getValueAsInt()); return true;
+            case "feelsLike": Rec.setFeelsLike(readDouble(P)); return true;
+            case "dewPoint": Rec.setDewPoint(readDouble(P)); return true;
+            case "feelsLikein": Rec.setFeelsLikein(readDouble(P)); return true;
+            case "dewPointin": Rec.setDewPointin(readDouble(P)); return true;
+            case "lastRain": Rec.setLastRain(intern(P.getValueAsString())); return true;
+            case "date": Rec.setDate(P.getValueAsString()); return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Reads the current value as a double. Floating point tokens without an
+     * exponent whose digits fit in 53 bits are converted by dividing the digits
+     * by a power of ten. Both are exact doubles so the result is correctly
+     * rounded, the same as Double.parseDouble. Anything else falls back to Jackson.
+     * @param P is the JsonParser positioned on the value.
+     * @return A double with the value.
+     * @throws IOException
+     */
+    static double readDouble(JsonParser P) throws IOException {
+        if (P.currentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+            char[] buf = P.getTextCharacters();
+            int off = P.getTextOffset();
+            int end = off + P.getTextLength();
+            boolean negative = buf[off] == '-';
+            long digits = 0;
+            int fraction = -1;
+            int i = negative ? off + 1 : off;
+            for (; i < end; i++) {
+                char c = buf[i];
+                if (c >= '0' && c <= '9') {
+                    digits = digits * 10 + (c - '0');
+                    if (digits > (1L << 53)) break;
+                    if (fraction >= 0) fraction++;
+                } else if (c == '.' && fraction < 0) {
+                    fraction = 0;
+                } else {
+                    break;
+                }
+            }
+            if (i == end && fraction >= 0 && fraction < powersOfTen.length) {
+                double val = digits / powersOfTen[fraction];
+                return negative ? -val : val;
+            }
+        }
+        return P.getValueAsDouble();
+    }
+
+    /**
+     * Gets the shared copy of the provided String.
+     * @param Val is the String to intern.
+     * @return The shared String or Val if the table is full.
+     */
+    static String intern(String Val) {
+        if (Val == null) {
+            return null;
+        }
+        String shared = interned.get(Val);
+        if (shared != null) {
+            return shared;
+        }
+        if (interned.size() >= maxInterned) {
+            return Val;
+        }
+        shared = interned.putIfAbsent(Val, Val);
+        return shared != null ? shared : Val;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+/**
+ * RecordKey is a compact 128 bit identity for a data record made of the
+ * device MAC address packed into a long and the dateutc in epoch millis.
+ * It's much cheaper to build and compare than the SHA-256 hex ID and is
+ * what the library uses for dedupe and storage. Keys sort by time and
+ * then by device.
+ */
+public final class RecordKey implements Comparable<RecordKey> {
+    /**
+     * The MAC address as a long. See macToLong.
+     */
+    private final long mac;
+
+    /**
+     * The dateutc in epoch millis.
+     */
+    private final long epochMillis;
+
+    /**
+     * Constructor takes the packed MAC address and time.
+     * @param Mac is a long with the MAC address from macToLong.
+     * @param EpochMillis is a long with the dateutc in epoch millis.
+     */
+    public RecordKey(long Mac, long EpochMillis) {
+        this.mac = Mac;
+        this.epochMillis = EpochMillis;
+    }
+
+    /**
+     * Creates a key from a MAC address String and time.
+     * @param MacAddress is a String with the device MAC address.
+     * @param EpochMillis is a long with the dateutc in epoch millis.
+     * @return A new RecordKey.
+     */
+    public static RecordKey of(String MacAddress, long EpochMillis) {
+        return new RecordKey(macToLong(MacAddress), EpochMillis);
+    }
+
+    /**
+     * Packs a MAC address String into a long. A regular MAC address has 12 hex
+     * digits which fit in the low 48 bits. Anything else is hashed with 64 bit
+     * FNV-1a and has the top bit set so it can't collide with a real MAC.
+     * @param MacAddress is a String with the device MAC address.
+     * @return A long with the packed MAC address.
+     */
+    public static long macToLong(String MacAddress) {
+        if (MacAddress == null) {
+            return 0;
+        }
+
+        long val = 0;
+        int digits = 0;
+        for (int i = 0; i < MacAddress.length(); i++) {
+            int d = Character.digit(MacAddress.charAt(i), 16);
+            if (d >= 0) {
+                val = (val << 4) | d;
+                digits++;
+            } else if (MacAddress.charAt(i) != ':' && MacAddress.charAt(i) != '-') {
+                digits = -1;
+                break;
+            }
+        }
+        if (digits == 12) {
+            return val;
+        }
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < MacAddress.length(); i++) {
+            hash ^= MacAddress.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash | Long.MIN_VALUE;
+    }
+
+    public long getMac() {
+        return mac;
+    }
+
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    @Override
+    public boolean equals(Object O) {
+        if (this == O) return true;
+        if (!(O instanceof RecordKey)) return false;
+        RecordKey other = (RecordKey) O;
+        return this.mac == other.mac && this.epochMillis == other.epochMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = this.mac * 0x9E3779B97F4A7C15L + this.epochMillis;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public int compareTo(RecordKey O) {
+        int cmp = Long.compare(this.epochMillis, O.epochMillis);
+        return cmp != 0 ? cmp : Long.compare(this.mac, O.mac);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%012x", this.mac) + "@" + this.epochMillis;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * RecordPublisher is a Flow.Publisher of data records fetched a page at a time.
+ * A page is only requested once the records of the previous page have been
+ * delivered and the subscriber still has demand, so a slow subscriber holds back
+ * the requests instead of records piling up in memory. At most one page per
+ * subscription is buffered, plus whatever the page source prefetches.
+ *
+ * The publisher is cold, each subscriber gets its own page source and so its own
+ * requests, and nothing is requested until the subscriber asks for records. Records are delivered on the thread that calls request or the thread
+ * that completes the page request, never on more than one at once.
+ */
+class RecordPublisher implements Flow.Publisher<DataRecord> {
+    /**
+     * Pages is a source of pages of records.
+     */
+    interface Pages {
+        /**
+         * Requests the next page. Only called once the previous page has arrived.
+         * @return A CompletableFuture with the page or null if there are no more pages.
+         */
+        CompletableFuture<DataRecord[]> next();
+    }
+
+    /**
+     * Creates the page source of each subscription.
+     */
+    private Supplier<Pages> pagesFactory;
+
+    /**
+     * Constructor takes the factory for the page source of each subscription.
+     * @param PagesFactory is a Supplier that creates a new Pages source.
+     */
+    RecordPublisher(Supplier<Pages> PagesFactory) {
+        this.pagesFactory = PagesFactory;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DataRecord> Subscriber) {
+        RecordSubscription subscription = new RecordSubscription(Subscriber, this.pagesFactory);
+        Subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    /**
+     * RecordSubscription delivers the records of one subscriber. All delivery happens
+     * in drain, which only ever runs on one thread at a time.
+     */
+    private static class RecordSubscription implements Flow.Subscription {
+        private Flow.Subscriber<? super DataRecord> subscriber;
+        private Supplier<Pages> pagesFactory;
+
+        /**
+         * The page source, created on the first fetch so nothing is requested
+         * before the subscriber asks for records.
+         */
+        private Pages pages;
+
+        /**
+         * The number of records requested and not yet delivered.
+         */
+        private AtomicLong demand = new AtomicLong();
+
+        /**
+         * Counts the calls to drain, only the call that moves it from 0 delivers.
+         */
+        private AtomicInteger wip = new AtomicInteger();
+
+        /**
+         * The page being delivered and the index of the next record in it. Only
+         * read and written in drain, so the wip counter orders them.
+         */
+        private DataRecord[] page = new DataRecord[0];
+        private int index = 0;
+
+        /**
+         * A page that arrived and hasn't been swapped in by drain yet.
+         */
+        private volatile DataRecord[] pendingPage;
+
+        private volatile boolean fetching = false;
+        private volatile boolean done = false;
+        private volatile Throwable error;
+        private volatile boolean cancelled = false;
+
+        RecordSubscription(Flow.Subscriber<? super DataRecord> Subscriber, Supplier<Pages> PagesFactory) {
+            this.subscriber = Subscriber;
+            this.pagesFactory = PagesFactory;
+        }
+
+        @Override
+        public void request(long N) {
+            if (N <= 0) {
+                this.error = new IllegalArgumentException("Subscription request must be positive but was " + N + ".");
+            } else {
+                this.demand.getAndAccumulate(N, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            }
+            this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        /**
+         * Delivers records while there's demand, requests the next page when the
+         * current one runs out and signals completion or errors.
+         */
+        void drain() {
+            if (this.wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            do {
+                while (!this.cancelled) {
+                    if (this.index >= this.page.length && this.pendingPage != null) {
+                        this.page = this.pendingPage;
+                        this.index = 0;
+                        this.pendingPage = null;
+                        this.fetching = false;
+                    }
+
+                    if (this.error != null) {
+                        this.cancelled = true;
+                        this.subscriber.onError(this.error);
+                    } else if (this.index < this.page.length) {
+                        if (this.demand.get() == 0) {
+                            break;
+                        }
+                        this.demand.decrementAndGet();
+                        this.subscriber.onNext(this.page[this.index++]);
+                    } else if (this.done) {
+                        this.cancelled = true;
+                        this.subscriber.onComplete();
+                    } else if (!this.fetching && this.demand.get() > 0) {
+                        this.fetch();
+                    } else {
+                        break;
+                    }
+                }
+            } while (this.wip.decrementAndGet() != 0);
+        }
+
+        /**
+         * Requests the next page and drains again when it arrives. The callback
+         * only hands the result over, drain swaps the page in.
+         */
+        private void fetch() {
+            this.fetching = true;
+            CompletableFuture<DataRecord[]> next;
+            try {
+                if (this.pages == null) {
+                    this.pages = this.pagesFactory.get();
+                }
+                next = this.pages.next();
+            } catch (RuntimeException e) {
+                next = CompletableFuture.failedFuture(e);
+            }
+
+            next.whenComplete((records, err) -> {
+                if (err != null) {
+                    this.error = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                    this.fetching = false;
+                } else if (records == null) {
+                    this.done = true;
+                    this.fetching = false;
+                } else {
+                    this.pendingPage = records;
+                }
+                this.drain();
+            });
+        }
+    }
+}
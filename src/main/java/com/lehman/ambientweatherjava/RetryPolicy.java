@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides if and when a failed request is retried. The default policy retries
+ * 429 and 5xx responses and IO errors with exponential backoff and jitter, up to
+ * a max number of attempts and a total deadline. If the server sends a Retry-After
+ * header that delay is used instead of the backoff. Only GET requests are ever
+ * retried since they're the only idempotent calls the client makes.
+ *
+ * Extend this class and override isRetryable or getDelayMillis to plug in
+ * different rules.
+ */
+public class RetryPolicy {
+    /**
+     * The max number of times a request is sent, including the first attempt.
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * The delay before the first retry.
+     */
+    private Duration baseDelay = Duration.ofMillis(500);
+
+    /**
+     * The longest delay between attempts.
+     */
+    private Duration maxDelay = Duration.ofSeconds(30);
+
+    /**
+     * The fraction of each delay that's randomized. 0 is no jitter, 1 is full jitter.
+     */
+    private double jitter = 0.2;
+
+    /**
+     * The max total time from the first attempt that retries may be started in.
+     */
+    private Duration deadline = Duration.ofMinutes(2);
+
+    /**
+     * Default constructor.
+     */
+    public RetryPolicy() { }
+
+    /**
+     * Creates a policy that never retries.
+     * @return A RetryPolicy object.
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy().maxAttempts(1);
+    }
+
+    /**
+     * Sets the max number of attempts including the first one.
+     * @param MaxAttempts is an int with the max attempts.
+     * @return This policy.
+     */
+    public RetryPolicy maxAttempts(int MaxAttempts) {
+        this.maxAttempts = MaxAttempts;
+        return this;
+    }
+
+    /**
+     * Sets the delay before the first retry. Each retry after that doubles it.
+     * @param BaseDelay is a Duration with the base delay.
+     * @return This policy.
+     */
+    public RetryPolicy baseDelay(Duration BaseDelay) {
+        this.baseDelay = BaseDelay;
+        return this;
+    }
+
+    /**
+     * Sets the longest delay between attempts.
+     * @param MaxDelay is a Duration with the max delay.
+     * @return This policy.
+     */
+    public RetryPolicy maxDelay(Duration MaxDelay) {
+        this.maxDelay = MaxDelay;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of each delay that's randomized.
+     * @param Jitter is a double between 0 and 1.
+     * @return This policy.
+     */
+    public RetryPolicy jitter(double Jitter) {
+        this.jitter = Jitter;
+        return this;
+    }
+
+    /**
+     * Sets the total deadline. A retry isn't attempted if it would start after it.
+     * @param Deadline is a Duration with the deadline measured from the first attempt.
+     * @return This policy.
+     */
+    public RetryPolicy deadline(Duration Deadline) {
+        this.deadline = Deadline;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Checks if a response with the provided status code should be retried.
+     * @param StatusCode is an int with the HTTP status code.
+     * @return A boolean with true if the request should be retried.
+     */
+    public boolean isRetryable(int StatusCode) {
+        return StatusCode == 429 || StatusCode == 500 || StatusCode == 502 || StatusCode == 503 || StatusCode == 504;
+    }
+
+    /**
+     * Checks if a request that failed with the provided exception should be retried.
+     * @param Error is the IOException the request failed with.
+     * @return A boolean with true if the request should be retried.
+     */
+    public boolean isRetryable(IOException Error) {
+        return true;
+    }
+
+    /**
+     * Gets the delay before the next attempt.
+     * @param Attempt is an int with the number of the attempt that just failed, starting at 1.
+     * @param RetryAfterMillis is a long with the Retry-After header in milliseconds or -1 if not set.
+     * @return A long with the delay in milliseconds.
+     */
+    public long getDelayMillis(int Attempt, long RetryAfterMillis) {
+        if (RetryAfterMillis >= 0) {
+            return RetryAfterMillis;
+        }
+        double backoff = Math.min(this.maxDelay.toMillis(), this.baseDelay.toMillis() * Math.pow(2, Attempt - 1));
+        double jittered = backoff * (1.0 - this.jitter * ThreadLocalRandom.current().nextDouble());
+        return (long) jittered;
+    }
+
+    /**
+     * Parses the Retry-After header from the provided headers. The header can
+     * either be a number of seconds or an HTTP date.
+     * @param Headers is the HttpHeaders from the response.
+     * @return A long with the delay in milliseconds or -1 if not set or invalid.
+     */
+    public static long parseRetryAfter(HttpHeaders Headers) {
+        Optional<String> value = Headers.firstValue("Retry-After");
+        if (value.isEmpty()) {
+            return -1;
+        }
+
+        String val = value.get().trim();
+        try {
+            return Math.max(0, Long.parseLong(val) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime when = ZonedDateTime.parse(val, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, when.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException pe) {
+                return -1;
+            }
+        }
+    }
+}
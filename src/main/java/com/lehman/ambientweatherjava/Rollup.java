@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.util.Arrays;
+
+/**
+ * Rollup holds the aggregates of one device's records in one time window,
+ * produced by RollupEngine. Gauge fields such as tempf have a min, max, mean
+ * and sum. Counter fields such as dailyrainin are running totals on the station,
+ * so their sum is how much the total grew during the window, the rain that fell,
+ * with resets of the total handled.
+ *
+ * The aggregates are kept in primitive arrays indexed by the engine's field
+ * positions, so a window takes the same memory no matter how many records it has.
+ */
+public class Rollup {
+    /**
+     * The device MAC address.
+     */
+    private String macAddress;
+
+    /**
+     * The start of the window in epoch millis, inclusive.
+     */
+    private long windowStart;
+
+    /**
+     * The end of the window in epoch millis, exclusive.
+     */
+    private long windowEnd;
+
+    /**
+     * The number of records in the window.
+     */
+    private int count = 0;
+
+    /**
+     * Maps RecordField ordinals to positions in the aggregate arrays, -1 if not rolled up.
+     */
+    private int[] positions;
+
+    /**
+     * Whether the field at each position is a counter.
+     */
+    private boolean[] counters;
+
+    private double[] min;
+    private double[] max;
+    private double[] sum;
+
+    /**
+     * Constructor used by RollupEngine.
+     */
+    Rollup(String MacAddress, long WindowStart, long WindowEnd, int[] Positions, boolean[] Counters) {
+        this.macAddress = MacAddress;
+        this.windowStart = WindowStart;
+        this.windowEnd = WindowEnd;
+        this.positions = Positions;
+        this.counters = Counters;
+        this.min = new double[Counters.length];
+        this.max = new double[Counters.length];
+        this.sum = new double[Counters.length];
+        Arrays.fill(this.min, Double.POSITIVE_INFINITY);
+        Arrays.fill(this.max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Adds a record's values to the aggregates.
+     * @param Values is an array with the gauge values by position.
+     * @param Increments is an array with the counter increments by position.
+     */
+    void add(double[] Values, double[] Increments) {
+        this.count++;
+        for (int i = 0; i < Values.length; i++) {
+            double v = Values[i];
+            if (v < this.min[i]) this.min[i] = v;
+            if (v > this.max[i]) this.max[i] = v;
+            this.sum[i] += this.counters[i] ? Increments[i] : v;
+        }
+    }
+
+    public String getMacAddress() {
+        return macAddress;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the smallest value of the field in the window.
+     * @param Field is the RecordField to get.
+     * @return A double with the min or NaN if the window is empty.
+     */
+    public double getMin(RecordField Field) {
+        return this.count == 0 ? Double.NaN : this.min[this.position(Field)];
+    }
+
+    /**
+     * Gets the largest value of the field in the window.
+     * @param Field is the RecordField to get.
+     * @return A double with the max or NaN if the window is empty.
+     */
+    public double getMax(RecordField Field) {
+        return this.count == 0 ? Double.NaN : this.max[this.position(Field)];
+    }
+
+    /**
+     * Gets the mean value of the field in the window. For counters this is the
+     * mean increment per record.
+     * @param Field is the RecordField to get.
+     * @return A double with the mean or NaN if the window is empty.
+     */
+    public double getMean(RecordField Field) {
+        return this.count == 0 ? Double.NaN : this.sum[this.position(Field)] / this.count;
+    }
+
+    /**
+     * Gets the sum of the field in the window. For counters this is how much the
+     * running total grew, for example the rain that fell during the window.
+     * @param Field is the RecordField to get.
+     * @return A double with the sum.
+     */
+    public double getSum(RecordField Field) {
+        return this.sum[this.position(Field)];
+    }
+
+    private int position(RecordField Field) {
+        int pos = this.positions[Field.ordinal()];
+        if (pos < 0) {
+            throw new IllegalArgumentException(Field + " isn't rolled up.");
+        }
+        return pos;
+    }
+
+    @Override
+    public String toString() {
+        return "Rollup{" + this.macAddress + " [" + this.windowStart + ", " + this.windowEnd + ") count=" + this.count + "}";
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * RollupEngine downsamples record streams into per device time windows in a
+ * single pass, without the history ever being held in memory. Windows are
+ * tumbling when the slide equals the window length, or sliding when the slide is
+ * shorter, and are aligned to multiples of the slide since the epoch. Each window
+ * keeps a fixed set of primitive aggregates, see Rollup, and is passed to the
+ * Consumer once it can't receive more records.
+ *
+ * Records can arrive late or out of order by up to the allowed lateness. They're
+ * held per device in a reorder buffer and fed to the windows in dateutc order once
+ * a record newer by the lateness arrives. That order matters for counter fields,
+ * whose increments are worked out from the previous record. Records later than
+ * the lateness, and repeats of a dateutc already rolled up, are dropped and
+ * counted. Call flush at the end of the stream to close the open windows.
+ *
+ * Rain fields other than hourlyrainin are running totals on the station and are
+ * rolled up as counters. hourlyrainin is the rain rate over the last hour, so it's
+ * a gauge like tempf.
+ */
+public class RollupEngine {
+    /**
+     * The fields rolled up by default.
+     */
+    public static final Set<RecordField> DEFAULT_FIELDS = EnumSet.of(
+        RecordField.TEMPF, RecordField.HUMIDITY, RecordField.WINDSPEEDMPH, RecordField.WINDGUSTMPH,
+        RecordField.BAROMRELIN, RecordField.SOLARRADIATION, RecordField.UV,
+        RecordField.HOURLYRAININ, RecordField.DAILYRAININ, RecordField.EVENTRAININ
+    );
+
+    /**
+     * The fields that are running totals.
+     */
+    public static final Set<RecordField> COUNTER_FIELDS = EnumSet.of(
+        RecordField.EVENTRAININ, RecordField.DAILYRAININ, RecordField.WEEKLYRAININ,
+        RecordField.MONTHLYRAININ, RecordField.TOTALRAININ
+    );
+
+    /**
+     * The window length in milliseconds.
+     */
+    private long windowMillis;
+
+    /**
+     * The distance between window starts in milliseconds.
+     */
+    private long slideMillis;
+
+    /**
+     * How late a record can be and still be rolled up, in milliseconds.
+     */
+    private long latenessMillis = 0;
+
+    /**
+     * The fields rolled up, by position.
+     */
+    private RecordField[] fields;
+
+    /**
+     * Maps RecordField ordinals to positions, -1 if not rolled up.
+     */
+    private int[] positions;
+
+    /**
+     * Whether the field at each position is a counter.
+     */
+    private boolean[] counters;
+
+    /**
+     * The Consumer closed windows are passed to.
+     */
+    private Consumer<Rollup> rollupConsumer;
+
+    /**
+     * The state of each device by MAC address.
+     */
+    private Map<String, DeviceState> devices = new HashMap<>();
+
+    /**
+     * The number of records dropped for being too late or repeated.
+     */
+    private long droppedCount = 0;
+
+    /**
+     * Creates an engine with tumbling windows and the default fields.
+     * @param Window is a Duration with the window length.
+     * @param RollupConsumer is a Consumer that's called with each closed window.
+     */
+    public RollupEngine(Duration Window, Consumer<Rollup> RollupConsumer) {
+        this(Window, Window, DEFAULT_FIELDS, RollupConsumer);
+    }
+
+    /**
+     * Creates an engine with tumbling or sliding windows over the provided fields.
+     * @param Window is a Duration with the window length.
+     * @param Slide is a Duration with the distance between window starts. The window
+     * length must be a multiple of it. Equal to the window for tumbling windows.
+     * @param Fields is a Set of the RecordFields to roll up.
+     * @param RollupConsumer is a Consumer that's called with each closed window.
+     */
+    public RollupEngine(Duration Window, Duration Slide, Set<RecordField> Fields, Consumer<Rollup> RollupConsumer) {
+        this.windowMillis = Window.toMillis();
+        this.slideMillis = Slide.toMillis();
+        if (this.slideMillis <= 0 || this.windowMillis % this.slideMillis != 0) {
+            throw new IllegalArgumentException("The window must be a positive multiple of the slide.");
+        }
+        this.rollupConsumer = RollupConsumer;
+
+        this.fields = Fields.toArray(new RecordField[0]);
+        this.positions = new int[RecordField.values().length];
+        Arrays.fill(this.positions, -1);
+        this.counters = new boolean[this.fields.length];
+        for (int i = 0; i < this.fields.length; i++) {
+            this.positions[this.fields[i].ordinal()] = i;
+            this.counters[i] = COUNTER_FIELDS.contains(this.fields[i]);
+        }
+    }
+
+    /**
+     * Sets how late or out of order a record can be and still be rolled up. Windows
+     * are passed on this much later than they would be otherwise. Defaults to zero,
+     * which expects records in order.
+     * @param Lateness is a Duration with the allowed lateness.
+     * @return This engine.
+     */
+    public RollupEngine allowedLateness(Duration Lateness) {
+        this.latenessMillis = Lateness.toMillis();
+        return this;
+    }
+
+    /**
+     * Adds a record to the device's windows. The MAC address is taken from the record.
+     * @param Rec is the DataRecord to add.
+     */
+    public void add(DataRecord Rec) {
+        this.add(Rec.getDeviceMac(), Rec);
+    }
+
+    /**
+     * Adds records to the device's windows, in any order within the allowed lateness.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Records is an array of records, such as the result of queryDeviceData.
+     */
+    public void add(String MacAddress, BaseDataRecord[] Records) {
+        for (BaseDataRecord rec : Records) {
+            this.add(MacAddress, rec);
+        }
+    }
+
+    /**
+     * Adds a record to the device's windows.
+     * @param MacAddress is a String with the device MAC address.
+     * @param Rec is the BaseDataRecord to add.
+     */
+    public synchronized void add(String MacAddress, BaseDataRecord Rec) {
+        DeviceState state = this.devices.computeIfAbsent(MacAddress, DeviceState::new);
+        long time = Rec.getDateutcMillis();
+        if (time <= state.lastTime) {
+            this.droppedCount++;
+            return;
+        }
+
+        state.pending.add(Rec);
+        state.maxTime = Math.max(state.maxTime, time);
+        while (!state.pending.isEmpty() && state.pending.peek().getDateutcMillis() <= state.maxTime - this.latenessMillis) {
+            this.process(state, state.pending.poll());
+        }
+    }
+
+    /**
+     * Rolls up the buffered records and passes on every open window. Call this at
+     * the end of the stream. Records older than the flushed ones are dropped after.
+     */
+    public synchronized void flush() {
+        for (DeviceState state : this.devices.values()) {
+            while (!state.pending.isEmpty()) {
+                this.process(state, state.pending.poll());
+            }
+            while (!state.open.isEmpty()) {
+                this.rollupConsumer.accept(state.open.poll());
+            }
+        }
+    }
+
+    public synchronized long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * Rolls up a record that's in dateutc order.
+     * @param State is the DeviceState of the device.
+     * @param Rec is the BaseDataRecord to roll up.
+     */
+    private void process(DeviceState State, BaseDataRecord Rec) {
+        long time = Rec.getDateutcMillis();
+        if (time == State.lastTime) {
+            // A repeat that was still in the buffer.
+            this.droppedCount++;
+            return;
+        }
+
+        // Pass on the windows that end before this record.
+        while (!State.open.isEmpty() && State.open.peek().getWindowEnd() <= time) {
+            this.rollupConsumer.accept(State.open.poll());
+        }
+
+        // Open the windows that start at or before this record.
+        long first = Math.floorDiv(time, this.slideMillis) * this.slideMillis - this.windowMillis + this.slideMillis;
+        long start = Math.max(first, State.nextStart);
+        for (; start <= time; start += this.slideMillis) {
+            State.open.add(new Rollup(State.macAddress, start, start + this.windowMillis, this.positions, this.counters));
+        }
+        State.nextStart = start;
+
+        // Read the values and work out the counter increments. A counter that went
+        // down was reset, so everything since the reset is new.
+        for (int i = 0; i < this.fields.length; i++) {
+            double v = this.fields[i].getAsDouble(Rec);
+            State.values[i] = v;
+            if (this.counters[i]) {
+                State.increments[i] = State.lastTime == Long.MIN_VALUE ? 0 : (v >= State.previous[i] ? v - State.previous[i] : v);
+                State.previous[i] = v;
+            }
+        }
+        for (Rollup rollup : State.open) {
+            rollup.add(State.values, State.increments);
+        }
+        State.lastTime = time;
+    }
+
+    /**
+     * DeviceState is the rollup state of one device.
+     */
+    private class DeviceState {
+        private String macAddress;
+
+        /**
+         * Records waiting for the lateness to pass, oldest first.
+         */
+        private PriorityQueue<BaseDataRecord> pending = new PriorityQueue<>(Comparator.comparingLong(BaseDataRecord::getDateutcMillis));
+
+        /**
+         * The open windows, oldest first.
+         */
+        private ArrayDeque<Rollup> open = new ArrayDeque<>();
+
+        /**
+         * The start of the next window to open.
+         */
+        private long nextStart = Long.MIN_VALUE;
+
+        /**
+         * The newest dateutc added.
+         */
+        private long maxTime = Long.MIN_VALUE;
+
+        /**
+         * The dateutc of the last record rolled up.
+         */
+        private long lastTime = Long.MIN_VALUE;
+
+        /**
+         * The counter values of the last record rolled up, by position.
+         */
+        private double[] previous = new double[RollupEngine.this.fields.length];
+
+        /**
+         * Scratch arrays for the values and increments of the record being rolled up.
+         */
+        private double[] values = new double[RollupEngine.this.fields.length];
+        private double[] increments = new double[RollupEngine.this.fields.length];
+
+        DeviceState(String MacAddress) {
+            this.macAddress = MacAddress;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * WindStatistics summarizes wind over a set of records. Wind direction is an
+ * azimuth, so it can't be averaged like other fields (the mean of 350 and 10
+ * isn't 180). The mean direction here is the direction of the vector sum of the
+ * records' wind, each record weighted by its wind speed. Gust percentiles come
+ * from a GustSketch.
+ *
+ * The statistics are computed from primitive columns in one pass. Directions
+ * are whole degrees, so sin and cos come from a 361 entry table instead of being
+ * computed per record. On JDK 21 the sums can run on the incubator Vector API by
+ * building with the vector-api profile and starting the JVM with
+ * --add-modules jdk.incubator.vector and -Dambientweather.vectorApi=true.
+ * Without all three the scalar loop is used.
+ */
+public class WindStatistics {
+    /**
+     * Sin of each whole degree from 0 to 360.
+     */
+    private static final double[] sin = new double[361];
+
+    /**
+     * Cos of each whole degree from 0 to 360.
+     */
+    private static final double[] cos = new double[361];
+
+    /**
+     * WindVectorKernel.sums, or null if the Vector API sums aren't used. It's
+     * looked up by name since the kernel is only built with the vector-api profile.
+     */
+    private static final MethodHandle vectorKernel = findVectorKernel();
+
+    static {
+        for (int d = 0; d <= 360; d++) {
+            sin[d] = Math.sin(Math.toRadians(d));
+            cos[d] = Math.cos(Math.toRadians(d));
+        }
+    }
+
+    /**
+     * The number of records.
+     */
+    private int count;
+
+    /**
+     * The mean wind speed.
+     */
+    private double meanSpeed;
+
+    /**
+     * The length of the mean wind vector.
+     */
+    private double vectorMeanSpeed;
+
+    /**
+     * The direction of the mean wind vector in degrees.
+     */
+    private double vectorMeanDirection;
+
+    /**
+     * The gusts.
+     */
+    private GustSketch gusts;
+
+    private WindStatistics(int Count, double[] Sums, GustSketch Gusts) {
+        this.count = Count;
+        this.gusts = Gusts;
+        if (Count == 0) {
+            this.meanSpeed = Double.NaN;
+            this.vectorMeanSpeed = Double.NaN;
+            this.vectorMeanDirection = Double.NaN;
+            return;
+        }
+
+        this.meanSpeed = Sums[2] / Count;
+        this.vectorMeanSpeed = Math.sqrt(Sums[0] * Sums[0] + Sums[1] * Sums[1]) / Count;
+        if (Sums[0] == 0 && Sums[1] == 0) {
+            // Calm or perfectly balanced, there's no direction.
+            this.vectorMeanDirection = Double.NaN;
+        } else {
+            double deg = Math.toDegrees(Math.atan2(Sums[0], Sums[1]));
+            this.vectorMeanDirection = deg < 0 ? deg + 360 : deg;
+        }
+    }
+
+    /**
+     * Computes the statistics of the records.
+     * @param Records is an array of records.
+     * @return A WindStatistics object.
+     */
+    public static WindStatistics of(BaseDataRecord[] Records) {
+        double[] speed = new double[Records.length];
+        int[] dir = new int[Records.length];
+        double[] gust = new double[Records.length];
+        for (int i = 0; i < Records.length; i++) {
+            speed[i] = Records[i].getWindspeedmph();
+            dir[i] = Records[i].getWinddir();
+            gust[i] = Records[i].getWindgustmph();
+        }
+        return of(speed, dir, gust, Records.length);
+    }
+
+    /**
+     * Computes the statistics straight from the columns of a batch.
+     * @param Batch is the DataRecordBatch to use.
+     * @return A WindStatistics object.
+     */
+    public static WindStatistics of(DataRecordBatch Batch) {
+        return of(Batch.doubleColumn(RecordField.WINDSPEEDMPH), Batch.intColumn(RecordField.WINDDIR),
+            Batch.doubleColumn(RecordField.WINDGUSTMPH), Batch.size());
+    }
+
+    /**
+     * Computes the statistics of the first Length entries of the columns.
+     * @param Speed is an array with the wind speeds in mph.
+     * @param Direction is an array with the wind directions in degrees.
+     * @param Gust is an array with the gusts in mph.
+     * @param Length is an int with the number of entries to use.
+     * @return A WindStatistics object.
+     */
+    public static WindStatistics of(double[] Speed, int[] Direction, double[] Gust, int Length) {
+        double[] sums = new double[3];
+        vectorSums(Speed, Direction, Length, sums);
+        GustSketch gusts = new GustSketch();
+        gusts.addAll(Gust, 0, Length);
+        return new WindStatistics(Length, sums, gusts);
+    }
+
+    /**
+     * Sums the east and north wind components and the speeds, weighting each
+     * direction by its speed.
+     * @param Speed is an array with the wind speeds.
+     * @param Direction is an array with the wind directions in degrees.
+     * @param Length is an int with the number of entries to use.
+     * @param Out is an array of at least 3 that gets the east sum, north sum and speed sum.
+     */
+    public static void vectorSums(double[] Speed, int[] Direction, int Length, double[] Out) {
+        // Directions outside 0 to 360 would index outside the tables.
+        int lo = 0, hi = 0;
+        for (int i = 0; i < Length; i++) {
+            lo = Math.min(lo, Direction[i]);
+            hi = Math.max(hi, Direction[i]);
+        }
+        if (lo < 0 || hi > 360) {
+            int[] fixed = new int[Length];
+            for (int i = 0; i < Length; i++) {
+                fixed[i] = Math.floorMod(Direction[i], 360);
+            }
+            Direction = fixed;
+        }
+
+        if (vectorKernel != null) {
+            try {
+                vectorKernel.invokeExact(Speed, Direction, Length, sin, cos, Out);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        } else {
+            scalarSums(Speed, Direction, Length, Out);
+        }
+    }
+
+    /**
+     * Scalar version of vectorSums with the directions already in range. Two
+     * sets of accumulators break the dependency between iterations.
+     */
+    static void scalarSums(double[] Speed, int[] Direction, int Length, double[] Out) {
+        double u0 = 0, u1 = 0, v0 = 0, v1 = 0, s0 = 0, s1 = 0;
+        int i = 0;
+        for (; i + 1 < Length; i += 2) {
+            double a = Speed[i], b = Speed[i + 1];
+            int da = Direction[i], db = Direction[i + 1];
+            u0 += a * sin[da];
+            u1 += b * sin[db];
+            v0 += a * cos[da];
+            v1 += b * cos[db];
+            s0 += a;
+            s1 += b;
+        }
+        if (i < Length) {
+            u0 += Speed[i] * sin[Direction[i]];
+            v0 += Speed[i] * cos[Direction[i]];
+            s0 += Speed[i];
+        }
+        Out[0] = u0 + u1;
+        Out[1] = v0 + v1;
+        Out[2] = s0 + s1;
+    }
+
+    /**
+     * Finds the Vector API sums if they can and should be used.
+     * @return A MethodHandle for WindVectorKernel.sums or null if the flag isn't
+     * set, the module isn't loaded or the kernel wasn't built.
+     */
+    private static MethodHandle findVectorKernel() {
+        if (!Boolean.getBoolean("ambientweather.vectorApi")
+            || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return null;
+        }
+        try {
+            Class<?> kernel = Class.forName("com.lehman.ambientweatherjava.WindVectorKernel");
+            MethodType type = MethodType.methodType(void.class, double[].class, int[].class, int.class, double[].class, double[].class, double[].class);
+            return MethodHandles.lookup().findStatic(kernel, "sums", type);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the Vector API sums are used.
+     * @return A boolean with true if they are.
+     */
+    public static boolean isVectorApiEnabled() {
+        return vectorKernel != null;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMeanSpeed() {
+        return meanSpeed;
+    }
+
+    /**
+     * Gets the length of the mean wind vector. It's smaller than the mean speed
+     * when the direction varies.
+     * @return A double with the speed in mph.
+     */
+    public double getVectorMeanSpeed() {
+        return vectorMeanSpeed;
+    }
+
+    /**
+     * Gets the direction of the mean wind vector, the speed weighted mean direction.
+     * @return A double with the direction in degrees from 0 to 360 or NaN if there's no wind.
+     */
+    public double getVectorMeanDirection() {
+        return vectorMeanDirection;
+    }
+
+    /**
+     * Gets how steady the direction was, the vector mean speed over the mean speed.
+     * @return A double from 0 for wind from all around to 1 for wind from one direction.
+     */
+    public double getSteadiness() {
+        return this.meanSpeed > 0 ? this.vectorMeanSpeed / this.meanSpeed : Double.NaN;
+    }
+
+    /**
+     * Gets the gust at the percentile.
+     * @param Percentile is a double from 0 to 100, such as 95.
+     * @return A double with the gust in mph.
+     */
+    public double getGustPercentile(double Percentile) {
+        return this.gusts.quantile(Percentile / 100.0);
+    }
+
+    /**
+     * Gets the gust sketch, which can be merged with other sketches.
+     * @return A GustSketch object.
+     */
+    public GustSketch getGusts() {
+        return this.gusts;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AmbientWeather that run against a local MockAmbientServer
+ * and so don't need Application and API keys.
+ */
+public class AmbientWeatherMockTest {
+    private static final long LATEST = 1600000000000L - (1600000000000L % BenchmarkData.FIVE_MINUTES);
+
+    private MockAmbientServer server;
+    private AmbientWeather aw;
+
+    @Before
+    public void setup() throws Exception {
+        this.server = new MockAmbientServer(LATEST, LATEST - 30L * 24 * 3600 * 1000);
+        this.aw = AmbientWeather.builder("app", "api")
+            .baseUrl(this.server.getBaseUrl())
+            .disableRateLimit()
+            .build();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    @Test
+    public void queryDeviceDataAsync() {
+        DataRecord[] records = this.aw.queryDeviceDataAsync("mac", 10).join();
+        assertEquals(10, records.length);
+        assertEquals(LATEST, records[0].getDateutc().getTime());
+        assertEquals("mac", records[0].getDeviceMac());
+    }
+
+    @Test
+    public void asyncFailsWithHttpStatusException() {
+        this.server.failNext(404);
+        try {
+            this.aw.listUsersDevicesAsync().join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof HttpStatusException);
+        }
+    }
+
+    @Test
+    public void streamingQueryDeviceData() throws Exception {
+        List<DataRecord> records = new ArrayList<>();
+        int count = this.aw.queryDeviceData("mac", 288, "", records::add);
+        assertEquals(288, count);
+        assertEquals(288, records.size());
+        assertEquals(records.get(5).getId(), this.aw.queryDeviceData("mac")[5].getId());
+    }
+
+    @Test
+    public void cachesHistoricalPages() throws Exception {
+        AmbientWeather cached = AmbientWeather.builder("app", "api")
+            .baseUrl(this.server.getBaseUrl())
+            .disableRateLimit()
+            .cache(new DataRecordCache(1024 * 1024, Duration.ZERO))
+            .build();
+
+        String endDate = String.valueOf(LATEST - 3600000);
+        DataRecord[] first = cached.queryDeviceData("mac", 50, endDate);
+        int requests = this.server.getRequestCount();
+        DataRecord[] second = cached.queryDeviceDataAsync("mac", 50, endDate).join();
+        assertEquals(requests, this.server.getRequestCount());
+        assertNotSame(first, second);
+        assertEquals(first[0].getId(), second[0].getId());
+
+        // Pages that include now expire after the recent TTL, which is zero here.
+        Thread.sleep(2);
+        cached.queryDeviceData("mac", 50);
+        Thread.sleep(2);
+        cached.queryDeviceData("mac", 50);
+        assertEquals(requests + 2, this.server.getRequestCount());
+        assertEquals(1, cached.getCache().getHitCount());
+    }
+
+    @Test
+    public void listUsersDevicesCoalesces() throws Exception {
+        AmbientWeather shared = AmbientWeather.builder("app", "api")
+            .baseUrl(this.server.getBaseUrl())
+            .disableRateLimit()
+            .devicesTtl(Duration.ofMinutes(1))
+            .build();
+        this.server.setLatencyMillis(100);
+
+        List<CompletableFuture<Device[]>> calls = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            calls.add(shared.listUsersDevicesAsync());
+        }
+        for (CompletableFuture<Device[]> call : calls) {
+            assertEquals(2, call.join().length);
+        }
+        assertEquals(1, this.server.getRequestCount());
+
+        // Cached until invalidated.
+        shared.listUsersDevices();
+        assertEquals(1, this.server.getRequestCount());
+        shared.invalidateDevices();
+        shared.listUsersDevices();
+        assertEquals(2, this.server.getRequestCount());
+
+        this.server.failNext(401);
+        shared.invalidateDevices();
+        try {
+            shared.listUsersDevices();
+            fail();
+        } catch (HttpStatusException e) {
+            assertEquals(401, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void backfillPublisherFollowsDemand() throws Exception {
+        long start = LATEST - 3L * 24 * 3600 * 1000;
+        List<DataRecord> received = new ArrayList<>();
+        CompletableFuture<Void> complete = new CompletableFuture<>();
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        this.aw.backfillPublisher("mac", new Date(start), new Date(LATEST)).subscribe(new Flow.Subscriber<DataRecord>() {
+            public void onSubscribe(Flow.Subscription Subscription) { subscription[0] = Subscription; }
+            public void onNext(DataRecord Item) { synchronized (received) { received.add(Item); } }
+            public void onError(Throwable Error) { complete.completeExceptionally(Error); }
+            public void onComplete() { complete.complete(null); }
+        });
+
+        // Nothing is requested until there's demand, then only the first page and the prefetch.
+        Thread.sleep(100);
+        assertEquals(0, this.server.getRequestCount());
+        subscription[0].request(10);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(10, received.size());
+        assertTrue(this.server.getRequestCount() <= 2);
+
+        subscription[0].request(Long.MAX_VALUE);
+        complete.get(10, TimeUnit.SECONDS);
+        assertEquals(3 * 288 + 1, received.size());
+        Set<String> ids = new HashSet<>();
+        for (DataRecord rec : received) {
+            assertTrue(ids.add(rec.getId()));
+        }
+    }
+
+    @Test
+    public void backfill() {
+        long start = LATEST - 3L * 24 * 3600 * 1000;
+        List<DataRecord> records = new ArrayList<>();
+        this.aw.backfill("mac", new Date(start), new Date(LATEST)).forEachRemaining(records::add);
+
+        // Three days of five minute data plus the record on the start boundary.
+        assertEquals(3 * 288 + 1, records.size());
+        Set<String> ids = new HashSet<>();
+        long prev = Long.MAX_VALUE;
+        for (DataRecord rec : records) {
+            assertTrue(ids.add(rec.getId()));
+            assertTrue(rec.getDateutc().getTime() < prev);
+            prev = rec.getDateutc().getTime();
+        }
+        assertEquals(start, prev);
+    }
+
+    @Test
+    public void backfillStopsAtHistoryStart() {
+        long earliest = LATEST - 30L * 24 * 3600 * 1000;
+        long count = this.aw.backfillStream("mac", new Date(earliest - 3600 * 1000), new Date(earliest + 3600 * 1000)).count();
+        assertEquals(13, count);
+    }
+
+    @Test
+    public void rateLimitSpacesRequests() throws Exception {
+        AmbientWeather limited = AmbientWeather.builder("app", "api")
+            .baseUrl(this.server.getBaseUrl())
+            .rateLimiter(new RateLimiter(20, 1))
+            .build();
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[5];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = limited.queryDeviceDataAsync("mac", 1);
+        }
+        CompletableFuture.allOf(futures).join();
+        limited.queryDeviceData("mac", 1);
+
+        // Six requests at 20 per second with no burst take at least 250ms.
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(240));
+        assertEquals(6, this.server.getRequestCount());
+    }
+
+    @Test
+    public void retriesTransientFailures() throws Exception {
+        this.server.failNext(429);
+        this.server.failNext(503);
+        assertEquals(5, this.aw.queryDeviceData("mac", 5).length);
+        this.server.failNext(502);
+        assertEquals(5, this.aw.queryDeviceDataAsync("mac", 5).join().length);
+        assertEquals(3, this.aw.getRetryCount());
+        assertEquals(5, this.server.getRequestCount());
+    }
+
+    @Test
+    public void retriesRunOut() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            this.server.failNext(503);
+        }
+        try {
+            this.aw.listUsersDevices();
+            fail();
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getStatusCode());
+            assertEquals(0, e.getRetryAfterMillis());
+        }
+        assertEquals(2, this.aw.getRetryCount());
+    }
+
+    @Test
+    public void queryDevicesData() throws Exception {
+        this.server.setDeviceCount(5);
+        Device[] devices = this.aw.listUsersDevices();
+        this.server.failNext(404);
+        MultiDeviceResult result = this.aw.queryDevicesData(devices, 2);
+
+        assertEquals(4, result.getRecords().size());
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().values().iterator().next() instanceof HttpStatusException);
+        for (DataRecord[] records : result.getRecords().values()) {
+            assertEquals(288, records.length);
+        }
+    }
+
+    @Test
+    public void queryDevicesDataCompletedQueries() {
+        // Queries that complete right away must not recurse once per device.
+        AmbientWeather immediate = new AmbientWeather("app", "api") {
+            @Override
+            public CompletableFuture<DataRecord[]> queryDeviceDataAsync(String MacAddress) {
+                if (MacAddress.endsWith("7")) {
+                    return CompletableFuture.failedFuture(new IllegalStateException(MacAddress));
+                }
+                return CompletableFuture.completedFuture(new DataRecord[0]);
+            }
+        };
+        List<String> macs = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            macs.add("mac" + i);
+        }
+
+        MultiDeviceResult result = immediate.queryDevicesDataAsync(macs, 2).join();
+        assertEquals(90000, result.getRecords().size());
+        assertEquals(10000, result.getFailures().size());
+        assertTrue(result.getFailures().get("mac7") instanceof IllegalStateException);
+    }
+
+    @Test
+    public void closeShutsDownOwnedExecutor() {
+        AmbientWeather virtual = AmbientWeather.builder("app", "api").virtualThreads().build();
+        ExecutorService owned = (ExecutorService) virtual.getExecutor();
+        virtual.close();
+        assertTrue(owned.isShutdown());
+
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        AmbientWeather passed = AmbientWeather.builder("app", "api").executor(callers).build();
+        passed.close();
+        assertFalse(callers.isShutdown());
+        callers.shutdown();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the columnar DataRecordBatch.
+ */
+public class DataRecordBatchTest {
+    @Test
+    public void roundTripsRecords() throws Exception {
+        DataRecord[] records = new ObjectMapper().readValue(BenchmarkData.dataRecordsJson(300, 1600000000000L), DataRecord[].class);
+        for (DataRecord rec : records) {
+            rec.setDeviceMac("mac");
+            rec.generateId();
+        }
+
+        DataRecordBatch batch = DataRecordBatch.of("mac", records);
+        assertEquals(300, batch.size());
+        for (int i = 0; i < records.length; i++) {
+            DataRecord orig = records[i];
+            DataRecord copy = batch.toDataRecord(i);
+            assertEquals(orig.getDateutc(), copy.getDateutc());
+            for (RecordField field : RecordField.doubleFields()) {
+                assertEquals(field.getDouble(orig), batch.getDouble(i, field), 0.0);
+                assertEquals(field.getDouble(orig), field.getDouble(copy), 0.0);
+            }
+            for (RecordField field : RecordField.intFields()) {
+                assertEquals(field.getInt(orig), batch.row(i).getInt(field));
+            }
+            assertEquals(orig.getLastRain(), copy.getLastRain());
+            assertEquals(orig.getDate(), copy.getDate());
+            assertEquals(orig.getLoc(), copy.getLoc());
+            assertEquals(orig.getId(), copy.getId());
+        }
+        assertEquals(records[7].getTempf(), batch.doubleColumn(RecordField.TEMPF)[7], 0.0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rowOutOfBounds() {
+        new DataRecordBatch.Builder("mac", 1).build().row(0);
+    }
+}
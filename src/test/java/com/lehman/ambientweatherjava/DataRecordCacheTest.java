@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the DataRecordCache.
+ */
+public class DataRecordCacheTest {
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        // Room for two pages of 10 records.
+        DataRecordCache cache = new DataRecordCache(2 * (10 * DataRecordCache.recordBytes + 128), Duration.ofMinutes(1));
+        cache.put("mac", 10, "1000", new DataRecord[10]);
+        cache.put("mac", 10, "2000", new DataRecord[10]);
+        assertNotNull(cache.get("mac", 10, "1000"));
+        cache.put("mac", 10, "3000", new DataRecord[10]);
+
+        assertNull(cache.get("mac", 10, "2000"));
+        assertNotNull(cache.get("mac", 10, "1000"));
+        assertNotNull(cache.get("mac", 10, "3000"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.invalidate("mac");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void hitsReturnCopies() {
+        DataRecordCache cache = new DataRecordCache();
+        DataRecord rec = new DataRecord();
+        rec.setDeviceMac("00:11:22:33:44:55");
+        rec.setDateutcMillis(1600000000000L);
+        rec.setTempf(70.5);
+        rec.generateId();
+        cache.put("mac", 1, "", new DataRecord[] { rec });
+
+        // Changing the record that was added or the ones returned doesn't change the page.
+        rec.setTempf(0);
+        DataRecord[] first = cache.get("mac", 1, "");
+        assertEquals(70.5, first[0].getTempf(), 0);
+        first[0].setTempf(-40);
+        first[0].setDeviceMac("other");
+        new DerivedMetrics().recompute(true).apply(first);
+
+        DataRecord[] second = cache.get("mac", 1, "");
+        assertNotSame(first[0], second[0]);
+        assertEquals(70.5, second[0].getTempf(), 0);
+        assertEquals(0, second[0].getDewPoint(), 0);
+        assertEquals("00:11:22:33:44:55", second[0].getDeviceMac());
+        assertEquals(1600000000000L, second[0].getDateutcMillis());
+        assertEquals(rec.getKey(), second[0].getKey());
+        assertEquals(rec.getId(), second[0].getId());
+    }
+
+    @Test
+    public void historicalEndDates() {
+        long now = 1600000000000L;
+        assertFalse(DataRecordCache.isHistorical("", now));
+        assertFalse(DataRecordCache.isHistorical(null, now));
+        assertTrue(DataRecordCache.isHistorical("1599999999999", now));
+        assertFalse(DataRecordCache.isHistorical("1600000000001", now));
+        assertTrue(DataRecordCache.isHistorical("2020-09-01T00:00:00.000Z", now));
+        assertFalse(DataRecordCache.isHistorical("2020-10-01T00:00:00.000Z", now));
+        assertFalse(DataRecordCache.isHistorical("yesterday", now));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DataRecordCodec.
+ */
+public class DataRecordCodecTest {
+    @Test
+    public void roundTripsApiRecords() throws Exception {
+        String json = BenchmarkData.dataRecordsJson(288, 1600000000000L);
+        DataRecord[] records = new ObjectMapper().readValue(json, DataRecord[].class);
+        for (DataRecord rec : records) {
+            rec.setDeviceMac("00:0E:C6:00:00:01");
+        }
+
+        ByteBuffer encoded = DataRecordCodec.encode(records);
+        int size = encoded.remaining();
+        DataRecord[] decoded = DataRecordCodec.decode(encoded);
+        assertFalse(encoded.hasRemaining());
+        assertEquals(records.length, decoded.length);
+        for (int i = 0; i < records.length; i++) {
+            assertRecordEquals(records[i], decoded[i]);
+        }
+        assertEquals(records[5].getKey(), decoded[5].getKey());
+
+        // The generated values are random, real records compress further.
+        assertTrue("Encoded " + size + " bytes", size * 4 < json.length());
+    }
+
+    @Test
+    public void streamsOverChannels() throws Exception {
+        DataRecord[] records = new DataRecord[20000];
+        long time = 1600000000000L;
+        for (int i = 0; i < records.length; i++) {
+            // Irregular intervals, a jump back in time and odd values.
+            time += i == 10000 ? -86400000L * 400 : 60000 + (i % 7) * 1000;
+            DataRecord rec = new DataRecord();
+            rec.setDateutcMillis(time);
+            rec.setTempf(i % 3 == 0 ? Double.NaN : -40 + (i % 1000) / 7.0);
+            rec.setBaromabsin(i == 5 ? Double.MAX_VALUE : 29.92);
+            rec.setSolarradiation(i % 2 == 0 ? -0.0 : 0.0);
+            rec.setHumidity(i % 100);
+            rec.setWinddir(i == 7 ? Integer.MIN_VALUE : (i * 37) % 360);
+            rec.setUv(i == 8 ? Integer.MAX_VALUE : 3);
+            rec.setLastRain(i < 50 ? "" : "2020-04-06T23:53:00.000Z");
+            rec.setLoc(i % 5000 == 0 ? "ambient-prod-" + i : "ambient-prod-0");
+            rec.setDate(i == 9 ? "not a date" : DataRecordBatch.formatDate(time));
+            records[i] = rec;
+        }
+
+        Path file = Files.createTempFile("codec", ".awc");
+        try (DataRecordCodec.Encoder enc = new DataRecordCodec.Encoder(FileChannel.open(file, StandardOpenOption.WRITE))) {
+            enc.write(records);
+            assertEquals(records.length, enc.getCount());
+        }
+
+        try (DataRecordCodec.Decoder dec = new DataRecordCodec.Decoder(FileChannel.open(file))) {
+            DataRecord rec = new DataRecord();
+            int i = 0;
+            while (dec.read(rec)) {
+                assertRecordEquals(records[i++], rec);
+            }
+            assertEquals(records.length, i);
+            assertNull(dec.read());
+        }
+    }
+
+    @Test
+    public void rejectsBadStreams() throws Exception {
+        try {
+            DataRecordCodec.decode(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Not a DataRecordCodec stream.", e.getMessage());
+        }
+
+        ByteBuffer encoded = DataRecordCodec.encode(new DataRecord[] { new DataRecord(), new DataRecord() });
+        encoded.limit(encoded.limit() - 1);
+        try {
+            DataRecordCodec.decode(encoded);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Unexpected end"));
+        }
+    }
+
+    @Test
+    public void rejectsNonBlockingChannels() throws Exception {
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.source().configureBlocking(false);
+            try {
+                new DataRecordCodec.Decoder(pipe.source());
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals("DataRecordCodec needs a channel in blocking mode.", e.getMessage());
+            }
+
+            // A channel that has no data yet fails instead of spinning.
+            ReadableByteChannel empty = new ReadableByteChannel() {
+                public int read(ByteBuffer Dst) { return 0; }
+                public boolean isOpen() { return true; }
+                public void close() { }
+            };
+            try {
+                new DataRecordCodec.Decoder(empty);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().endsWith("needs a blocking channel."));
+            }
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    private static void assertRecordEquals(DataRecord Expected, DataRecord Actual) {
+        assertEquals(Expected.getDateutcMillis(), Actual.getDateutcMillis());
+        for (RecordField field : RecordField.doubleFields()) {
+            assertEquals(Double.doubleToRawLongBits(field.getDouble(Expected)), Double.doubleToRawLongBits(field.getDouble(Actual)));
+        }
+        for (RecordField field : RecordField.intFields()) {
+            assertEquals(field.getInt(Expected), field.getInt(Actual));
+        }
+        assertEquals(Expected.getLastRain(), Actual.getLastRain());
+        assertEquals(Expected.getLoc(), Actual.getLoc());
+        assertEquals(Expected.getDeviceMac(), Actual.getDeviceMac());
+        assertEquals(Expected.getDate(), Actual.getDate());
+    }
+}
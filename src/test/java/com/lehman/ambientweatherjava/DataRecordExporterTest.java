@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DataRecordExporter.
+ */
+public class DataRecordExporterTest {
+    @Test
+    public void writesCsv() throws Exception {
+        DataRecord[] records = records(3);
+        records[1].setLoc("a,\"b\"");
+        records[2].setTempf(-0.05);
+        records[2].setBaromabsin(1.0 / 3);
+        Path file = Files.createTempFile("export", ".csv");
+
+        assertEquals(3, new DataRecordExporter(DataRecordExporter.Format.CSV)
+            .fields(RecordField.TEMPF, RecordField.HUMIDITY, RecordField.BAROMABSIN)
+            .export(records, file));
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(4, lines.size());
+        assertEquals("macAddress,dateutc,date,tempf,humidity,baromabsin,lastRain,loc", lines.get(0));
+        DataRecord rec = records[0];
+        assertEquals(rec.getDeviceMac() + "," + rec.getDateutcMillis() + "," + rec.getDate() + ","
+            + rec.getTempf() + "," + rec.getHumidity() + "," + rec.getBaromabsin() + "," + rec.getLastRain() + ",ambient-prod-2020-19",
+            lines.get(1));
+        assertTrue(lines.get(2).endsWith(",\"a,\"\"b\"\"\""));
+        assertTrue(lines.get(3).contains(",-0.05," + records[2].getHumidity() + "," + (1.0 / 3) + ","));
+    }
+
+    @Test
+    public void columnarRoundTrips() throws Exception {
+        DataRecord[] records = records(5000);
+        records[10].setLastRain("");
+        records[20].setTempf(Double.NaN);
+        records[30].setWinddir(Integer.MIN_VALUE);
+        Path file = Files.createTempFile("export", ".awx");
+
+        DataRecordExporter exporter = new DataRecordExporter(DataRecordExporter.Format.COLUMNAR).chunkSize(700);
+        assertEquals(records.length, exporter.export(Arrays.asList(records).iterator(), file));
+        DataRecord[] read = DataRecordExporter.readColumnar(file);
+        assertEquals(records.length, read.length);
+        for (int i = 0; i < records.length; i++) {
+            assertEquals(records[i].getDateutcMillis(), read[i].getDateutcMillis());
+            assertEquals(records[i].getDate(), read[i].getDate());
+            for (RecordField field : RecordField.doubleFields()) {
+                assertEquals(field.getDouble(records[i]), field.getDouble(read[i]), 0);
+            }
+            for (RecordField field : RecordField.intFields()) {
+                assertEquals(field.getInt(records[i]), field.getInt(read[i]));
+            }
+            assertEquals(records[i].getLastRain(), read[i].getLastRain());
+            assertEquals(records[i].getLoc(), read[i].getLoc());
+            assertEquals(records[i].getKey(), read[i].getKey());
+        }
+    }
+
+    @Test
+    public void parallelOutputMatchesSerial() throws Exception {
+        DataRecord[] records = records(10000);
+        List<DataRecordBatch> batches = new ArrayList<>();
+        for (int from = 0; from < records.length; from += 288) {
+            DataRecord[] page = Arrays.copyOfRange(records, from, Math.min(records.length, from + 288));
+            batches.add(DataRecordBatch.of(records[0].getDeviceMac(), page));
+        }
+
+        for (DataRecordExporter.Format format : DataRecordExporter.Format.values()) {
+            Path serial = Files.createTempFile("serial", ".out");
+            Path parallel = Files.createTempFile("parallel", ".out");
+            new DataRecordExporter(format).chunkSize(1000).pool(new ForkJoinPool(1)).export(records, serial);
+            assertEquals(records.length, new DataRecordExporter(format).chunkSize(1000).pool(new ForkJoinPool(4))
+                .exportBatches(batches, parallel));
+            assertTrue(format.name(), Arrays.equals(Files.readAllBytes(serial), Files.readAllBytes(parallel)));
+        }
+    }
+
+    private static DataRecord[] records(int Count) throws Exception {
+        DataRecord[] records = new ObjectMapper().readValue(BenchmarkData.dataRecordsJson(Count, 1600000000000L), DataRecord[].class);
+        for (DataRecord rec : records) {
+            rec.setDeviceMac("00:0E:C6:00:00:01");
+        }
+        return records;
+    }
+}
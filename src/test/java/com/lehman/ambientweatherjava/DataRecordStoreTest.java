@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the memory-mapped DataRecordStore.
+ */
+public class DataRecordStoreTest {
+    @Test
+    public void appendsAndReadsAcrossDays() throws Exception {
+        // 2000 records at 5 minutes span about a week, so several segments and one grow.
+        DataRecord[] records = new ObjectMapper().readValue(BenchmarkData.dataRecordsJson(2000, 1600000000000L), DataRecord[].class);
+        Path dir = Files.createTempDirectory("store");
+
+        try (DataRecordStore store = new DataRecordStore(dir)) {
+            assertEquals(2000, store.append("mac", records));
+            assertEquals(0, store.append("mac", records));
+        }
+
+        try (DataRecordStore store = new DataRecordStore(dir)) {
+            long from = records[records.length - 1].getDateutcMillis();
+            long to = records[0].getDateutcMillis();
+            DataRecord[] read = store.read("mac", from, to);
+            assertEquals(2000, read.length);
+
+            // The API returns newest first, the store returns oldest first.
+            for (int i = 0; i < read.length; i++) {
+                DataRecord orig = records[records.length - 1 - i];
+                assertEquals(orig.getDateutcMillis(), read[i].getDateutcMillis());
+                assertEquals(orig.getDate(), read[i].getDate());
+                for (RecordField field : RecordField.doubleFields()) {
+                    assertEquals(field.getDouble(orig), field.getDouble(read[i]), 0.0);
+                }
+                for (RecordField field : RecordField.intFields()) {
+                    assertEquals(field.getInt(orig), field.getInt(read[i]));
+                }
+            }
+            assertTrue(store.contains("mac", to));
+            assertFalse(store.contains("other", to));
+        }
+    }
+
+    @Test
+    public void scansRangeInOrder() throws Exception {
+        DataRecord[] records = new ObjectMapper().readValue(BenchmarkData.dataRecordsJson(100, 1600000000000L), DataRecord[].class);
+        try (DataRecordStore store = new DataRecordStore(Files.createTempDirectory("store"))) {
+            // API pages are newest first, so these are appended in descending order.
+            store.append("mac", records);
+
+            long from = records[60].getDateutcMillis();
+            long to = records[20].getDateutcMillis();
+            List<Long> times = new ArrayList<>();
+            int count = store.scan("mac", from, to, row -> times.add(row.getDateutc()));
+            assertEquals(41, count);
+            assertEquals(from, (long) times.get(0));
+            assertEquals(to, (long) times.get(40));
+            for (int i = 1; i < times.size(); i++) {
+                assertTrue(times.get(i - 1) < times.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DerivedMetrics.
+ */
+public class DerivedMetricsTest {
+    @Test
+    public void formulas() {
+        // Values from the NWS heat index and wind chill charts.
+        assertEquals(95, DerivedMetrics.heatIndex(90, 50), 0.5);
+        assertEquals(121, DerivedMetrics.heatIndex(96, 65), 0.5);
+        assertEquals(-19, DerivedMetrics.windChill(0, 15), 0.5);
+        assertEquals(40, DerivedMetrics.windChill(40, 2), 0);
+        assertEquals(48.6, DerivedMetrics.dewPoint(68, 50), 0.1);
+        assertEquals(68, DerivedMetrics.dewPoint(68, 100), 1e-9);
+        assertEquals(60, DerivedMetrics.feelsLike(60, 40, 10), 0);
+
+        // FAO-56 hourly example conditions give about 0.6mm.
+        assertEquals(0.6 / 25.4, DerivedMetrics.evapotranspiration(77, 50, 4.47, 800, 0), 0.002);
+        assertEquals(0, DerivedMetrics.evapotranspiration(50, 100, 0, 0, 29.9), 1e-9);
+    }
+
+    @Test
+    public void fillsOnlyMissing() {
+        DataRecord missing = record(90, 50, 5);
+        DataRecord sent = record(90, 50, 5);
+        sent.setFeelsLike(91.5);
+        DataRecord noSensor = record(0, 0, 0);
+
+        new DerivedMetrics().apply(new DataRecord[] { missing, sent, noSensor });
+        assertEquals(DerivedMetrics.heatIndex(90, 50), missing.getFeelsLike(), 1e-9);
+        assertEquals(DerivedMetrics.dewPoint(90, 50), missing.getDewPoint(), 1e-9);
+        assertEquals(DerivedMetrics.dewPoint(70, 40), missing.getDewPointin(), 1e-9);
+        assertEquals(70, missing.getFeelsLikein(), 0);
+        assertEquals(91.5, sent.getFeelsLike(), 0);
+        assertEquals(0, noSensor.getFeelsLike(), 0);
+        assertEquals(0, noSensor.getDewPoint(), 0);
+
+        new DerivedMetrics().recompute(true).apply(new DataRecord[] { sent });
+        assertEquals(DerivedMetrics.heatIndex(90, 50), sent.getFeelsLike(), 1e-9);
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        Random random = new Random(5);
+        int n = 20000;
+        DataRecord[] serial = new DataRecord[n];
+        DataRecord[] parallel = new DataRecord[n];
+        for (int i = 0; i < n; i++) {
+            double temp = random.nextInt(1200) / 10.0 - 10;
+            int humidity = 1 + random.nextInt(100);
+            double wind = random.nextInt(30);
+            double solar = random.nextInt(1000);
+            serial[i] = record(temp, humidity, wind);
+            serial[i].setSolarradiation(solar);
+            parallel[i] = record(temp, humidity, wind);
+            parallel[i].setSolarradiation(solar);
+        }
+
+        DerivedMetrics one = new DerivedMetrics().parallelThreshold(Integer.MAX_VALUE);
+        DerivedMetrics many = new DerivedMetrics().parallelThreshold(1).pool(new ForkJoinPool(4));
+        one.apply(serial);
+        many.apply(parallel);
+        for (int i = 0; i < n; i++) {
+            assertEquals(serial[i].getFeelsLike(), parallel[i].getFeelsLike(), 0);
+            assertEquals(serial[i].getDewPoint(), parallel[i].getDewPoint(), 0);
+        }
+
+        double[] et = many.evapotranspiration(parallel, new double[n]);
+        DataRecordBatch batch = DataRecordBatch.of("00:00:00:00:00:01", serial);
+        assertArrayEquals(et, one.evapotranspiration(batch, new double[n]), 0);
+    }
+
+    private static DataRecord record(double TempF, int Humidity, double WindMph) {
+        DataRecord rec = new DataRecord();
+        rec.setTempf(TempF);
+        rec.setHumidity(Humidity);
+        rec.setWindspeedmph(WindMph);
+        if (Humidity > 0) {
+            rec.setTempinf(70);
+            rec.setHumidityin(40);
+        }
+        return rec;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the hand written deserializers in FastRecordModule
+ * produce the same records as Jackson bean deserialization.
+ */
+public class FastRecordModuleTest {
+    private ObjectMapper standard = new ObjectMapper();
+    private ObjectMapper fast = new ObjectMapper().registerModule(new FastRecordModule());
+
+    @Test
+    public void matchesStandardDataRecords() throws Exception {
+        String json = BenchmarkData.dataRecordsJson(50, 1600000000000L);
+        DataRecord[] expected = this.standard.readValue(json, DataRecord[].class);
+        DataRecord[] actual = this.fast.readValue(json, DataRecord[].class);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertSameFields(expected[i], actual[i]);
+            assertEquals(expected[i].getLoc(), actual[i].getLoc());
+        }
+    }
+
+    @Test
+    public void matchesStandardDevices() throws Exception {
+        String json = BenchmarkData.devicesJson(3);
+        Device[] expected = this.standard.readValue(json, Device[].class);
+        Device[] actual = this.fast.readValue(json, Device[].class);
+        for (int i = 0; i < expected.length; i++) {
+            assertSameFields(expected[i].getLastData(), actual[i].getLastData());
+            assertEquals(expected[i].getLastData().getTz(), actual[i].getLastData().getTz());
+        }
+    }
+
+    @Test
+    public void dateutcIsNullWhenAbsent() throws Exception {
+        for (ObjectMapper mapper : new ObjectMapper[] { this.standard, this.fast }) {
+            DataRecord absent = mapper.readValue("{\"tempf\":70.1}", DataRecord.class);
+            assertFalse(absent.hasDateutc());
+            assertNull(absent.getDateutc());
+            assertNull(absent.getDateutcInstant());
+
+            DataRecord present = mapper.readValue("{\"dateutc\":1600000000000}", DataRecord.class);
+            assertEquals(1600000000000L, present.getDateutc().getTime());
+        }
+
+        DataRecord rec = new DataRecord();
+        rec.setDateutc(new Date(5));
+        rec.setDateutc(null);
+        assertNull(rec.getDateutc());
+        assertEquals(0, rec.getDateutcMillis());
+    }
+
+    @Test
+    public void skipsUnknownFieldsAndNulls() throws Exception {
+        String json = "{\"dateutc\":1600000000000,\"pm25\":12,\"extra\":{\"a\":[1,2,{\"b\":3}]},"
+            + "\"tempf\":null,\"humidity\":55,\"lastRain\":null,\"list\":[1,2]}";
+        DataRecord rec = this.fast.readValue(json, DataRecord.class);
+        assertEquals(1600000000000L, rec.getDateutcMillis());
+        assertEquals(0.0, rec.getTempf(), 0.0);
+        assertEquals(55, rec.getHumidity());
+        assertEquals("", rec.getLastRain());
+    }
+
+    @Test
+    public void internsRepeatedStrings() throws Exception {
+        DataRecord[] recs = this.fast.readValue(BenchmarkData.dataRecordsJson(2, 1600000000000L), DataRecord[].class);
+        assertSame(recs[0].getLoc(), recs[1].getLoc());
+    }
+
+    private static void assertSameFields(BaseDataRecord Expected, BaseDataRecord Actual) {
+        assertEquals(Expected.getDateutcMillis(), Actual.getDateutcMillis());
+        for (RecordField field : RecordField.doubleFields()) {
+            assertEquals(field.name(), field.getDouble(Expected), field.getDouble(Actual), 0.0);
+        }
+        for (RecordField field : RecordField.intFields()) {
+            assertEquals(field.name(), field.getInt(Expected), field.getInt(Actual));
+        }
+        assertEquals(Expected.getLastRain(), Actual.getLastRain());
+        assertEquals(Expected.getDate(), Actual.getDate());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for IncrementalPoller that run against a local MockAmbientServer.
+ */
+public class IncrementalPollerTest {
+    private static final long LATEST = 1600000000000L - (1600000000000L % BenchmarkData.FIVE_MINUTES);
+
+    private MockAmbientServer server;
+    private AmbientWeather aw;
+    private Path file;
+
+    @Before
+    public void setup() throws Exception {
+        this.server = new MockAmbientServer(LATEST, LATEST - 30L * 24 * 3600 * 1000);
+        this.aw = AmbientWeather.builder("app", "api")
+            .baseUrl(this.server.getBaseUrl())
+            .disableRateLimit()
+            .build();
+        this.file = Files.createTempDirectory("poller").resolve("watermarks.properties");
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    private IncrementalPoller poller(long NowMillis) throws Exception {
+        return new IncrementalPoller(this.aw, this.file)
+            .initialLimit(5)
+            .clock(Clock.fixed(Instant.ofEpochMilli(NowMillis), ZoneOffset.UTC));
+    }
+
+    @Test
+    public void onlyReturnsNewRecords() throws Exception {
+        DataRecord[] first = this.poller(LATEST).poll("mac");
+        assertEquals(5, first.length);
+        assertTrue(first[0].getDateutcMillis() < first[4].getDateutcMillis());
+        assertEquals(LATEST, first[4].getDateutcMillis());
+
+        // A new poller picks up the saved watermark, and asks for one record.
+        IncrementalPoller poller = this.poller(LATEST);
+        assertEquals(LATEST, poller.getWatermark("mac"));
+        assertEquals(0, poller.poll("mac").length);
+        assertTrue(this.server.getLastQuery().contains("limit=1"));
+
+        // Three new reports, the learned interval is five minutes.
+        long latest = LATEST + 3 * BenchmarkData.FIVE_MINUTES;
+        this.server.setLatestMillis(latest);
+        poller.clock(Clock.fixed(Instant.ofEpochMilli(latest), ZoneOffset.UTC));
+        DataRecord[] next = poller.poll("mac");
+        assertEquals(3, next.length);
+        assertEquals(latest, next[2].getDateutcMillis());
+        assertTrue(this.server.getLastQuery().contains("limit=4"));
+    }
+
+    @Test
+    public void catchesUpAcrossPages() throws Exception {
+        IncrementalPoller poller = this.poller(LATEST);
+        poller.poll("mac");
+
+        long latest = LATEST + 600 * BenchmarkData.FIVE_MINUTES;
+        this.server.setLatestMillis(latest);
+        poller.clock(Clock.fixed(Instant.ofEpochMilli(latest), ZoneOffset.UTC));
+        DataRecord[] next = poller.poll("mac");
+        assertEquals(600, next.length);
+        for (int i = 1; i < next.length; i++) {
+            assertEquals(BenchmarkData.FIVE_MINUTES, next[i].getDateutcMillis() - next[i - 1].getDateutcMillis());
+        }
+        assertEquals(latest, poller.getWatermark("mac"));
+    }
+}
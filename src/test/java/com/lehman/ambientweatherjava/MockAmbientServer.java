@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Ambient Weather REST API used by the offline
+ * tests. Device data is generated on the fly with one record every five
+ * minutes ending at the requested endDate, so paging works like the real API.
+ */
+public class MockAmbientServer implements AutoCloseable {
+    private HttpServer server;
+
+    /**
+     * Epoch millis of the newest record the server has.
+     */
+    private long latestMillis;
+
+    /**
+     * Epoch millis of the oldest record the server has.
+     */
+    private long earliestMillis;
+
+    /**
+     * Status codes to return for the next requests before answering normally.
+     */
+    private ConcurrentLinkedQueue<Integer> failures = new ConcurrentLinkedQueue<>();
+
+    private AtomicInteger requestCount = new AtomicInteger();
+
+    private int deviceCount = 2;
+
+    /**
+     * The query string of the last request.
+     */
+    private volatile String lastQuery;
+
+    /**
+     * Milliseconds to wait before answering each request to simulate network latency.
+     */
+    private long latencyMillis = 0;
+
+    public MockAmbientServer(long LatestMillis, long EarliestMillis) throws IOException {
+        this.latestMillis = LatestMillis;
+        this.earliestMillis = EarliestMillis;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.server.createContext("/v1/devices", this::handle);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/v1/";
+    }
+
+    public int getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    public void failNext(int StatusCode) {
+        this.failures.add(StatusCode);
+    }
+
+    public String getLastQuery() {
+        return this.lastQuery;
+    }
+
+    public void setLatestMillis(long LatestMillis) {
+        this.latestMillis = LatestMillis;
+    }
+
+    public void setDeviceCount(int DeviceCount) {
+        this.deviceCount = DeviceCount;
+    }
+
+    public void setLatencyMillis(long LatencyMillis) {
+        this.latencyMillis = LatencyMillis;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        this.requestCount.incrementAndGet();
+        this.lastQuery = exchange.getRequestURI().getRawQuery();
+        if (this.latencyMillis > 0) {
+            try {
+                Thread.sleep(this.latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Integer failure = this.failures.poll();
+        if (failure != null) {
+            exchange.getResponseHeaders().add("Retry-After", "0");
+            this.respond(exchange, failure, "{\"error\":\"mock failure\"}");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = this.parseQuery(exchange.getRequestURI().getRawQuery());
+        if (path.equals("/v1/devices")) {
+            this.respond(exchange, 200, BenchmarkData.devicesJson(this.deviceCount));
+            return;
+        }
+
+        int limit = Integer.parseInt(query.getOrDefault("limit", "288"));
+        long end = this.latestMillis;
+        if (query.containsKey("endDate")) {
+            end = Math.min(end, Long.parseLong(query.get("endDate")));
+        }
+        // Align to the five minute grid and clip at the oldest record.
+        end = this.earliestMillis + ((end - this.earliestMillis) / BenchmarkData.FIVE_MINUTES) * BenchmarkData.FIVE_MINUTES;
+        int available = end < this.earliestMillis ? 0 : (int) ((end - this.earliestMillis) / BenchmarkData.FIVE_MINUTES) + 1;
+        this.respond(exchange, 200, BenchmarkData.dataRecordsJson(Math.min(limit, available), end));
+    }
+
+    private Map<String, String> parseQuery(String Query) {
+        Map<String, String> ret = new HashMap<>();
+        if (Query != null) {
+            for (String part : Query.split("&")) {
+                int idx = part.indexOf('=');
+                if (idx > 0) ret.put(part.substring(0, idx), part.substring(idx + 1));
+            }
+        }
+        return ret;
+    }
+
+    private void respond(HttpExchange exchange, int Code, String Body) throws IOException {
+        byte[] bytes = Body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(Code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Ambient Weather realtime API used by the offline
+ * tests. It's a bare bones WebSocket server that speaks just enough Engine.IO
+ * and Socket.IO to accept a subscribe and push data events.
+ */
+public class MockRealtimeServer implements AutoCloseable {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private ServerSocket server;
+
+    private List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    private List<String> subscribes = new CopyOnWriteArrayList<>();
+
+    private AtomicInteger connectionCount = new AtomicInteger();
+
+    public MockRealtimeServer() throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().start(() -> {
+            while (!this.server.isClosed()) {
+                try {
+                    Socket socket = this.server.accept();
+                    Thread.ofVirtual().start(() -> this.serve(socket));
+                } catch (IOException e) {
+                    // Closed.
+                }
+            }
+        });
+    }
+
+    public String getUrl() {
+        return "ws://127.0.0.1:" + this.server.getLocalPort() + "/";
+    }
+
+    public int getConnectionCount() {
+        return this.connectionCount.get();
+    }
+
+    public List<String> getSubscribes() {
+        return this.subscribes;
+    }
+
+    /**
+     * Pushes a data event for the device to every connected client.
+     */
+    public void sendData(String MacAddress, long EpochMillis) throws IOException {
+        String json = BenchmarkData.dataRecordsJson(1, EpochMillis);
+        ObjectNode rec = (ObjectNode) mapper.readTree(json).get(0);
+        rec.remove("loc");
+        rec.put("macAddress", MacAddress);
+        rec.putObject("device").put("macAddress", MacAddress).putObject("info").put("name", "Backyard");
+        for (Socket socket : this.sockets) {
+            this.sendText(socket, "42[\"data\"," + rec + "]");
+        }
+    }
+
+    /**
+     * Drops every connection without a close frame.
+     */
+    public void dropConnections() throws IOException {
+        for (Socket socket : this.sockets) {
+            socket.close();
+        }
+        this.sockets.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        this.dropConnections();
+    }
+
+    private void serve(Socket Socket) {
+        try {
+            InputStream in = Socket.getInputStream();
+            String key = null;
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                    key = line.substring(18).trim();
+                }
+            }
+            byte[] sha = MessageDigest.getInstance("SHA-1").digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.US_ASCII));
+            String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + Base64.getEncoder().encodeToString(sha) + "\r\n\r\n";
+            Socket.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+            this.connectionCount.incrementAndGet();
+            this.sockets.add(Socket);
+            this.sendText(Socket, "0{\"sid\":\"mock\",\"upgrades\":[],\"pingInterval\":100,\"pingTimeout\":200}");
+            Thread.ofVirtual().start(() -> {
+                try {
+                    while (!Socket.isClosed()) {
+                        Thread.sleep(100);
+                        this.sendText(Socket, "2");
+                    }
+                } catch (Exception e) {
+                    // Connection dropped.
+                }
+            });
+
+            DataInputStream data = new DataInputStream(in);
+            while (true) {
+                int b0 = data.readUnsignedByte();
+                int b1 = data.readUnsignedByte();
+                long len = b1 & 0x7f;
+                if (len == 126) len = data.readUnsignedShort();
+                else if (len == 127) len = data.readLong();
+                byte[] mask = new byte[4];
+                if ((b1 & 0x80) != 0) data.readFully(mask);
+                byte[] payload = new byte[(int) len];
+                data.readFully(payload);
+                for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+
+                int opcode = b0 & 0x0f;
+                if (opcode == 8) {
+                    break;
+                } else if (opcode == 1) {
+                    String text = new String(payload, StandardCharsets.UTF_8);
+                    if (text.equals("40")) {
+                        this.sendText(Socket, "40{\"sid\":\"mock\"}");
+                    } else if (text.startsWith("42[\"subscribe\"")) {
+                        this.subscribes.add(text);
+                        this.sendText(Socket, "42[\"subscribed\",{\"devices\":" + BenchmarkData.devicesJson(2) + ",\"method\":\"subscribe\"}]");
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Connection dropped.
+        } finally {
+            this.sockets.remove(Socket);
+            try {
+                Socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+
+    private synchronized void sendText(Socket Socket, String Text) throws IOException {
+        byte[] payload = Text.getBytes(StandardCharsets.UTF_8);
+        OutputStream out = Socket.getOutputStream();
+        out.write(0x81);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else {
+            out.write(126);
+            out.write(payload.length >> 8);
+            out.write(payload.length & 0xff);
+        }
+        out.write(payload);
+        out.flush();
+    }
+
+    private static String readLine(InputStream In) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = In.read(); c != '\n' && c != -1; c = In.read()) {
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PollScheduler that run against a local MockAmbientServer.
+ */
+public class PollSchedulerTest {
+    private static final long LATEST = 1600000000000L - (1600000000000L % BenchmarkData.FIVE_MINUTES);
+
+    private MockAmbientServer server;
+    private IncrementalPoller poller;
+    private BlockingQueue<DataRecord> records = new LinkedBlockingQueue<>();
+    private PollScheduler scheduler;
+
+    @Before
+    public void setup() throws Exception {
+        this.server = new MockAmbientServer(LATEST, LATEST - 30L * 24 * 3600 * 1000);
+        AmbientWeather aw = AmbientWeather.builder("app", "api")
+            .baseUrl(this.server.getBaseUrl())
+            .disableRateLimit()
+            .build();
+        this.poller = new IncrementalPoller(aw, null).initialLimit(5);
+        this.scheduler = new PollScheduler(this.poller, this.records::add).budget(1);
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.close();
+        this.server.close();
+    }
+
+    @Test
+    public void spreadsPollsOverSlots() {
+        assertEquals(5000, this.scheduler.takeSlot(5000, 0));
+        assertEquals(6000, this.scheduler.takeSlot(5000, 0));
+        assertEquals(7000, this.scheduler.takeSlot(5500, 0));
+        assertEquals(2500, this.scheduler.takeSlot(2500, 0));
+
+        // Slots in the past are freed.
+        assertEquals(10000, this.scheduler.takeSlot(5000, 10000));
+    }
+
+    @Test
+    public void backsOffSilentDevices() {
+        this.scheduler.maxBackoff(Duration.ofMinutes(5));
+        PollScheduler.DeviceState state = new PollScheduler.DeviceState("mac");
+        assertEquals(60000, this.scheduler.planNext(state, false, 0));
+        assertEquals(120000, this.scheduler.planNext(state, false, 0));
+        assertEquals(240000, this.scheduler.planNext(state, false, 0));
+        assertEquals(300000, this.scheduler.planNext(state, false, 0));
+    }
+
+    @Test
+    public void removeFreesSlot() {
+        long now = System.currentTimeMillis();
+        Device dev = new Device();
+        dev.setMacAddress("mac");
+        dev.setLastData(new DeviceDataRecord());
+        dev.getLastData().setDateutcMillis(now);
+
+        this.scheduler.addDevice(dev);
+        long first = this.scheduler.getNextPollMillis("mac");
+        assertTrue(first > now);
+        // Adding it again takes a new slot and frees the first.
+        this.scheduler.addDevice(dev);
+        this.scheduler.removeDevice("mac");
+        assertEquals(-1, this.scheduler.getNextPollMillis("mac"));
+        assertEquals(first, this.scheduler.takeSlot(first, now));
+        assertEquals(first - first % 1000 + 1000, this.scheduler.takeSlot(first, now));
+    }
+
+    @Test
+    public void pollsAndPlansFromInterval() throws Exception {
+        long start = System.currentTimeMillis();
+        this.scheduler.addDevice("mac");
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(this.records.poll(5, TimeUnit.SECONDS));
+        }
+
+        // The mock's newest record is long past so the next poll is one learned interval out.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.scheduler.getNextPollMillis("mac") < start + BenchmarkData.FIVE_MINUTES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        long next = this.scheduler.getNextPollMillis("mac");
+        assertTrue(next >= start + BenchmarkData.FIVE_MINUTES);
+        assertTrue(next <= System.currentTimeMillis() + BenchmarkData.FIVE_MINUTES + 1000);
+        assertEquals(BenchmarkData.FIVE_MINUTES, this.poller.getIntervalMillis("mac"));
+    }
+}
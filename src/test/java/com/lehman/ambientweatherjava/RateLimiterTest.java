@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the token bucket RateLimiter.
+ */
+public class RateLimiterTest {
+    @Test
+    public void burstIsAvailableUpFront() {
+        RateLimiter limiter = new RateLimiter(1, 3);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void acquireWaitsForNextPermit() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(10, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        // The first permit is free, the other three are 100ms apart.
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(290));
+    }
+
+    @Test
+    public void acquireAsyncCompletesWhenPermitFrees() {
+        RateLimiter limiter = new RateLimiter(10, 1);
+        assertTrue(limiter.acquireAsync().isDone());
+        CompletableFuture<Void> second = limiter.acquireAsync();
+        assertFalse(second.isDone());
+        second.join();
+    }
+
+    @Test
+    public void sharedByKeys() {
+        RateLimiter a = RateLimiter.forKeys("shared-app", "shared-api", 1, 1);
+        RateLimiter b = RateLimiter.forKeys("shared-app", "shared-api", 5, 5);
+        assertSame(a, b);
+        assertNotSame(a, RateLimiter.forKeys("shared-app", "other-api", 1, 1));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RealtimeClient that run against a local MockRealtimeServer.
+ */
+public class RealtimeClientTest {
+    private MockRealtimeServer server;
+    private RealtimeClient client;
+    private BlockingQueue<Device[]> subscribed = new LinkedBlockingQueue<>();
+    private BlockingQueue<Device> data = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setup() throws Exception {
+        this.server = new MockRealtimeServer();
+        this.client = new RealtimeClient("app", List.of("api"))
+            .url(this.server.getUrl())
+            .reconnectPolicy(new RetryPolicy().baseDelay(Duration.ofMillis(10)))
+            .addListener(new RealtimeListener() {
+                @Override
+                public void onSubscribed(Device[] Devices) {
+                    subscribed.add(Devices);
+                }
+
+                @Override
+                public void onData(Device Data) {
+                    data.add(Data);
+                }
+            });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.client.close();
+        this.server.close();
+    }
+
+    @Test
+    public void subscribesAndReceivesData() throws Exception {
+        BlockingQueue<Device> published = new LinkedBlockingQueue<>();
+        this.client.subscribe(new Flow.Subscriber<Device>() {
+            public void onSubscribe(Flow.Subscription Subscription) { Subscription.request(Long.MAX_VALUE); }
+            public void onNext(Device Item) { published.add(Item); }
+            public void onError(Throwable Error) { }
+            public void onComplete() { }
+        });
+
+        this.client.connect().get(5, TimeUnit.SECONDS);
+        Device[] devices = this.subscribed.poll(5, TimeUnit.SECONDS);
+        assertNotNull(devices);
+        assertEquals(2, devices.length);
+        assertEquals("42[\"subscribe\",{\"apiKeys\":[\"api\"]}]", this.server.getSubscribes().get(0));
+
+        this.server.sendData("00:11:22:33:44:55", 1600000000000L);
+        Device device = this.data.poll(5, TimeUnit.SECONDS);
+        assertNotNull(device);
+        assertEquals("00:11:22:33:44:55", device.getMacAddress());
+        assertEquals(1600000000000L, device.getLastData().getDateutcMillis());
+        assertEquals("Backyard", device.getInfo().getName());
+        assertSame(device, published.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void connectTwiceOpensOneSocket() throws Exception {
+        CompletableFuture<Void> first = this.client.connect();
+        assertSame(first, this.client.connect());
+        first.get(5, TimeUnit.SECONDS);
+        assertNotNull(this.subscribed.poll(5, TimeUnit.SECONDS));
+        assertSame(first, this.client.connect());
+
+        this.server.sendData("00:11:22:33:44:55", 1600000000000L);
+        assertNotNull(this.data.poll(5, TimeUnit.SECONDS));
+        assertNull(this.data.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, this.server.getConnectionCount());
+    }
+
+    @Test
+    public void reconnectsAfterDrop() throws Exception {
+        this.client.connect().get(5, TimeUnit.SECONDS);
+        assertNotNull(this.subscribed.poll(5, TimeUnit.SECONDS));
+
+        this.server.dropConnections();
+        assertNotNull(this.subscribed.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, this.server.getConnectionCount());
+        assertEquals(1, this.client.getReconnectCount());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RecordKey and the DataRecord identity methods.
+ */
+public class RecordKeyTest {
+    @Test
+    public void packsMacAddress() {
+        assertEquals(0x000EC6200F7BL, RecordKey.macToLong("00:0E:C6:20:0F:7B"));
+        assertEquals(0x000EC6200F7BL, RecordKey.macToLong("00-0e-c6-20-0f-7b"));
+        assertTrue(RecordKey.macToLong("not a mac") < 0);
+    }
+
+    @Test
+    public void equalityAndOrder() {
+        RecordKey a = RecordKey.of("00:0E:C6:20:0F:7B", 1000);
+        assertEquals(a, RecordKey.of("00:0e:c6:20:0f:7b", 1000));
+        assertEquals(a.hashCode(), RecordKey.of("00:0E:C6:20:0F:7B", 1000).hashCode());
+        assertNotEquals(a, RecordKey.of("00:0E:C6:20:0F:7C", 1000));
+        assertTrue(a.compareTo(RecordKey.of("00:0E:C6:20:0F:7A", 1001)) < 0);
+    }
+
+    @Test
+    public void idIsComputedLazily() {
+        DataRecord rec = new DataRecord();
+        rec.setDateutc(new Date(1600000000000L));
+        rec.setDeviceMac("00:0E:C6:20:0F:7B");
+        assertEquals("", rec.getId());
+
+        rec.generateId();
+        assertEquals(RecordKey.of("00:0E:C6:20:0F:7B", 1600000000000L), rec.getKey());
+        assertEquals(DigestUtils.sha256Hex("1600000000000" + "00:0E:C6:20:0F:7B"), rec.getId());
+    }
+
+    @Test
+    public void idMatchesKeyAfterMacChanges() {
+        DataRecord rec = new DataRecord();
+        rec.setDateutc(new Date(1600000000000L));
+        rec.setDeviceMac("00:0E:C6:20:0F:7B");
+        rec.generateId();
+        rec.setDeviceMac("00:0E:C6:20:0F:7C");
+
+        // Both come from the MAC when generateId() was called, like the old eager ID.
+        assertEquals(RecordKey.of("00:0E:C6:20:0F:7B", 1600000000000L), rec.getKey());
+        assertEquals(DigestUtils.sha256Hex("1600000000000" + "00:0E:C6:20:0F:7B"), rec.getId());
+    }
+
+    @Test
+    public void idIsSeenByOtherThreads() throws Exception {
+        String expected = DigestUtils.sha256Hex("1600000000000" + "00:0E:C6:20:0F:7B");
+        for (int run = 0; run < 200; run++) {
+            DataRecord rec = new DataRecord();
+            rec.setDateutc(new Date(1600000000000L));
+            rec.setDeviceMac("00:0E:C6:20:0F:7B");
+            rec.generateId();
+
+            String[] ids = new String[4];
+            Thread[] threads = new Thread[ids.length];
+            for (int t = 0; t < threads.length; t++) {
+                int slot = t;
+                threads[t] = new Thread(() -> ids[slot] = rec.getId());
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (String id : ids) {
+                assertEquals(expected, id);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RecordPublisher.
+ */
+public class RecordPublisherTest {
+    @Test
+    public void concurrentRequestsAndPages() throws Exception {
+        ExecutorService pageThread = Executors.newSingleThreadExecutor();
+        ExecutorService requestThread = Executors.newSingleThreadExecutor();
+        try {
+            for (int run = 0; run < 200; run++) {
+                // Pages complete on one thread while another thread requests one record
+                // at a time, so page arrival and request race each other.
+                int pageSize = 1 + run % 5;
+                int pageCount = 20;
+                RecordPublisher publisher = new RecordPublisher(() -> new RecordPublisher.Pages() {
+                    private int next = 0;
+
+                    @Override
+                    public CompletableFuture<DataRecord[]> next() {
+                        int pageNo = this.next++;
+                        return CompletableFuture.supplyAsync(() -> {
+                            if (pageNo == pageCount) {
+                                return null;
+                            }
+                            DataRecord[] page = new DataRecord[pageSize];
+                            for (int i = 0; i < pageSize; i++) {
+                                page[i] = new DataRecord();
+                                page[i].setDateutcMillis(pageNo * pageSize + i);
+                            }
+                            return page;
+                        }, pageThread);
+                    }
+                });
+
+                List<Long> received = new ArrayList<>();
+                AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+                CountDownLatch complete = new CountDownLatch(1);
+                publisher.subscribe(new Flow.Subscriber<DataRecord>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription S) {
+                        subscription.set(S);
+                    }
+
+                    @Override
+                    public void onNext(DataRecord Rec) {
+                        received.add(Rec.getDateutcMillis());
+                    }
+
+                    @Override
+                    public void onError(Throwable T) {
+                        complete.countDown();
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        complete.countDown();
+                    }
+                });
+
+                requestThread.submit(() -> {
+                    while (complete.getCount() > 0) {
+                        subscription.get().request(1);
+                        Thread.yield();
+                    }
+                });
+                assertTrue(complete.await(10, TimeUnit.SECONDS));
+
+                assertEquals(pageSize * pageCount, received.size());
+                for (int i = 0; i < received.size(); i++) {
+                    assertEquals(i, (long) received.get(i));
+                }
+            }
+        } finally {
+            pageThread.shutdownNow();
+            requestThread.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lehman.ambientweatherjava.benchmark.BenchmarkData;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RollupEngine.
+ */
+public class RollupEngineTest {
+    private static final long HOUR = 3600000L;
+
+    private static DataRecord[] records(int Count) throws Exception {
+        // Ends on an hour boundary minus five minutes so the windows are full.
+        long end = 1600000000000L / HOUR * HOUR - BenchmarkData.FIVE_MINUTES;
+        DataRecord[] records = new ObjectMapper().readValue(BenchmarkData.dataRecordsJson(Count, end), DataRecord[].class);
+        Collections.reverse(Arrays.asList(records));
+        return records;
+    }
+
+    @Test
+    public void tumblingWindows() throws Exception {
+        DataRecord[] records = records(48);
+        List<Rollup> rollups = new ArrayList<>();
+        RollupEngine engine = new RollupEngine(Duration.ofHours(1), rollups::add);
+        engine.add("mac", records);
+        assertEquals(3, rollups.size());
+        engine.flush();
+        assertEquals(4, rollups.size());
+
+        for (int w = 0; w < 4; w++) {
+            Rollup rollup = rollups.get(w);
+            assertEquals(12, rollup.getCount());
+            assertEquals(HOUR, rollup.getWindowEnd() - rollup.getWindowStart());
+            double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, sum = 0;
+            for (int i = w * 12; i < w * 12 + 12; i++) {
+                min = Math.min(min, records[i].getTempf());
+                max = Math.max(max, records[i].getTempf());
+                sum += records[i].getTempf();
+            }
+            assertEquals(min, rollup.getMin(RecordField.TEMPF), 0.0);
+            assertEquals(max, rollup.getMax(RecordField.TEMPF), 0.0);
+            assertEquals(sum / 12, rollup.getMean(RecordField.TEMPF), 1e-9);
+        }
+    }
+
+    @Test
+    public void outOfOrderWithinLateness() throws Exception {
+        DataRecord[] records = records(48);
+        List<Rollup> inOrder = new ArrayList<>();
+        RollupEngine engine = new RollupEngine(Duration.ofHours(1), inOrder::add);
+        engine.add("mac", records);
+        engine.flush();
+
+        // Shuffle in blocks of six records, thirty minutes.
+        DataRecord[] shuffled = records.clone();
+        Random random = new Random(7);
+        for (int b = 0; b < shuffled.length; b += 6) {
+            Collections.shuffle(Arrays.asList(shuffled).subList(b, b + 6), random);
+        }
+        List<Rollup> reordered = new ArrayList<>();
+        engine = new RollupEngine(Duration.ofHours(1), reordered::add).allowedLateness(Duration.ofMinutes(30));
+        engine.add("mac", shuffled);
+        engine.flush();
+
+        assertEquals(inOrder.size(), reordered.size());
+        for (int i = 0; i < inOrder.size(); i++) {
+            assertEquals(inOrder.get(i).getCount(), reordered.get(i).getCount());
+            assertEquals(inOrder.get(i).getMean(RecordField.TEMPF), reordered.get(i).getMean(RecordField.TEMPF), 1e-9);
+        }
+        assertEquals(0, engine.getDroppedCount());
+
+        // Too late now.
+        engine.add("mac", records[0]);
+        assertEquals(1, engine.getDroppedCount());
+    }
+
+    @Test
+    public void rainCounterHandlesReset() throws Exception {
+        DataRecord[] records = records(6);
+        double[] daily = { 0.10, 0.12, 0.20, 0.01, 0.05, 0.05 };
+        for (int i = 0; i < records.length; i++) {
+            records[i].setDailyrainin(daily[i]);
+        }
+        List<Rollup> rollups = new ArrayList<>();
+        RollupEngine engine = new RollupEngine(Duration.ofHours(1), rollups::add);
+        engine.add("mac", records);
+        engine.flush();
+
+        // 0.02 + 0.08, then the reset adds 0.01, then 0.04.
+        assertEquals(1, rollups.size());
+        assertEquals(0.15, rollups.get(0).getSum(RecordField.DAILYRAININ), 1e-9);
+        assertEquals(0.20, rollups.get(0).getMax(RecordField.DAILYRAININ), 0.0);
+    }
+
+    @Test
+    public void slidingWindows() throws Exception {
+        DataRecord[] records = records(24);
+        List<Rollup> rollups = new ArrayList<>();
+        RollupEngine engine = new RollupEngine(Duration.ofHours(1), Duration.ofMinutes(15), EnumSet.of(RecordField.TEMPF), rollups::add);
+        engine.add("mac", records);
+        engine.flush();
+
+        // Windows start every 15 minutes from 45 minutes before the first record.
+        assertEquals(11, rollups.size());
+        assertEquals(3, rollups.get(0).getCount());
+        for (int i = 3; i < 8; i++) {
+            assertEquals(12, rollups.get(i).getCount());
+        }
+        assertEquals(rollups.get(4).getWindowStart() + HOUR, rollups.get(8).getWindowStart());
+    }
+}
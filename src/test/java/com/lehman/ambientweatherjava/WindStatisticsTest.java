@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for WindStatistics and GustSketch.
+ */
+public class WindStatisticsTest {
+    @Test
+    public void vectorMeanDirection() {
+        // The naive mean of 350 and 10 would be 180.
+        WindStatistics north = WindStatistics.of(new double[] { 5, 5 }, new int[] { 350, 10 }, new double[] { 6, 7 }, 2);
+        assertEquals(0, Math.min(north.getVectorMeanDirection(), 360 - north.getVectorMeanDirection()), 1e-9);
+        assertEquals(5, north.getMeanSpeed(), 1e-9);
+        assertEquals(5 * Math.cos(Math.toRadians(10)), north.getVectorMeanSpeed(), 1e-9);
+
+        // Weighted by speed, three times as much east wind as south wind.
+        WindStatistics weighted = WindStatistics.of(new double[] { 3, 1 }, new int[] { 90, 180 }, new double[] { 0, 0 }, 2);
+        assertEquals(Math.toDegrees(Math.atan2(3, -1)), weighted.getVectorMeanDirection(), 1e-9);
+
+        WindStatistics calm = WindStatistics.of(new double[] { 0, 0 }, new int[] { 90, 270 }, new double[] { 0, 0 }, 2);
+        assertTrue(Double.isNaN(calm.getVectorMeanDirection()));
+    }
+
+    @Test
+    public void sumsMatchTrig() {
+        Random random = new Random(3);
+        int n = 1001;
+        double[] speed = new double[n];
+        int[] dir = new int[n];
+        double u = 0, v = 0, s = 0;
+        for (int i = 0; i < n; i++) {
+            speed[i] = random.nextInt(300) / 10.0;
+            dir[i] = random.nextInt(400) - 20;
+            u += speed[i] * Math.sin(Math.toRadians(dir[i]));
+            v += speed[i] * Math.cos(Math.toRadians(dir[i]));
+            s += speed[i];
+        }
+        double[] out = new double[3];
+        WindStatistics.vectorSums(speed, dir, n, out);
+        assertEquals(u, out[0], 1e-9);
+        assertEquals(v, out[1], 1e-9);
+        assertEquals(s, out[2], 1e-9);
+    }
+
+    @Test
+    public void gustPercentiles() {
+        Random random = new Random(5);
+        double[] gusts = new double[10000];
+        for (int i = 0; i < gusts.length; i++) {
+            gusts[i] = random.nextInt(600) / 10.0;
+        }
+        GustSketch sketch = new GustSketch();
+        sketch.addAll(gusts, 0, 5000);
+        GustSketch other = new GustSketch();
+        other.addAll(gusts, 5000, gusts.length);
+        sketch.merge(other);
+
+        double[] sorted = gusts.clone();
+        Arrays.sort(sorted);
+        for (double q : new double[] { 0.01, 0.5, 0.9, 0.95, 0.99, 1.0 }) {
+            double expected = sorted[(int) Math.ceil(q * sorted.length) - 1];
+            assertEquals(expected, sketch.quantile(q), 1e-9);
+        }
+        assertEquals(sorted[0], sketch.getMin(), 0.0);
+        assertEquals(10000, sketch.getCount());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.lehman.ambientweatherjava.DataRecord;
+import com.lehman.ambientweatherjava.DataRecordBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the retained heap per record of a week of 288 record pages held
+ * as DataRecord arrays versus as DataRecordBatch columns. JMH measures time
+ * rather than retained size, so this is a plain main that compares used heap
+ * after a full GC.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.lehman.ambientweatherjava.benchmark.BatchMemoryFootprint
+ */
+public class BatchMemoryFootprint {
+    private static final int PAGES = 7 * 24 * 60 / 5 / 288 * 50;
+
+    public static void main(String[] args) throws Exception {
+        ObjectReader reader = new ObjectMapper().readerFor(DataRecord[].class);
+        long end = System.currentTimeMillis();
+
+        long base = usedHeap();
+        List<DataRecord[]> arrays = new ArrayList<>();
+        for (int i = 0; i < PAGES; i++) {
+            DataRecord[] page = reader.readValue(BenchmarkData.dataRecordsJson(288, end - i * 288 * BenchmarkData.FIVE_MINUTES));
+            for (DataRecord rec : page) {
+                rec.setDeviceMac(BenchmarkData.macAddress(i % 50));
+                rec.generateId();
+            }
+            arrays.add(page);
+        }
+        long arrayBytes = usedHeap() - base;
+        int count = arrays.size() * 288;
+
+        base = usedHeap();
+        List<DataRecordBatch> batches = new ArrayList<>();
+        for (DataRecord[] page : arrays) {
+            batches.add(DataRecordBatch.of(page[0].getDeviceMac(), page));
+        }
+        arrays.clear();
+        long batchBytes = usedHeap() - base + arrayBytes;
+
+        System.out.println("Records:              " + count);
+        System.out.println("DataRecord[] bytes/record:    " + arrayBytes / count);
+        System.out.println("DataRecordBatch bytes/record: " + batchBytes / count);
+        System.out.println("Reduction:            " + String.format("%.1fx", (double) arrayBytes / batchBytes));
+        System.out.println("Batches:              " + batches.size());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
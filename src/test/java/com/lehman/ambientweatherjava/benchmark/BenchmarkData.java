@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Generates response payloads shaped like the Ambient Weather API
+ * responses for use in benchmarks.
+ */
+public class BenchmarkData {
+    /**
+     * Five minutes in milliseconds, the most common reporting interval.
+     */
+    public static final long FIVE_MINUTES = 5 * 60 * 1000L;
+
+    /**
+     * Formatter matching the API date field. (2020-05-09T04:05:00.000Z)
+     */
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Creates a queryDeviceData style JSON array with the provided number of
+     * records. Records are in descending dateutc order like the API returns them.
+     * @param Count is an int with the number of records to create.
+     * @param EndMillis is a long with the dateutc of the newest record.
+     * @return A String with the JSON array.
+     */
+    public static String dataRecordsJson(int Count, long EndMillis) {
+        Random rnd = new Random(42);
+        StringBuilder sb = new StringBuilder(Count * 700);
+        sb.append('[');
+        for (int i = 0; i < Count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(dataRecordJson(EndMillis - i * FIVE_MINUTES, rnd));
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    /**
+     * Creates a listUsersDevices style JSON array with the provided number of devices.
+     * @param Count is an int with the number of devices to create.
+     * @return A String with the JSON array.
+     */
+    public static String devicesJson(int Count) {
+        Random rnd = new Random(7);
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder(Count * 1000);
+        sb.append('[');
+        for (int i = 0; i < Count; i++) {
+            if (i > 0) sb.append(',');
+            String rec = dataRecordJson(now, rnd).replace(",\"loc\":\"ambient-prod-2020-19\"", "");
+            sb.append("{\"macAddress\":\"").append(macAddress(i)).append("\",")
+                .append("\"lastData\":").append(rec, 0, rec.length() - 1).append(",\"tz\":\"America/Los_Angeles\"},")
+                .append("\"info\":{\"name\":\"Station ").append(i).append("\",\"location\":\"Home\"}}");
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    /**
+     * Creates a MAC address String for the provided device index.
+     * @param Index is an int with the device index.
+     * @return A String with the MAC address.
+     */
+    public static String macAddress(int Index) {
+        return String.format("00:0E:C6:%02X:%02X:%02X", (Index >> 16) & 0xff, (Index >> 8) & 0xff, Index & 0xff);
+    }
+
+    private static String dataRecordJson(long DateUtc, Random rnd) {
+        return "{\"dateutc\":" + DateUtc
+            + ",\"tempinf\":" + round(68 + rnd.nextDouble() * 6)
+            + ",\"humidityin\":" + (35 + rnd.nextInt(10))
+            + ",\"baromrelin\":" + round(29.8 + rnd.nextDouble() * 0.4)
+            + ",\"baromabsin\":" + round(29.5 + rnd.nextDouble() * 0.4)
+            + ",\"tempf\":" + round(40 + rnd.nextDouble() * 40)
+            + ",\"battout\":1"
+            + ",\"humidity\":" + (20 + rnd.nextInt(80))
+            + ",\"winddir\":" + rnd.nextInt(360)
+            + ",\"windspeedmph\":" + round(rnd.nextDouble() * 15)
+            + ",\"windgustmph\":" + round(rnd.nextDouble() * 25)
+            + ",\"maxdailygust\":" + round(20 + rnd.nextDouble() * 10)
+            + ",\"hourlyrainin\":0,\"eventrainin\":0,\"dailyrainin\":0,\"weeklyrainin\":0.02"
+            + ",\"monthlyrainin\":0.35,\"totalrainin\":12.41"
+            + ",\"solarradiation\":" + round(rnd.nextDouble() * 800)
+            + ",\"uv\":" + rnd.nextInt(9)
+            + ",\"feelsLike\":" + round(40 + rnd.nextDouble() * 40)
+            + ",\"dewPoint\":" + round(30 + rnd.nextDouble() * 20)
+            + ",\"feelsLikein\":" + round(68 + rnd.nextDouble() * 6)
+            + ",\"dewPointin\":" + round(40 + rnd.nextDouble() * 5)
+            + ",\"lastRain\":\"2020-04-06T23:53:00.000Z\""
+            + ",\"loc\":\"ambient-prod-2020-19\""
+            + ",\"date\":\"" + dateFormat.format(Instant.ofEpochMilli(DateUtc)) + "\"}";
+    }
+
+    private static double round(double Val) {
+        return Math.round(Val * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.lehman.ambientweatherjava.DataRecord;
+import com.lehman.ambientweatherjava.DataRecordCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding a day of 5 minute records with
+ * DataRecordCodec against Jackson JSON. The main method prints the bytes
+ * per record of each before running the benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataRecordCodecBenchmark {
+    private DataRecord[] records;
+    private byte[] json;
+    private ByteBuffer encoded;
+    private ObjectWriter writer;
+    private ObjectReader reader;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        this.reader = mapper.readerFor(DataRecord[].class);
+        this.writer = mapper.writerFor(DataRecord[].class);
+        this.records = this.reader.readValue(BenchmarkData.dataRecordsJson(288, System.currentTimeMillis()));
+        this.json = this.writer.writeValueAsBytes(this.records);
+        this.encoded = DataRecordCodec.encode(this.records);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() throws IOException {
+        return this.writer.writeValueAsBytes(this.records);
+    }
+
+    @Benchmark
+    public DataRecord[] jsonDecode() throws IOException {
+        return this.reader.readValue(this.json);
+    }
+
+    @Benchmark
+    public ByteBuffer codecEncode() throws IOException {
+        return DataRecordCodec.encode(this.records);
+    }
+
+    @Benchmark
+    public DataRecord[] codecDecode() throws IOException {
+        return DataRecordCodec.decode(this.encoded.duplicate());
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        DataRecordCodecBenchmark bench = new DataRecordCodecBenchmark();
+        bench.setup();
+        int count = bench.records.length;
+        System.out.println("JSON bytes/record:  " + bench.json.length / count);
+        System.out.println("Codec bytes/record: " + bench.encoded.remaining() / count);
+
+        new Runner(new OptionsBuilder()
+            .include(DataRecordCodecBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.lehman.ambientweatherjava.DataRecord;
+import com.lehman.ambientweatherjava.DerivedMetrics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures recomputing the derived fields of a year of 5 minute records on
+ * one thread and split across the common pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DerivedMetricsBenchmark {
+    private DataRecord[] records;
+    private double[] et;
+    private DerivedMetrics serial = new DerivedMetrics().recompute(true).parallelThreshold(Integer.MAX_VALUE);
+    private DerivedMetrics parallel = new DerivedMetrics().recompute(true);
+
+    @Setup
+    public void setup() {
+        Random random = new Random(17);
+        this.records = new DataRecord[105120];
+        for (int i = 0; i < this.records.length; i++) {
+            DataRecord rec = new DataRecord();
+            rec.setTempf(random.nextInt(1100) / 10.0 - 10);
+            rec.setHumidity(5 + random.nextInt(95));
+            rec.setWindspeedmph(random.nextInt(250) / 10.0);
+            rec.setSolarradiation(random.nextInt(1000));
+            rec.setTempinf(68 + random.nextInt(60) / 10.0);
+            rec.setHumidityin(30 + random.nextInt(30));
+            this.records[i] = rec;
+        }
+        this.et = new double[this.records.length];
+    }
+
+    @Benchmark
+    public DataRecord[] applySerial() {
+        return this.serial.apply(this.records);
+    }
+
+    @Benchmark
+    public DataRecord[] applyParallel() {
+        return this.parallel.apply(this.records);
+    }
+
+    @Benchmark
+    public double[] evapotranspirationSerial() {
+        return this.serial.evapotranspiration(this.records, this.et);
+    }
+
+    @Benchmark
+    public double[] evapotranspirationParallel() {
+        return this.parallel.evapotranspiration(this.records, this.et);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(DerivedMetricsBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
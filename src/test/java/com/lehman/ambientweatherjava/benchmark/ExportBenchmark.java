@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lehman.ambientweatherjava.DataRecord;
+import com.lehman.ambientweatherjava.DataRecordBatch;
+import com.lehman.ambientweatherjava.DataRecordExporter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures exporting a month of 1 minute records for 24 stations, about a
+ * million rows, to a temp file as CSV and as a columnar file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+    @Param({ "CSV", "COLUMNAR" })
+    private DataRecordExporter.Format format;
+
+    private List<DataRecordBatch> batches;
+    private DataRecord[] records;
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        this.records = new ObjectMapper().readValue(BenchmarkData.dataRecordsJson(30 * 1440, System.currentTimeMillis()), DataRecord[].class);
+        this.batches = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            this.batches.add(DataRecordBatch.of(BenchmarkData.macAddress(i), this.records));
+        }
+        this.file = Files.createTempFile("export", ".out");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    @Benchmark
+    public long exportBatches() throws IOException {
+        return new DataRecordExporter(this.format).exportBatches(this.batches, this.file);
+    }
+
+    @Benchmark
+    public long exportRecords() throws IOException {
+        return new DataRecordExporter(this.format).export(this.records, this.file);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ExportBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
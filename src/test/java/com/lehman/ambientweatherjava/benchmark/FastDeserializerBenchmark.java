@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.lehman.ambientweatherjava.DataRecord;
+import com.lehman.ambientweatherjava.FastRecordModule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a 288 record page with Jackson bean deserialization
+ * (ObjectMapper.readValue) against the hand written deserializers in
+ * FastRecordModule. Both use a shared, warmed up reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FastDeserializerBenchmark {
+    private byte[] json;
+    private ObjectMapper standardMapper;
+    private ObjectReader fastReader;
+
+    @Setup
+    public void setup() {
+        this.json = BenchmarkData.dataRecordsJson(288, System.currentTimeMillis()).getBytes();
+        this.standardMapper = new ObjectMapper();
+        this.fastReader = new ObjectMapper().registerModule(new FastRecordModule()).readerFor(DataRecord[].class);
+    }
+
+    @Benchmark
+    public DataRecord[] objectMapperReadValue() throws IOException {
+        return this.standardMapper.readValue(this.json, DataRecord[].class);
+    }
+
+    @Benchmark
+    public DataRecord[] fastRecordModule() throws IOException {
+        return this.fastReader.readValue(this.json);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(FastDeserializerBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
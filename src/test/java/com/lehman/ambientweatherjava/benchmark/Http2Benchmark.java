@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.lehman.ambientweatherjava.AmbientWeather;
+import com.lehman.ambientweatherjava.MultiDeviceResult;
+import com.lehman.ambientweatherjava.RetryPolicy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares HTTP/1.1 and HTTP/2 when many device queries run in parallel.
+ * The stub server is Jetty with cleartext HTTP/2 (h2c) enabled, so the
+ * HTTP/2 client upgrades and multiplexes the queries over one connection
+ * while the HTTP/1.1 client opens a connection per in-flight query. The
+ * number of connections the server accepted is printed after each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Http2Benchmark {
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public String version;
+
+    @Param({"64"})
+    public int devices;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    private Server server;
+    private ConnectionStatistics stats;
+    private AmbientWeather aw;
+    private List<String> macs;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] body = BenchmarkData.dataRecordsJson(12, System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+
+        this.server = new Server();
+        HttpConfiguration config = new HttpConfiguration();
+        ServerConnector connector = new ServerConnector(this.server, new HttpConnectionFactory(config), new HTTP2CServerConnectionFactory(config));
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        this.stats = new ConnectionStatistics();
+        connector.addBean(this.stats);
+        this.server.addConnector(connector);
+        this.server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setStatus(200);
+                response.setContentType("application/json");
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                baseRequest.setHandled(true);
+            }
+        });
+        this.server.start();
+
+        this.aw = AmbientWeather.builder("app", "api")
+            .baseUrl("http://127.0.0.1:" + connector.getLocalPort() + "/v1/")
+            .version(HttpClient.Version.valueOf(this.version))
+            .disableRateLimit()
+            .retryPolicy(RetryPolicy.none())
+            .build();
+
+        this.macs = new ArrayList<>();
+        for (int i = 0; i < this.devices; i++) {
+            this.macs.add(BenchmarkData.macAddress(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println();
+        System.out.println(this.version + ": server accepted " + this.stats.getConnectionsTotal() + " connections, max open " + this.stats.getConnectionsMax());
+        this.server.stop();
+    }
+
+    @Benchmark
+    public MultiDeviceResult parallelQueries() {
+        return this.aw.queryDevicesDataAsync(this.macs, this.devices).join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(Http2Benchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
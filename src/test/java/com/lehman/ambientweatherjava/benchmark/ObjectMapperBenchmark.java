@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.lehman.ambientweatherjava.DataRecord;
+import com.lehman.ambientweatherjava.Device;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a response with a new ObjectMapper per call (the old
+ * behavior) against a shared mapper with pre-built ObjectReaders.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.lehman.ambientweatherjava.benchmark.ObjectMapperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectMapperBenchmark {
+    private String recordsJson;
+    private String devicesJson;
+    private ObjectReader recordReader;
+    private ObjectReader deviceReader;
+
+    @Setup
+    public void setup() {
+        this.recordsJson = BenchmarkData.dataRecordsJson(288, System.currentTimeMillis());
+        this.devicesJson = BenchmarkData.devicesJson(3);
+        ObjectMapper mapper = new ObjectMapper();
+        this.recordReader = mapper.readerFor(DataRecord[].class);
+        this.deviceReader = mapper.readerFor(Device[].class);
+    }
+
+    @Benchmark
+    public DataRecord[] recordsNewMapperPerCall() throws IOException {
+        return new ObjectMapper().readValue(this.recordsJson, DataRecord[].class);
+    }
+
+    @Benchmark
+    public DataRecord[] recordsSharedReader() throws IOException {
+        return this.recordReader.readValue(this.recordsJson);
+    }
+
+    @Benchmark
+    public Device[] devicesNewMapperPerCall() throws IOException {
+        return new ObjectMapper().readValue(this.devicesJson, Device[].class);
+    }
+
+    @Benchmark
+    public Device[] devicesSharedReader() throws IOException {
+        return this.deviceReader.readValue(this.devicesJson);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ObjectMapperBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.lehman.ambientweatherjava.RecordKey;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares deduping a page of 288 records by the SHA-256 hex ID against
+ * the compact RecordKey. Each benchmark builds the identity for every
+ * record and adds it to a HashSet, which is what dedupe does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordKeyBenchmark {
+    private static final int RECORDS = 288;
+
+    private String mac;
+    private long[] times;
+
+    @Setup
+    public void setup() {
+        this.mac = BenchmarkData.macAddress(12345);
+        this.times = new long[RECORDS];
+        long end = System.currentTimeMillis();
+        for (int i = 0; i < RECORDS; i++) {
+            this.times[i] = end - i * BenchmarkData.FIVE_MINUTES;
+        }
+    }
+
+    @Benchmark
+    public int sha256HexIds() {
+        Set<String> seen = new HashSet<>();
+        for (long time : this.times) {
+            seen.add(DigestUtils.sha256Hex(time + this.mac));
+        }
+        return seen.size();
+    }
+
+    @Benchmark
+    public int recordKeys() {
+        Set<RecordKey> seen = new HashSet<>();
+        for (long time : this.times) {
+            seen.add(RecordKey.of(this.mac, time));
+        }
+        return seen.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(RecordKeyBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.lehman.ambientweatherjava.AmbientWeather;
+import com.lehman.ambientweatherjava.MockAmbientServer;
+import com.lehman.ambientweatherjava.RetryPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of blocking queryDeviceData calls run on a fixed
+ * platform thread pool against a virtual thread per task executor. Calls go
+ * to a local MockAmbientServer that adds latency to each response, so the
+ * platform pool is capped at poolSize / latency calls per second while the
+ * virtual threads can keep every call in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ThreadModelBenchmark {
+    private static final int CALLS = 1000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"50"})
+    public long latencyMillis;
+
+    @Param({"64"})
+    public int platformPoolSize;
+
+    private MockAmbientServer server;
+    private AmbientWeather aw;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException {
+        long now = System.currentTimeMillis();
+        this.server = new MockAmbientServer(now, now - 24 * 3600 * 1000L);
+        this.server.setLatencyMillis(this.latencyMillis);
+
+        if (this.threads.equals("virtual")) {
+            this.aw = AmbientWeather.builder("app", "api")
+                .baseUrl(this.server.getBaseUrl())
+                .disableRateLimit()
+                .retryPolicy(RetryPolicy.none())
+                .virtualThreads()
+                .build();
+            this.executor = (ExecutorService) this.aw.getExecutor();
+        } else {
+            // The HttpClient keeps its default executor here. Sharing a bounded pool
+            // between the blocking callers and the client would deadlock once every
+            // pool thread is waiting on a response only the pool can deliver.
+            this.executor = Executors.newFixedThreadPool(this.platformPoolSize);
+            this.aw = AmbientWeather.builder("app", "api")
+                .baseUrl(this.server.getBaseUrl())
+                .disableRateLimit()
+                .retryPolicy(RetryPolicy.none())
+                .build();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.aw.close();
+        this.executor.shutdownNow();
+        this.server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public int blockingQueries() throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>(CALLS);
+        for (int i = 0; i < CALLS; i++) {
+            futures.add(this.executor.submit(() -> this.aw.queryDeviceData("mac", 1).length));
+        }
+        int total = 0;
+        for (Future<Integer> f : futures) {
+            total += f.get();
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ThreadModelBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.lehman.ambientweatherjava.benchmark;
+
+import com.lehman.ambientweatherjava.GustSketch;
+import com.lehman.ambientweatherjava.WindStatistics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the wind vector sums and gust percentiles against a scalar
+ * baseline that calls Math.sin and Math.cos per record and sorts the gusts.
+ * The vectorApi benchmark runs in a fork with the incubator Vector API enabled,
+ * build with -Pvector-api for it to use WindVectorKernel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WindStatisticsBenchmark {
+    @Param({ "288", "10000" })
+    private int records;
+
+    private double[] speed;
+    private int[] dir;
+    private double[] gust;
+    private double[] out = new double[3];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(11);
+        this.speed = new double[this.records];
+        this.dir = new int[this.records];
+        this.gust = new double[this.records];
+        for (int i = 0; i < this.records; i++) {
+            this.speed[i] = random.nextInt(300) / 10.0;
+            this.dir[i] = random.nextInt(360);
+            this.gust[i] = this.speed[i] + random.nextInt(100) / 10.0;
+        }
+    }
+
+    @Benchmark
+    public double trigBaseline() {
+        double u = 0, v = 0;
+        for (int i = 0; i < this.records; i++) {
+            double rad = Math.toRadians(this.dir[i]);
+            u += this.speed[i] * Math.sin(rad);
+            v += this.speed[i] * Math.cos(rad);
+        }
+        return Math.atan2(u, v);
+    }
+
+    @Benchmark
+    public double tableSums() {
+        WindStatistics.vectorSums(this.speed, this.dir, this.records, this.out);
+        return Math.atan2(this.out[0], this.out[1]);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector", "-Dambientweather.vectorApi=true" })
+    public double vectorApi() {
+        WindStatistics.vectorSums(this.speed, this.dir, this.records, this.out);
+        return Math.atan2(this.out[0], this.out[1]);
+    }
+
+    @Benchmark
+    public double gustSortBaseline() {
+        double[] sorted = this.gust.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.95 * sorted.length) - 1];
+    }
+
+    @Benchmark
+    public double gustSketch() {
+        GustSketch sketch = new GustSketch();
+        sketch.addAll(this.gust, 0, this.records);
+        return sketch.quantile(0.95);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(WindStatisticsBenchmark.class.getSimpleName())
+            .build()
+        ).run();
+    }
+}
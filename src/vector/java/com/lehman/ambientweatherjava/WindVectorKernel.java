@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Austin Lehman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lehman.ambientweatherjava;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API version of the WindStatistics sums. It's only loaded when the
+ * ambientweather.vectorApi system property is true and the JVM was started with
+ * --add-modules jdk.incubator.vector, see WindStatistics. It's only built with
+ * the vector-api profile so the default build doesn't need the incubator module.
+ */
+final class WindVectorKernel {
+    private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+
+    private WindVectorKernel() { }
+
+    /**
+     * Same as WindStatistics.scalarSums. The directions must already be in range.
+     */
+    static void sums(double[] Speed, int[] Direction, int Length, double[] Sin, double[] Cos, double[] Out) {
+        DoubleVector u = DoubleVector.zero(species);
+        DoubleVector v = DoubleVector.zero(species);
+        DoubleVector s = DoubleVector.zero(species);
+        int i = 0;
+        int bound = species.loopBound(Length);
+        for (; i < bound; i += species.length()) {
+            DoubleVector speed = DoubleVector.fromArray(species, Speed, i);
+            u = DoubleVector.fromArray(species, Sin, 0, Direction, i).fma(speed, u);
+            v = DoubleVector.fromArray(species, Cos, 0, Direction, i).fma(speed, v);
+            s = s.add(speed);
+        }
+        double su = u.reduceLanes(VectorOperators.ADD);
+        double sv = v.reduceLanes(VectorOperators.ADD);
+        double ss = s.reduceLanes(VectorOperators.ADD);
+        for (; i < Length; i++) {
+            double speed = Speed[i];
+            su += speed * Sin[Direction[i]];
+            sv += speed * Cos[Direction[i]];
+            ss += speed;
+        }
+        Out[0] = su;
+        Out[1] = sv;
+        Out[2] = ss;
+    }
+}